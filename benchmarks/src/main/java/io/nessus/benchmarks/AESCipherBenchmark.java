@@ -0,0 +1,104 @@
+package io.nessus.benchmarks;
+
+/*-
+ * #%L
+ * Nessus :: Benchmarks
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nessus.cipher.AESCipher;
+import io.nessus.cipher.utils.AESUtils;
+import io.nessus.utils.StreamUtils;
+
+/**
+ * Encrypt and decrypt content of various sizes with {@link AESCipher}.
+ * 
+ * The largest size keeps plain and cipher text in memory, hence the bigger heap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class AESCipherBenchmark {
+
+    @Param({ "1024", "1048576", "104857600" })
+    int size;
+    
+    AESCipher acipher;
+    SecretKey secKey;
+    byte[] plain;
+    byte[] secret;
+    byte[] buffer;
+    
+    @Setup
+    public void setup() throws IOException, GeneralSecurityException {
+        acipher = new AESCipher();
+        secKey = AESUtils.newSecretKey();
+        plain = new byte[size];
+        new Random(size).nextBytes(plain);
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(size + size / 64 + 1024);
+        StreamUtils.copyStream(acipher.encrypt(secKey, new ByteArrayInputStream(plain)), baos);
+        secret = baos.toByteArray();
+        
+        buffer = new byte[64 * 1024];
+    }
+    
+    @Benchmark
+    public long encrypt() throws IOException, GeneralSecurityException {
+        return drain(acipher.encrypt(secKey, new ByteArrayInputStream(plain)));
+    }
+    
+    @Benchmark
+    public long decrypt() throws IOException, GeneralSecurityException {
+        return drain(acipher.decrypt(secKey, new ByteArrayInputStream(secret)));
+    }
+    
+    private long drain(InputStream ins) throws IOException {
+        long count = 0;
+        int read = ins.read(buffer);
+        while (read >= 0) {
+            count += read;
+            read = ins.read(buffer);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,147 @@
+package io.nessus.benchmarks;
+
+/*-
+ * #%L
+ * Nessus :: Benchmarks
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nessus.cipher.AESCipher;
+import io.nessus.cipher.AESParallelEngine;
+import io.nessus.cipher.utils.AESUtils;
+
+/**
+ * Encrypt and decrypt segmented content with the streaming cipher and the {@link AESParallelEngine}.
+ * 
+ * Both write the same format, so the decrypt benchmarks read the same secret.
+ * The largest size keeps plain and cipher text in memory, hence the bigger heap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class AESSegmentedBenchmark {
+
+    @Param({ "1048576", "16777216", "104857600" })
+    int size;
+    
+    AESCipher acipher;
+    AESParallelEngine engine;
+    SecretKey secKey;
+    byte[] iv;
+    byte[] plain;
+    byte[] secret;
+    byte[] buffer;
+    
+    @Setup
+    public void setup() throws IOException, GeneralSecurityException {
+        acipher = new AESCipher();
+        engine = new AESParallelEngine();
+        secKey = AESUtils.newSecretKey();
+        iv = new byte[12];
+        new Random(size).nextBytes(iv);
+        plain = new byte[size];
+        new Random(size).nextBytes(plain);
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(size + size / 64 + 1024);
+        try (OutputStream secOut = acipher.encrypt(secKey, iv, baos, null)) {
+            secOut.write(plain);
+        }
+        secret = baos.toByteArray();
+        
+        buffer = new byte[64 * 1024];
+    }
+    
+    @Benchmark
+    public long streamEncrypt() throws IOException, GeneralSecurityException {
+        CountingOutputStream out = new CountingOutputStream();
+        try (OutputStream secOut = acipher.encrypt(secKey, iv, out, null)) {
+            secOut.write(plain);
+        }
+        return out.count;
+    }
+    
+    @Benchmark
+    public long streamDecrypt() throws IOException, GeneralSecurityException {
+        return drain(acipher.decrypt(secKey, new ByteArrayInputStream(secret)));
+    }
+    
+    @Benchmark
+    public long parallelEncrypt() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        engine.encrypt(secKey, iv, new ByteArrayInputStream(plain), out, null);
+        return out.count;
+    }
+    
+    @Benchmark
+    public long parallelDecrypt() throws IOException, GeneralSecurityException {
+        CountingOutputStream out = new CountingOutputStream();
+        engine.decrypt(secKey, new ByteArrayInputStream(secret), out, null);
+        return out.count;
+    }
+    
+    private long drain(InputStream ins) throws IOException {
+        long count = 0;
+        int read = ins.read(buffer);
+        while (read >= 0) {
+            count += read;
+            read = ins.read(buffer);
+        }
+        return count;
+    }
+    
+    // Discards the output, so that we measure the cipher and not the sink
+    static class CountingOutputStream extends OutputStream {
+        
+        long count;
+        
+        @Override
+        public void write(int b) {
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] bytes, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.nessus.benchmarks;
+
+/*-
+ * #%L
+ * Nessus :: Benchmarks
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import io.nessus.AbstractAddress;
+import io.nessus.Wallet.Address;
+
+/**
+ * Addresses with well known private keys, shared by the benchmarks.
+ */
+public final class Addresses {
+
+    public static final Address BOB = new AbstractAddress("n3ha6rJa8ZS7B4v4vwNWn8CnLHfUYXW1XE") {
+        public String getPrivKey() {
+            return "cVfiZLCWbCm3SWoBAToaCoMuYJJjEw5cR6ifuWQY1a5wadXynGC2";
+        }
+    };
+    
+    // Hide ctor
+    private Addresses() {
+    }
+}
@@ -0,0 +1,81 @@
+package io.nessus.benchmarks;
+
+/*-
+ * #%L
+ * Nessus :: Benchmarks
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nessus.cipher.utils.DeterministicRandom;
+import io.nessus.cipher.utils.DeterministicRandom.Version;
+
+/**
+ * Compare the legacy generator with both versions of {@link DeterministicRandom}.
+ * 
+ * Key derivation mostly asks for small buffers, content sized buffers
+ * could not be generated at all before the upper limit was dropped.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeterministicRandomBenchmark {
+
+    @Param({ "legacy", "V1", "V2" })
+    String generator;
+    
+    @Param({ "16", "256", "65536" })
+    int size;
+    
+    SecureRandom secrnd;
+    byte[] buffer;
+    
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        byte[] seed = "some bytes".getBytes();
+        if ("legacy".equals(generator)) {
+            secrnd = new LegacyDeterministicRandom(seed);
+        } else {
+            secrnd = new DeterministicRandom(seed, Version.valueOf(generator));
+        }
+        buffer = new byte[size];
+    }
+    
+    @Benchmark
+    public byte[] nextBytes() {
+        secrnd.nextBytes(buffer);
+        return buffer;
+    }
+}
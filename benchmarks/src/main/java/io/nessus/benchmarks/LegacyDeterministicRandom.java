@@ -0,0 +1,60 @@
+package io.nessus.benchmarks;
+
+/*-
+ * #%L
+ * Nessus :: Benchmarks
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import org.bouncycastle.util.Arrays;
+
+/**
+ * The original V1 generator that allocates on every round.
+ * 
+ * It serves as the baseline for {@link DeterministicRandomBenchmark}.
+ * The 512 KB upper limit was dropped, so that it can run for a full measurement.
+ */
+@SuppressWarnings("serial") 
+class LegacyDeterministicRandom extends SecureRandom {
+    
+    private final MessageDigest md = MessageDigest.getInstance("SHA3-512");
+    private byte[] digest;
+    
+    LegacyDeterministicRandom(byte[] input) throws GeneralSecurityException {
+        digest = md.digest(input);
+    }
+
+    @Override
+    public void nextBytes(byte[] buffer) {
+        
+    	int idx = 0;
+        byte[] seed = new byte[0];
+        while (seed.length < buffer.length) {
+            idx = (idx + 7) % digest.length;
+            byte[] head = Arrays.copyOfRange(digest, 0, idx);
+            byte[] tail = Arrays.copyOfRange(digest, idx, digest.length);
+            digest = Arrays.concatenate(tail, head);
+            seed = Arrays.concatenate(seed, md.digest(digest));
+        }
+        
+        System.arraycopy(seed, 0, buffer, 0, buffer.length);
+    }
+}
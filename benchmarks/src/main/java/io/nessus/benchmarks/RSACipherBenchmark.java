@@ -0,0 +1,80 @@
+package io.nessus.benchmarks;
+
+/*-
+ * #%L
+ * Nessus :: Benchmarks
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nessus.cipher.RSACipher;
+import io.nessus.cipher.utils.AESUtils;
+import io.nessus.cipher.utils.RSAUtils;
+
+/**
+ * Wrap and unwrap an AES secret key with {@link RSACipher}.
+ * 
+ * This is what happens for every file token that gets created or read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RSACipherBenchmark {
+
+    RSACipher rsa;
+    KeyPair keyPair;
+    byte[] rawKey;
+    byte[] wrapped;
+    
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        rsa = new RSACipher();
+        keyPair = RSAUtils.newKeyPair(Addresses.BOB);
+        SecretKey secKey = AESUtils.newSecretKey();
+        rawKey = secKey.getEncoded();
+        wrapped = rsa.encrypt(keyPair.getPublic(), rawKey);
+    }
+    
+    @Benchmark
+    public byte[] wrap() throws GeneralSecurityException {
+        return rsa.encrypt(keyPair.getPublic(), rawKey);
+    }
+    
+    @Benchmark
+    public byte[] unwrap() throws GeneralSecurityException {
+        return rsa.decrypt(keyPair.getPrivate(), wrapped);
+    }
+}
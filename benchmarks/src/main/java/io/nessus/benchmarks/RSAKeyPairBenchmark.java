@@ -0,0 +1,63 @@
+package io.nessus.benchmarks;
+
+/*-
+ * #%L
+ * Nessus :: Benchmarks
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nessus.cipher.utils.RSAKeyCache;
+import io.nessus.cipher.utils.RSAUtils;
+
+/**
+ * Get the RSA key pair for an address.
+ * 
+ * {@link RSAUtils#newKeyPair(io.nessus.Wallet.Address)} is served from a cache
+ * after the first call. An empty cache shows the cost of the actual derivation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RSAKeyPairBenchmark {
+
+    @Benchmark
+    public KeyPair newKeyPair() throws GeneralSecurityException {
+        return RSAUtils.newKeyPair(Addresses.BOB);
+    }
+    
+    @Benchmark
+    public KeyPair deriveKeyPair() throws GeneralSecurityException {
+        return new RSAKeyCache().getKeyPair(Addresses.BOB);
+    }
+}
@@ -0,0 +1,123 @@
+package io.nessus.ipfs.core;
+
+/*-
+ * #%L
+ * Nessus :: Benchmarks
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.nessus.benchmarks.Addresses;
+
+/**
+ * Read and write the {@link FHeader} that precedes every encrypted file.
+ * 
+ * This benchmark lives in the core package, because writing a header is not public.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FHeaderBenchmark {
+
+    FHeaderValues fhvals;
+    FHeader fheader;
+    FHeader bheader;
+    String content;
+    byte[] binary;
+    
+    @Setup
+    public void setup() throws IOException {
+        fhvals = new FHeaderValues("Nessus", "1.0");
+        
+        StringBuilder sb = new StringBuilder();
+        sb.append(fhvals.VERSION_STRING + "\n");
+        sb.append("Path: some/path/file.txt\n");
+        sb.append("Owner: " + Addresses.BOB.getAddress() + "\n");
+        sb.append("Token: ZqtNmQ0BvbS5ll5tsFtC2nP6ezFgk3HdUxTfOnDzsXn3oqWmBlf1BdWVjCAxRqm6\n");
+        sb.append(fhvals.FILE_HEADER_END + "\n");
+        content = sb.toString();
+        
+        fheader = FHeader.fromReader(fhvals, new StringReader(content));
+        
+        ByteArrayOutputStream hdr = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(hdr);
+        dos.writeUTF(fhvals.getVersionString(FHeaderValues.BINARY_VERSION));
+        dos.writeShort(4);
+        dos.writeUTF("Path");
+        dos.writeUTF("some/path/file.txt");
+        dos.writeUTF("Owner");
+        dos.writeUTF(Addresses.BOB.getAddress());
+        dos.writeUTF("KeyType");
+        dos.writeUTF("RSA");
+        dos.writeUTF("Token");
+        dos.writeUTF("ZqtNmQ0BvbS5ll5tsFtC2nP6ezFgk3HdUxTfOnDzsXn3oqWmBlf1BdWVjCAxRqm6");
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        dos = new DataOutputStream(baos);
+        dos.writeInt(FHeaderValues.BINARY_MAGIC);
+        dos.writeInt(hdr.size());
+        hdr.writeTo(dos);
+        binary = baos.toByteArray();
+        
+        bheader = FHeader.fromStream(fhvals, new ByteArrayInputStream(binary));
+    }
+    
+    @Benchmark
+    public FHeader fromReader() throws IOException {
+        return FHeader.fromReader(fhvals, new StringReader(content));
+    }
+    
+    @Benchmark
+    public String write() {
+        StringWriter sw = new StringWriter(256);
+        fheader.write(sw);
+        return sw.toString();
+    }
+    
+    @Benchmark
+    public FHeader fromStream() throws IOException {
+        return FHeader.fromStream(fhvals, new ByteArrayInputStream(binary));
+    }
+    
+    @Benchmark
+    public byte[] writeBinary() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(512);
+        bheader.write(baos);
+        return baos.toByteArray();
+    }
+}
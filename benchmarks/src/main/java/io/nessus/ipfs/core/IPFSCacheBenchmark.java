@@ -0,0 +1,106 @@
+package io.nessus.ipfs.core;
+
+/*-
+ * #%L
+ * Nessus :: Benchmarks
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.ipfs.multihash.Multihash;
+import io.ipfs.multihash.Multihash.Type;
+import io.nessus.benchmarks.Addresses;
+import io.nessus.ipfs.FHandle;
+import io.nessus.ipfs.FHandle.FHBuilder;
+
+/**
+ * Put and get handles on a shared {@link IPFSCache}.
+ * 
+ * Readers and writers run concurrently, like the blockchain scanner
+ * and the content workers do.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IPFSCacheBenchmark {
+
+    @Param({ "100", "10000" })
+    int size;
+    
+    IPFSCache cache;
+    FHandle[] fhandles;
+    
+    @Setup
+    public void setup() throws NoSuchAlgorithmException {
+        cache = new IPFSCache();
+        fhandles = new FHandle[size];
+        
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for (int i = 0; i < size; i++) {
+            Multihash cid = new Multihash(Type.sha2_256, md.digest(("content" + i).getBytes()));
+            fhandles[i] = new FHBuilder(Addresses.BOB, "txid" + i, cid).build();
+            cache.put(fhandles[i]);
+        }
+    }
+    
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public FHandle put() {
+        return cache.put(nextHandle());
+    }
+    
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public FHandle get() {
+        return cache.get(nextHandle().getCid(), FHandle.class);
+    }
+    
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public List<FHandle> getAll() {
+        return cache.getAll(FHandle.class);
+    }
+    
+    private FHandle nextHandle() {
+        return fhandles[ThreadLocalRandom.current().nextInt(size)];
+    }
+}
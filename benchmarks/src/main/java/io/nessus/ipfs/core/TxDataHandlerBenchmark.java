@@ -0,0 +1,103 @@
+package io.nessus.ipfs.core;
+
+/*-
+ * #%L
+ * Nessus :: Benchmarks
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.ipfs.multihash.Multihash;
+import io.ipfs.multihash.Multihash.Type;
+import io.nessus.benchmarks.Addresses;
+import io.nessus.ipfs.FHandle;
+import io.nessus.ipfs.FHandle.FHBuilder;
+
+/**
+ * Encode and decode the OP_RETURN data that registers addresses and files.
+ * 
+ * Decoding happens for every transaction output when the blockchain is scanned.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TxDataHandlerBenchmark {
+
+    TxDataHandler dataHandler;
+    Multihash cid;
+    FHandle fhandle;
+    byte[] addrData;
+    byte[] fileData;
+    
+    @Setup
+    public void setup() throws NoSuchAlgorithmException {
+        dataHandler = new TxDataHandler(new FHeaderValues("Nessus", "1.0"));
+        
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest("some content".getBytes());
+        cid = new Multihash(Type.sha2_256, digest);
+        fhandle = new FHBuilder(Addresses.BOB, "txid", cid).build();
+        
+        addrData = opReturn(dataHandler.createAddrData(cid));
+        fileData = opReturn(dataHandler.createFileData(fhandle));
+    }
+    
+    @Benchmark
+    public byte[] createAddrData() {
+        return dataHandler.createAddrData(cid);
+    }
+    
+    @Benchmark
+    public Multihash extractAddrData() {
+        return dataHandler.extractAddrData(addrData);
+    }
+    
+    @Benchmark
+    public byte[] createFileData() {
+        return dataHandler.createFileData(fhandle);
+    }
+    
+    @Benchmark
+    public Multihash extractFileData() {
+        return dataHandler.extractFileData(fileData);
+    }
+    
+    // The wallet wraps the data in an OP_RETURN script
+    private byte[] opReturn(byte[] data) {
+        return ByteBuffer.allocate(data.length + 2)
+                .put(TxDataHandler.OP_RETURN)
+                .put((byte) data.length)
+                .put(data).array();
+    }
+}
@@ -22,9 +22,12 @@ package io.nessus.cipher;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 
@@ -33,13 +36,30 @@ import javax.crypto.CipherInputStream;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 
+import io.nessus.cipher.utils.CipherPool;
 import io.nessus.utils.AssertArgument;
 import io.nessus.utils.AssertState;
 import io.nessus.utils.StreamUtils;
 
 public class AESCipher {
 
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    
     private final SecureRandom secureRandom = new SecureRandom();
+    private final int segmentSize;
+
+    public AESCipher() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+    
+    public AESCipher(int segmentSize) {
+        AssertArgument.assertTrue(segmentSize > 0 && segmentSize <= AESSegments.MAX_SEGMENT_SIZE, "Invalid segment size: " + segmentSize);
+        this.segmentSize = segmentSize;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
 
     public InputStream encrypt(SecretKey secKey, InputStream ins) throws IOException, GeneralSecurityException {
         return encrypt(secKey, ins, null);
@@ -65,9 +85,8 @@ public class AESCipher {
     	
         // Then initialize your cipher and add the optional associated data
 
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
         GCMParameterSpec parameterSpec = new GCMParameterSpec(128, iv);
-        cipher.init(Cipher.ENCRYPT_MODE, secKey, parameterSpec);
+        Cipher cipher = CipherPool.initCipher("AES/GCM/NoPadding", null, Cipher.ENCRYPT_MODE, secKey, parameterSpec);
         if (addData != null) { 
             cipher.updateAAD(addData);
         }
@@ -94,18 +113,55 @@ public class AESCipher {
         return decrypt(secKey, secretStream, null);
     }
     
+    /**
+     * Wrap the given output stream such that everything written to it gets encrypted in segments.
+     * 
+     * Memory usage is bounded by the segment size, no matter how much content is written.
+     * The last segment is written when the returned stream is closed.
+     */
+    public OutputStream encrypt(SecretKey secKey, byte[] iv, OutputStream output, byte[] addData) throws IOException, GeneralSecurityException {
+    	AssertArgument.assertNotNull(output, "Null output");
+        return new AESOutputStream(output, secKey, iv, segmentSize, addData);
+    }
+
+    /**
+     * Open a read only channel on content that was encrypted in segments.
+     * 
+     * The given channel must be positioned at the start of the content. Only the 
+     * segments that cover the bytes being read are decrypted. Closing the returned
+     * channel closes the given channel.
+     */
+    public SeekableByteChannel decrypt(SecretKey secKey, SeekableByteChannel channel, byte[] addData) throws IOException {
+        return new AESSeekableChannel(channel, secKey, addData);
+    }
+
+    /**
+     * Decrypt content that was either encrypted in segments or as a single message.
+     * 
+     * Segmented content is decrypted as it is read. Single message content
+     * must be fully buffered.
+     */
     public InputStream decrypt(SecretKey secKey, InputStream secretStream, byte[] addData) throws IOException, GeneralSecurityException {
+    	AssertArgument.assertNotNull(secKey, "Null secKey");
+    	AssertArgument.assertNotNull(secretStream, "Null input");
 
+        DataInputStream dis = new DataInputStream(secretStream);
+        int magic = dis.readInt();
+        
+        if (magic == AESSegments.MAGIC) {
+            return new AESInputStream(secretStream, secKey, addData);
+        }
+        
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         StreamUtils.copyStream(secretStream, baos);
         byte[] secretMessage = baos.toByteArray();
         
         AssertArgument.assertTrue(secretMessage.length > 0, "Secret message cannot be empty");
         
-        // First deconstruct the message
+        // First deconstruct the message, the magic was the iv length
 
         ByteBuffer byteBuffer = ByteBuffer.wrap(secretMessage);
-        int ivLength = byteBuffer.getInt();
+        int ivLength = magic;
         byte[] iv = new byte[ivLength];
         byteBuffer.get(iv);
         byte[] cipherText = new byte[byteBuffer.remaining()];
@@ -113,8 +169,7 @@ public class AESCipher {
 
         // Initialize the cipher and add the optional associated data and decrypt
 
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        cipher.init(Cipher.DECRYPT_MODE, secKey, new GCMParameterSpec(128, iv));
+        Cipher cipher = CipherPool.initCipher("AES/GCM/NoPadding", null, Cipher.DECRYPT_MODE, secKey, new GCMParameterSpec(128, iv));
         if (addData != null) { 
             cipher.updateAAD(addData);
         }
@@ -0,0 +1,145 @@
+package io.nessus.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import io.nessus.cipher.AESSegments.Header;
+import io.nessus.cipher.utils.CipherPool;
+import io.nessus.utils.AssertArgument;
+
+/**
+ * An input stream that decrypts segment by segment.
+ *
+ * Memory usage is bounded by the segment size. Every segment is authenticated
+ * before any of its plain bytes are returned. Truncated, reordered or modified
+ * content results in an IOException.
+ *
+ * @see AESSegments
+ */
+public class AESInputStream extends InputStream {
+
+    private final InputStream input;
+    private final SecretKey secKey;
+    private final byte[] iv;
+    private final byte[] addData;
+
+    // Holds one more byte than a full segment so that we can detect the last segment
+    private final byte[] cipherBuffer;
+    private final byte[] plainBuffer;
+    private int cipherLength;
+    private int plainPos;
+    private int plainLength;
+    private long segIdx;
+    private boolean done;
+
+    /**
+     * Create a decrypting stream for input that is positioned after the magic.
+     */
+    AESInputStream(InputStream input, SecretKey secKey, byte[] addData) throws IOException, GeneralSecurityException {
+        AssertArgument.assertNotNull(input, "Null input");
+        AssertArgument.assertNotNull(secKey, "Null secKey");
+
+        Header header = AESSegments.readHeader(input);
+
+        this.input = input;
+        this.secKey = secKey;
+        this.iv = header.iv;
+        this.addData = addData;
+
+        cipherBuffer = new byte[header.segSize + AESSegments.TAG_LENGTH + 1];
+        plainBuffer = new byte[header.segSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] buf = new byte[1];
+        int count = read(buf, 0, 1);
+        return count < 0 ? -1 : buf[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (plainPos == plainLength) {
+            if (!readSegment()) return -1;
+        }
+        int count = Math.min(len, plainLength - plainPos);
+        System.arraycopy(plainBuffer, plainPos, buf, off, count);
+        plainPos += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return plainLength - plainPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private boolean readSegment() throws IOException {
+        if (done) return false;
+
+        while (cipherLength < cipherBuffer.length) {
+            int read = input.read(cipherBuffer, cipherLength, cipherBuffer.length - cipherLength);
+            if (read < 0) break;
+            cipherLength += read;
+        }
+
+        boolean last = cipherLength < cipherBuffer.length;
+        int segLength = last ? cipherLength : cipherBuffer.length - 1;
+        if (segLength < AESSegments.TAG_LENGTH)
+            throw new IOException("Truncated segment: " + segIdx);
+
+        try {
+            byte[] nonce = AESSegments.nonce(iv, segIdx++, last);
+            GCMParameterSpec params = new GCMParameterSpec(AESSegments.TAG_LENGTH * 8, nonce);
+            Cipher cipher = CipherPool.initCipher("AES/GCM/NoPadding", null, Cipher.DECRYPT_MODE, secKey, params);
+            if (addData != null) {
+                cipher.updateAAD(addData);
+            }
+            plainLength = cipher.doFinal(cipherBuffer, 0, segLength, plainBuffer, 0);
+            plainPos = 0;
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Cannot decrypt segment: " + (segIdx - 1), ex);
+        }
+
+        // Keep the look ahead byte for the next segment
+        if (last) {
+            cipherLength = 0;
+            done = true;
+        } else {
+            cipherBuffer[0] = cipherBuffer[cipherBuffer.length - 1];
+            cipherLength = 1;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+package io.nessus.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import io.nessus.cipher.utils.CipherPool;
+import io.nessus.utils.AssertArgument;
+
+/**
+ * An output stream that encrypts segment by segment.
+ *
+ * Memory usage is bounded by the segment size. The final segment
+ * is written when the stream gets closed.
+ *
+ * @see AESSegments
+ */
+public class AESOutputStream extends FilterOutputStream {
+
+    private final SecretKey secKey;
+    private final byte[] iv;
+    private final byte[] addData;
+
+    private final byte[] plainBuffer;
+    private final byte[] cipherBuffer;
+    private int plainLength;
+    private long segIdx;
+    private boolean closed;
+
+    AESOutputStream(OutputStream out, SecretKey secKey, byte[] iv, int segSize, byte[] addData) throws IOException, GeneralSecurityException {
+        super(out);
+        AssertArgument.assertNotNull(secKey, "Null secKey");
+        AssertArgument.assertNotNull(iv, "Null iv");
+        AssertArgument.assertTrue(iv.length == AESSegments.IV_LENGTH, "Invalid iv");
+        AssertArgument.assertTrue(segSize > 0 && segSize <= AESSegments.MAX_SEGMENT_SIZE, "Invalid segment size: " + segSize);
+
+        this.secKey = secKey;
+        this.iv = iv.clone();
+        this.addData = addData;
+
+        plainBuffer = new byte[segSize];
+        cipherBuffer = new byte[segSize + AESSegments.TAG_LENGTH];
+
+        AESSegments.writeHeader(out, iv, segSize);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        while (len > 0) {
+
+            // A full segment is only flushed when we know that more data follows
+            if (plainLength == plainBuffer.length) {
+                writeSegment(false);
+            }
+
+            int count = Math.min(len, plainBuffer.length - plainLength);
+            System.arraycopy(buf, off, plainBuffer, plainLength, count);
+            plainLength += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            writeSegment(true);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeSegment(boolean last) throws IOException {
+        try {
+            byte[] nonce = AESSegments.nonce(iv, segIdx++, last);
+            GCMParameterSpec params = new GCMParameterSpec(AESSegments.TAG_LENGTH * 8, nonce);
+            Cipher cipher = CipherPool.initCipher("AES/GCM/NoPadding", null, Cipher.ENCRYPT_MODE, secKey, params);
+            if (addData != null) {
+                cipher.updateAAD(addData);
+            }
+            int count = cipher.doFinal(plainBuffer, 0, plainLength, cipherBuffer, 0);
+            out.write(cipherBuffer, 0, count);
+            plainLength = 0;
+        } catch (GeneralSecurityException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
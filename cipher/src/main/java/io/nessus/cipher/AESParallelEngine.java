@@ -0,0 +1,221 @@
+package io.nessus.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import io.nessus.cipher.AESSegments.Header;
+import io.nessus.cipher.utils.CipherPool;
+import io.nessus.utils.AssertArgument;
+import io.nessus.utils.StreamUtils;
+
+/**
+ * Encrypts and decrypts segmented AES-GCM content on a fork-join pool.
+ *
+ * Every segment has its own nonce, so segments can be processed independently.
+ * A window of segments is read ahead and processed in parallel. The results are
+ * written in segment order. Memory usage is bounded by the window size.
+ *
+ * The output is identical to the output of {@link AESCipher#encrypt(SecretKey, byte[], OutputStream, byte[])}
+ * for the same segment size.
+ *
+ * @see AESSegments
+ */
+public class AESParallelEngine {
+
+    private final ForkJoinPool pool;
+    private final int segmentSize;
+    private final int window;
+
+    public AESParallelEngine() {
+        this(ForkJoinPool.commonPool(), AESCipher.DEFAULT_SEGMENT_SIZE);
+    }
+
+    public AESParallelEngine(ForkJoinPool pool, int segmentSize) {
+        AssertArgument.assertNotNull(pool, "Null pool");
+        AssertArgument.assertTrue(segmentSize > 0 && segmentSize <= AESSegments.MAX_SEGMENT_SIZE, "Invalid segment size: " + segmentSize);
+        this.pool = pool;
+        this.segmentSize = segmentSize;
+        this.window = 2 * pool.getParallelism();
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Encrypt the given input to the given output.
+     *
+     * The output stream is not closed.
+     */
+    public void encrypt(SecretKey secKey, byte[] iv, InputStream input, OutputStream output, byte[] addData) throws IOException {
+        AssertArgument.assertNotNull(secKey, "Null secKey");
+        AssertArgument.assertNotNull(iv, "Null iv");
+        AssertArgument.assertTrue(iv.length == AESSegments.IV_LENGTH, "Invalid iv");
+        AssertArgument.assertNotNull(input, "Null input");
+        AssertArgument.assertNotNull(output, "Null output");
+
+        AESSegments.writeHeader(output, iv, segmentSize);
+
+        process(Cipher.ENCRYPT_MODE, secKey, iv, input, output, segmentSize, addData);
+    }
+
+    /**
+     * Decrypt the given input to the given output.
+     *
+     * Content that was not encrypted in segments is decrypted on the calling thread.
+     * The output stream is not closed.
+     */
+    public void decrypt(SecretKey secKey, InputStream input, OutputStream output, byte[] addData) throws IOException, GeneralSecurityException {
+        AssertArgument.assertNotNull(secKey, "Null secKey");
+        AssertArgument.assertNotNull(input, "Null input");
+        AssertArgument.assertNotNull(output, "Null output");
+
+        int magic = new DataInputStream(input).readInt();
+        if (magic != AESSegments.MAGIC) {
+            byte[] head = ByteBuffer.allocate(4).putInt(magic).array();
+            InputStream ins = new SequenceInputStream(new ByteArrayInputStream(head), input);
+            StreamUtils.copyStream(new AESCipher().decrypt(secKey, ins, addData), output);
+            return;
+        }
+
+        Header header = AESSegments.readHeader(input);
+        int cipherSize = header.segSize + AESSegments.TAG_LENGTH;
+
+        process(Cipher.DECRYPT_MODE, secKey, header.iv, input, output, cipherSize, addData);
+    }
+
+    private void process(int mode, SecretKey secKey, byte[] iv, InputStream input, OutputStream output, int chunkSize, byte[] addData) throws IOException {
+
+        List<ForkJoinTask<byte[]>> tasks = new ArrayList<>(window);
+
+        // A chunk is the last one when no more data follows
+        byte[] chunk = readChunk(input, chunkSize);
+        long segIdx = 0;
+        boolean last = false;
+        while (!last) {
+
+            byte[] next = readChunk(input, chunkSize);
+            last = next.length == 0;
+
+            if (mode == Cipher.DECRYPT_MODE && chunk.length < AESSegments.TAG_LENGTH)
+                throw new IOException("Truncated segment: " + segIdx);
+
+            tasks.add(pool.submit(new SegmentTask(mode, secKey, iv, segIdx++, last, chunk, addData)));
+            chunk = next;
+
+            if (last || tasks.size() == window) {
+                writeResults(tasks, output);
+                tasks.clear();
+            }
+        }
+    }
+
+    private void writeResults(List<ForkJoinTask<byte[]>> tasks, OutputStream output) throws IOException {
+        try {
+            for (ForkJoinTask<byte[]> task : tasks) {
+                output.write(task.join());
+            }
+        } catch (RuntimeException ex) {
+            tasks.forEach(task -> task.cancel(false));
+            Throwable cause = ex;
+            while (cause != null && !(cause instanceof GeneralSecurityException)) {
+                cause = cause.getCause();
+            }
+            throw new IOException("Cannot process segment", cause != null ? cause : ex);
+        }
+    }
+
+    private byte[] readChunk(InputStream input, int chunkSize) throws IOException {
+        byte[] buffer = new byte[chunkSize];
+        int count = 0;
+        while (count < chunkSize) {
+            int read = input.read(buffer, count, chunkSize - count);
+            if (read < 0) break;
+            count += read;
+        }
+        return count < chunkSize ? Arrays.copyOf(buffer, count) : buffer;
+    }
+
+    @SuppressWarnings("serial")
+    static class SegmentTask extends ForkJoinTask<byte[]> {
+
+        private final int mode;
+        private final SecretKey secKey;
+        private final byte[] iv;
+        private final long segIdx;
+        private final boolean last;
+        private final byte[] addData;
+        private byte[] data;
+
+        SegmentTask(int mode, SecretKey secKey, byte[] iv, long segIdx, boolean last, byte[] data, byte[] addData) {
+            this.mode = mode;
+            this.secKey = secKey;
+            this.iv = iv;
+            this.segIdx = segIdx;
+            this.last = last;
+            this.data = data;
+            this.addData = addData;
+        }
+
+        @Override
+        public byte[] getRawResult() {
+            return data;
+        }
+
+        @Override
+        protected void setRawResult(byte[] value) {
+            data = value;
+        }
+
+        @Override
+        protected boolean exec() {
+            try {
+                byte[] nonce = AESSegments.nonce(iv, segIdx, last);
+                GCMParameterSpec params = new GCMParameterSpec(AESSegments.TAG_LENGTH * 8, nonce);
+                Cipher cipher = CipherPool.initCipher("AES/GCM/NoPadding", null, mode, secKey, params);
+                if (addData != null) {
+                    cipher.updateAAD(addData);
+                }
+                data = cipher.doFinal(data);
+                return true;
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package io.nessus.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import io.nessus.cipher.AESSegments.Header;
+import io.nessus.cipher.utils.CipherPool;
+import io.nessus.utils.AssertArgument;
+
+/**
+ * A read only channel on segmented content, which decrypts only the segments that are read.
+ *
+ * Segments have a fixed size, so the segment for any plain position can be located
+ * without reading the content before it. Every segment is authenticated before any of
+ * its plain bytes are returned. The most recently read segment is kept, so that
+ * small sequential reads do not decrypt it again.
+ *
+ * @see AESSegments
+ */
+public class AESSeekableChannel implements SeekableByteChannel {
+
+    private final SeekableByteChannel channel;
+    private final SecretKey secKey;
+    private final byte[] iv;
+    private final byte[] addData;
+    private final int segSize;
+
+    // The channel position of the first segment
+    private final long offset;
+    private final long cipherSize;
+    private final long segCount;
+    private final long size;
+
+    private final byte[] cipherBuffer;
+    private final byte[] plainBuffer;
+    private int plainLength;
+    private long segIdx = -1;
+    private long position;
+    private boolean open = true;
+
+    /**
+     * Create a decrypting channel for content that starts at the current position of the given channel.
+     */
+    AESSeekableChannel(SeekableByteChannel channel, SecretKey secKey, byte[] addData) throws IOException {
+        AssertArgument.assertNotNull(channel, "Null channel");
+        AssertArgument.assertNotNull(secKey, "Null secKey");
+
+        long start = channel.position();
+        ByteBuffer buffer = ByteBuffer.allocate(AESSegments.HEADER_LENGTH);
+        readFully(channel, buffer);
+
+        int magic = buffer.getInt(0);
+        if (magic != AESSegments.MAGIC)
+            throw new IOException("Content not encrypted in segments");
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(buffer.array(), 4, buffer.capacity() - 4));
+        Header header = AESSegments.readHeader(dis);
+
+        this.channel = channel;
+        this.secKey = secKey;
+        this.iv = header.iv;
+        this.addData = addData;
+        this.segSize = header.segSize;
+
+        // There is always at least one segment, which may be empty
+        int cipherSegSize = segSize + AESSegments.TAG_LENGTH;
+        offset = start + AESSegments.HEADER_LENGTH;
+        cipherSize = channel.size() - offset;
+        segCount = Math.max(1, (cipherSize + cipherSegSize - 1) / cipherSegSize);
+        size = cipherSize - segCount * AESSegments.TAG_LENGTH;
+        if (size < 0)
+            throw new IOException("Truncated content: " + cipherSize);
+
+        cipherBuffer = new byte[cipherSegSize];
+        plainBuffer = new byte[segSize];
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        assertOpen();
+
+        if (position >= size)
+            return -1;
+
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            long idx = position / segSize;
+            readSegment(idx);
+            int segPos = (int) (position - idx * segSize);
+            int count = Math.min(dst.remaining(), plainLength - segPos);
+            dst.put(plainBuffer, segPos, count);
+            position += count;
+            total += count;
+        }
+
+        return total;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        assertOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        AssertArgument.assertTrue(newPosition >= 0, "Invalid position: " + newPosition);
+        assertOpen();
+        position = newPosition;
+        return this;
+    }
+
+    /**
+     * The length of the plain content.
+     */
+    @Override
+    public long size() throws IOException {
+        assertOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (open) {
+            open = false;
+            channel.close();
+        }
+    }
+
+    private void readSegment(long idx) throws IOException {
+        if (idx == segIdx) return;
+
+        long cipherPos = idx * cipherBuffer.length;
+        int segLength = (int) Math.min(cipherBuffer.length, cipherSize - cipherPos);
+
+        channel.position(offset + cipherPos);
+        readFully(channel, ByteBuffer.wrap(cipherBuffer, 0, segLength));
+
+        try {
+            byte[] nonce = AESSegments.nonce(iv, idx, idx == segCount - 1);
+            GCMParameterSpec params = new GCMParameterSpec(AESSegments.TAG_LENGTH * 8, nonce);
+            Cipher cipher = CipherPool.initCipher("AES/GCM/NoPadding", null, Cipher.DECRYPT_MODE, secKey, params);
+            if (addData != null) {
+                cipher.updateAAD(addData);
+            }
+            segIdx = -1;
+            plainLength = cipher.doFinal(cipherBuffer, 0, segLength, plainBuffer, 0);
+            segIdx = idx;
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Cannot decrypt segment: " + idx, ex);
+        }
+    }
+
+    private void assertOpen() throws ClosedChannelException {
+        if (!open) throw new ClosedChannelException();
+    }
+
+    private static void readFully(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                throw new EOFException();
+        }
+    }
+}
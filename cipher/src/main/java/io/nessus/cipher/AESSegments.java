@@ -0,0 +1,107 @@
+package io.nessus.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import io.nessus.utils.AssertArgument;
+
+/**
+ * The layout of segmented AES-GCM content.
+ *
+ * The plain content is split into fixed size segments, which are encrypted
+ * individually. Every segment carries its own authentication tag.
+ *
+ *      magic (4) | ivLength (4) | iv (12) | segSize (4) | segment 0 | segment 1 | ... | segment N
+ *
+ * The nonce for segment i is the base IV xor'ed with the segment index and a final segment flag.
+ * This authenticates the segment order and protects against truncation.
+ *
+ * Note, the magic cannot be confused with the IV length that starts
+ * content encrypted by {@link AESCipher#encrypt(javax.crypto.SecretKey, byte[], InputStream, byte[])}
+ */
+final class AESSegments {
+
+    static final int MAGIC = 0x4E534731; // NSG1
+
+    static final int IV_LENGTH = 12;
+    static final int TAG_LENGTH = 16;
+    static final int HEADER_LENGTH = 4 + 4 + IV_LENGTH + 4;
+
+    // A segment is buffered in full, the header must not make us allocate more
+    static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    // Hide ctor
+    private AESSegments() {
+    }
+
+    static void writeHeader(OutputStream out, byte[] iv, int segSize) throws IOException {
+        DataOutputStream dout = new DataOutputStream(out);
+        dout.writeInt(MAGIC);
+        dout.writeInt(iv.length);
+        dout.write(iv);
+        dout.writeInt(segSize);
+    }
+
+    /**
+     * Read the header that follows the magic
+     * 
+     * @throws IOException for a malformed header
+     */
+    static Header readHeader(InputStream ins) throws IOException {
+        DataInputStream din = new DataInputStream(ins);
+        int ivLength = din.readInt();
+        if (ivLength != IV_LENGTH)
+            throw new IOException("Invalid iv length: " + ivLength);
+        byte[] iv = new byte[ivLength];
+        din.readFully(iv);
+        int segSize = din.readInt();
+        if (segSize <= 0 || segSize > MAX_SEGMENT_SIZE)
+            throw new IOException("Invalid segment size: " + segSize);
+        return new Header(iv, segSize);
+    }
+
+    static byte[] nonce(byte[] iv, long segIdx, boolean last) {
+        AssertArgument.assertTrue(segIdx >= 0 && segIdx <= 0xFFFFFFFFL, "Segment index out of range: " + segIdx);
+        byte[] nonce = iv.clone();
+        nonce[7] ^= (byte) (segIdx >>> 24);
+        nonce[8] ^= (byte) (segIdx >>> 16);
+        nonce[9] ^= (byte) (segIdx >>> 8);
+        nonce[10] ^= (byte) segIdx;
+        nonce[11] ^= (byte) (last ? 1 : 0);
+        return nonce;
+    }
+
+    static final class Header {
+
+        final byte[] iv;
+        final int segSize;
+
+        Header(byte[] iv, int segSize) {
+            this.iv = iv;
+            this.segSize = segSize;
+        }
+    }
+}
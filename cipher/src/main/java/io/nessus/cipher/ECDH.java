@@ -41,6 +41,8 @@ import org.bouncycastle.jce.spec.ECParameterSpec;
 import org.bouncycastle.jce.spec.ECPrivateKeySpec;
 import org.bouncycastle.jce.spec.ECPublicKeySpec;
 
+import io.nessus.cipher.utils.CipherPool;
+
 public class ECDH {
 
     private final KeyPairGenerator kpgen;
@@ -70,7 +72,7 @@ public class ECDH {
     }
 
     public byte[] generateSecret(byte[] dataPrv, byte[] dataPub) throws Exception {
-        KeyAgreement ka = KeyAgreement.getInstance("ECDH", "BC");
+        KeyAgreement ka = CipherPool.getKeyAgreement("ECDH", "BC");
         ka.init(loadPrivateKey(dataPrv));
         ka.doPhase(loadPublicKey(dataPub), true);
         return ka.generateSecret();
@@ -79,14 +81,14 @@ public class ECDH {
     private PublicKey loadPublicKey(byte[] data) throws Exception {
         ECParameterSpec params = ECNamedCurveTable.getParameterSpec("prime192v1");
         ECPublicKeySpec pubKey = new ECPublicKeySpec(params.getCurve().decodePoint(data), params);
-        KeyFactory kf = KeyFactory.getInstance("ECDH", "BC");
+        KeyFactory kf = CipherPool.getKeyFactory("ECDH", "BC");
         return kf.generatePublic(pubKey);
     }
 
     private PrivateKey loadPrivateKey(byte[] data) throws Exception {
         ECParameterSpec params = ECNamedCurveTable.getParameterSpec("prime192v1");
         ECPrivateKeySpec prvkey = new ECPrivateKeySpec(new BigInteger(data), params);
-        KeyFactory kf = KeyFactory.getInstance("ECDH", "BC");
+        KeyFactory kf = CipherPool.getKeyFactory("ECDH", "BC");
         return kf.generatePrivate(prvkey);
     }
 }
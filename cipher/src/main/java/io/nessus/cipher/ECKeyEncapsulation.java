@@ -0,0 +1,75 @@
+package io.nessus.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+import javax.crypto.SecretKey;
+
+import io.nessus.Wallet.Address;
+import io.nessus.cipher.utils.AESUtils;
+import io.nessus.cipher.utils.ECIESUtils;
+
+/**
+ * Wraps secret keys with ECIES on a 256 bit curve.
+ *
+ * Compared to RSA, key pairs are cheap to derive and both the public key
+ * and the wrapped token are a lot smaller.
+ */
+public class ECKeyEncapsulation implements KeyEncapsulation {
+
+    public static final String TYPE = "EC";
+    public static final String CURVE = "secp256r1";
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public KeyPair getKeyPair(Address addr) throws GeneralSecurityException {
+        return ECIESUtils.newKeyPair(addr, CURVE);
+    }
+
+    @Override
+    public String encodePublicKey(PublicKey pubKey) {
+        return ECIESUtils.encodeKey(pubKey);
+    }
+
+    @Override
+    public PublicKey decodePublicKey(String encKey) throws GeneralSecurityException {
+        return ECIESUtils.decodePublicKey(encKey);
+    }
+
+    @Override
+    public byte[] wrap(PublicKey pubKey, SecretKey secKey) throws GeneralSecurityException {
+        return new ECIESCipher().encrypt(pubKey, secKey.getEncoded());
+    }
+
+    @Override
+    public SecretKey unwrap(PrivateKey privKey, byte[] token) throws GeneralSecurityException {
+        byte[] rawKey = new ECIESCipher().decrypt(privKey, token);
+        return AESUtils.decodeSecretKey(rawKey);
+    }
+}
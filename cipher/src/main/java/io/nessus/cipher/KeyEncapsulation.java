@@ -0,0 +1,61 @@
+package io.nessus.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+import javax.crypto.SecretKey;
+
+import io.nessus.Wallet.Address;
+
+/**
+ * Protects a content secret key with the recipient's public key.
+ *
+ * Every registered address publishes the public key of one encapsulation
+ * type. Content for that address gets its secret key wrapped with the same type,
+ * which is recorded next to the wrapped token.
+ */
+public interface KeyEncapsulation {
+
+    /**
+     * The type name that is recorded with registrations and file headers.
+     */
+    String getType();
+
+    /**
+     * Derive the key pair from blockchain private key.
+     */
+    KeyPair getKeyPair(Address addr) throws GeneralSecurityException;
+
+    /**
+     * Encode the public key that is published with a registration.
+     */
+    String encodePublicKey(PublicKey pubKey);
+
+    PublicKey decodePublicKey(String encKey) throws GeneralSecurityException;
+
+    byte[] wrap(PublicKey pubKey, SecretKey secKey) throws GeneralSecurityException;
+
+    SecretKey unwrap(PrivateKey privKey, byte[] token) throws GeneralSecurityException;
+}
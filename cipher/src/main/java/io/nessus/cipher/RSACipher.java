@@ -31,6 +31,7 @@ import java.security.PublicKey;
 
 import javax.crypto.Cipher;
 
+import io.nessus.cipher.utils.CipherPool;
 import io.nessus.utils.StreamUtils;
 
 public class RSACipher {
@@ -42,8 +43,7 @@ public class RSACipher {
     }
     
     public byte[] encrypt(PublicKey pubKey, byte[] message) throws GeneralSecurityException {
-        Cipher cipher = Cipher.getInstance("RSA", "BC");
-        cipher.init(Cipher.ENCRYPT_MODE, pubKey);
+        Cipher cipher = CipherPool.initCipher("RSA", "BC", Cipher.ENCRYPT_MODE, pubKey, null);
         return cipher.doFinal(message);
     }
     
@@ -54,8 +54,7 @@ public class RSACipher {
     }
     
     public byte[] decrypt(PrivateKey privKey, byte[] ciphertext) throws GeneralSecurityException {
-        Cipher cipher = Cipher.getInstance("RSA", "BC");
-        cipher.init(Cipher.DECRYPT_MODE, privKey);
+        Cipher cipher = CipherPool.initCipher("RSA", "BC", Cipher.DECRYPT_MODE, privKey, null);
         return cipher.doFinal(ciphertext);
     }
 }
@@ -0,0 +1,86 @@
+package io.nessus.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+import javax.crypto.SecretKey;
+
+import io.nessus.Wallet.Address;
+import io.nessus.cipher.utils.AESUtils;
+import io.nessus.cipher.utils.RSAKeyCache;
+import io.nessus.cipher.utils.RSAUtils;
+import io.nessus.utils.AssertArgument;
+
+/**
+ * Wraps secret keys with RSA.
+ *
+ * Derived key pairs are expensive to create and are taken from the given cache.
+ */
+public class RSAKeyEncapsulation implements KeyEncapsulation {
+
+    public static final String TYPE = "RSA";
+
+    private final RSAKeyCache keyCache;
+
+    public RSAKeyEncapsulation() {
+        this(new RSAKeyCache());
+    }
+
+    public RSAKeyEncapsulation(RSAKeyCache keyCache) {
+        AssertArgument.assertNotNull(keyCache, "Null keyCache");
+        this.keyCache = keyCache;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public KeyPair getKeyPair(Address addr) throws GeneralSecurityException {
+        return keyCache.getKeyPair(addr, RSAUtils.DEFAULT_STRENGTH);
+    }
+
+    @Override
+    public String encodePublicKey(PublicKey pubKey) {
+        return RSAUtils.encodeKey(pubKey);
+    }
+
+    @Override
+    public PublicKey decodePublicKey(String encKey) throws GeneralSecurityException {
+        return RSAUtils.decodePublicKey(encKey);
+    }
+
+    @Override
+    public byte[] wrap(PublicKey pubKey, SecretKey secKey) throws GeneralSecurityException {
+        return new RSACipher().encrypt(pubKey, secKey.getEncoded());
+    }
+
+    @Override
+    public SecretKey unwrap(PrivateKey privKey, byte[] token) throws GeneralSecurityException {
+        byte[] rawKey = new RSACipher().decrypt(privKey, token);
+        return AESUtils.decodeSecretKey(rawKey);
+    }
+}
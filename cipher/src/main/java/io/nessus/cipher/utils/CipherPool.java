@@ -0,0 +1,142 @@
+package io.nessus.cipher.utils;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+
+import io.nessus.utils.AssertArgument;
+
+/**
+ * Thread local instances of cryptographic primitives.
+ *
+ * Looking up a primitive from a provider is expensive. Instead, every thread
+ * keeps one instance per algorithm and provider, which gets initialized again
+ * for every use. An instance must therefore not be held across calls that
+ * may use the same primitive.
+ *
+ * The created and reused counters show how effective pooling is.
+ */
+public final class CipherPool {
+
+    private static final ThreadLocal<Map<String, Object>> instances = ThreadLocal.withInitial(HashMap::new);
+
+    private static final AtomicLong createdCount = new AtomicLong();
+    private static final AtomicLong reusedCount = new AtomicLong();
+
+    // Hide ctor
+    private CipherPool() {
+    }
+
+    public static Cipher getCipher(String transformation) throws GeneralSecurityException {
+        return getCipher(transformation, null);
+    }
+
+    public static Cipher getCipher(String transformation, String provider) throws GeneralSecurityException {
+        AssertArgument.assertNotNull(transformation, "Null transformation");
+        return getInstance("Cipher", transformation, provider, false,
+                () -> provider != null ? Cipher.getInstance(transformation, provider) : Cipher.getInstance(transformation));
+    }
+
+    /**
+     * Get a cipher that is initialized with the given key and parameters.
+     */
+    public static Cipher initCipher(String transformation, String provider, int mode, Key key, AlgorithmParameterSpec params) throws GeneralSecurityException {
+        Cipher cipher = getCipher(transformation, provider);
+        try {
+            initCipher(cipher, mode, key, params);
+        } catch (InvalidAlgorithmParameterException ex) {
+
+            // GCM refuses to encrypt twice with the same key and iv on the same instance
+            if (mode != Cipher.ENCRYPT_MODE) throw ex;
+
+            cipher = getInstance("Cipher", transformation, provider, true,
+                    () -> provider != null ? Cipher.getInstance(transformation, provider) : Cipher.getInstance(transformation));
+            initCipher(cipher, mode, key, params);
+        }
+        return cipher;
+    }
+
+    public static KeyFactory getKeyFactory(String algorithm) throws GeneralSecurityException {
+        return getKeyFactory(algorithm, null);
+    }
+
+    public static KeyFactory getKeyFactory(String algorithm, String provider) throws GeneralSecurityException {
+        AssertArgument.assertNotNull(algorithm, "Null algorithm");
+        return getInstance("KeyFactory", algorithm, provider, false,
+                () -> provider != null ? KeyFactory.getInstance(algorithm, provider) : KeyFactory.getInstance(algorithm));
+    }
+
+    public static KeyAgreement getKeyAgreement(String algorithm, String provider) throws GeneralSecurityException {
+        AssertArgument.assertNotNull(algorithm, "Null algorithm");
+        return getInstance("KeyAgreement", algorithm, provider, false,
+                () -> provider != null ? KeyAgreement.getInstance(algorithm, provider) : KeyAgreement.getInstance(algorithm));
+    }
+
+    public static long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public static long getReusedCount() {
+        return reusedCount.get();
+    }
+
+    public static void resetCounters() {
+        createdCount.set(0);
+        reusedCount.set(0);
+    }
+
+    private static void initCipher(Cipher cipher, int mode, Key key, AlgorithmParameterSpec params) throws GeneralSecurityException {
+        if (params != null) {
+            cipher.init(mode, key, params);
+        } else {
+            cipher.init(mode, key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T getInstance(String type, String algorithm, String provider, boolean replace, Factory<T> factory) throws GeneralSecurityException {
+        String key = type + ":" + algorithm + ":" + provider;
+        Map<String, Object> map = instances.get();
+        T instance = replace ? null : (T) map.get(key);
+        if (instance != null) {
+            reusedCount.incrementAndGet();
+        } else {
+            instance = factory.create();
+            createdCount.incrementAndGet();
+            map.put(key, instance);
+        }
+        return instance;
+    }
+
+    interface Factory<T> {
+        T create() throws GeneralSecurityException;
+    }
+}
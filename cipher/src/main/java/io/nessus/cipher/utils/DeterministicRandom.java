@@ -20,56 +20,144 @@ package io.nessus.cipher.utils;
  * #L%
  */
 
+import java.security.DigestException;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
 import org.bouncycastle.util.Arrays;
 
 import io.ipfs.multihash.Multihash;
 import io.nessus.Wallet.Address;
 import io.nessus.utils.AssertArgument;
 
+/**
+ * A random source that produces the same sequence of bytes for the same seed.
+ * 
+ * It is used to derive keys from blockchain private keys. Because derived keys
+ * must never change, the generator algorithm is versioned.
+ * 
+ * V1 rehashes a rotating SHA3-512 state. Existing keys are derived from it.
+ * V2 is a HMAC-SHA512 generator in counter mode.
+ * 
+ * Neither version allocates per round nor has an upper limit on the output.
+ */
 @SuppressWarnings("serial") 
 public class DeterministicRandom extends SecureRandom {
     
+    public enum Version { V1, V2 }
+    
+    public static final Version DEFAULT_VERSION = Version.V1;
+    
     private final MessageDigest md = MessageDigest.getInstance("SHA3-512");
+    private final Version version;
+    
+    // The generator state
+    private final byte[] block = new byte[64];
+    private final byte[] counter = new byte[8];
+    private int blockPos = block.length;
     private byte[] digest;
-    private long total;
+    private byte[] scratch;
+    private Mac mac;
     
     public DeterministicRandom(Address addr) throws GeneralSecurityException {
-    	this (addr, null);
+    	this (addr, null, DEFAULT_VERSION);
     }
 
     public DeterministicRandom(Address addr, Multihash cid) throws GeneralSecurityException {
+    	this (addr, cid, DEFAULT_VERSION);
+    }
+
+    public DeterministicRandom(Address addr, Multihash cid, Version version) throws GeneralSecurityException {
 		AssertArgument.assertNotNull(addr.getPrivKey(), "Wallet does not control private key for: " + addr);
+        AssertArgument.assertNotNull(version, "Null version");
         
         byte[] bytesA = addr.getPrivKey().getBytes();
         byte[] bytesB = cid != null ? cid.toBytes() : Arrays.reverse(bytesA);
-		digest = Arrays.concatenate(md.digest(bytesA), md.digest(bytesB));
+        this.version = version;
+        
+		initState(Arrays.concatenate(md.digest(bytesA), md.digest(bytesB)));
     }
 
     public DeterministicRandom(byte[] input) throws GeneralSecurityException {
-        digest = md.digest(input);
+        this (input, DEFAULT_VERSION);
     }
 
+    public DeterministicRandom(byte[] input, Version version) throws GeneralSecurityException {
+        AssertArgument.assertNotNull(version, "Null version");
+        this.version = version;
+        
+        initState(md.digest(input));
+    }
+
+    public Version getVersion() {
+        return version;
+    }
+    
     @Override
     public void nextBytes(byte[] buffer) {
+        try {
+            if (version == Version.V1) {
+                nextBytesV1(buffer);
+            } else {
+                nextBytesV2(buffer);
+            }
+        } catch (DigestException | ShortBufferException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void initState(byte[] seed) throws GeneralSecurityException {
+        digest = seed;
+        scratch = new byte[seed.length];
+        if (version == Version.V2) {
+            mac = Mac.getInstance("HmacSHA512");
+            mac.init(new SecretKeySpec(seed, "HmacSHA512"));
+        }
+    }
+    
+    // Rotate the state and append its hash until the buffer is full
+    private void nextBytesV1(byte[] buffer) throws DigestException {
         
-    	if (512 * 1024 < total)
-    		throw new IllegalStateException("Upper limit exceeded");
-    	
     	int idx = 0;
-        byte[] seed = new byte[0];
-        while (seed.length < buffer.length) {
+    	int pos = 0;
+        while (pos < buffer.length) {
             idx = (idx + 7) % digest.length;
-            byte[] head = Arrays.copyOfRange(digest, 0, idx);
-            byte[] tail = Arrays.copyOfRange(digest, idx, digest.length);
-            digest = Arrays.concatenate(tail, head);
-            seed = Arrays.concatenate(seed, md.digest(digest));
+            System.arraycopy(digest, idx, scratch, 0, digest.length - idx);
+            System.arraycopy(digest, 0, scratch, digest.length - idx, idx);
+            byte[] aux = digest;
+            digest = scratch;
+            scratch = aux;
+            
+            md.update(digest);
+            md.digest(block, 0, block.length);
+            
+            int count = Math.min(block.length, buffer.length - pos);
+            System.arraycopy(block, 0, buffer, pos, count);
+            pos += count;
         }
+    }
+    
+    // Consume the HMAC of an incrementing counter
+    private void nextBytesV2(byte[] buffer) throws ShortBufferException {
         
-        System.arraycopy(seed, 0, buffer, 0, buffer.length);
-        total += buffer.length;
+        int pos = 0;
+        while (pos < buffer.length) {
+            if (blockPos == block.length) {
+                for (int i = counter.length - 1; i >= 0 && ++counter[i] == 0; i--);
+                mac.update(counter);
+                mac.doFinal(block, 0);
+                blockPos = 0;
+            }
+            
+            int count = Math.min(block.length - blockPos, buffer.length - pos);
+            System.arraycopy(block, blockPos, buffer, pos, count);
+            blockPos += count;
+            pos += count;
+        }
     }
 }
@@ -2,21 +2,25 @@ package io.nessus.cipher.utils;
 
 import java.security.GeneralSecurityException;
 import java.security.Key;
+import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.Security;
 import java.security.spec.ECGenParameterSpec;
-import java.util.Arrays;
+import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import io.nessus.Wallet.Address;
+import io.nessus.utils.AssertArgument;
 
 public class ECIESUtils {
 
+    public static final String DEFAULT_CURVE = "secp128r1";
+    
     static {
         Security.addProvider(new BouncyCastleProvider());
     }
@@ -26,15 +30,24 @@ public class ECIESUtils {
      */
     public static KeyPair newKeyPair() throws GeneralSecurityException {
         SecureRandom secrnd = new SecureRandom();
-        return generateKeyPairInternal(secrnd);
+        return generateKeyPairInternal(secrnd, DEFAULT_CURVE);
     }
     
     /**
      * Derive the key pair from blockchain private key.
      */
     public static KeyPair newKeyPair(Address addr) throws GeneralSecurityException {
+        return newKeyPair(addr, DEFAULT_CURVE);
+    }
+
+    /**
+     * Derive the key pair on the given curve from blockchain private key.
+     */
+    public static KeyPair newKeyPair(Address addr, String curve) throws GeneralSecurityException {
+        AssertArgument.assertNotNull(addr, "Null addr");
+        AssertArgument.assertNotNull(curve, "Null curve");
         SecureRandom secrnd = new DeterministicRandom(addr);
-        return generateKeyPairInternal(secrnd);
+        return generateKeyPairInternal(secrnd, curve);
     }
 
     /**
@@ -47,56 +60,21 @@ public class ECIESUtils {
 
     /**
      * Decode public key from the given base64 encoded string
-     * 
-     * Note, this requiers unlimited security policies
      */
-    public static PublicKey decodePublicKey(String encKey) {
+    public static PublicKey decodePublicKey(String encKey) throws GeneralSecurityException {
         byte[] keyBytes = Base64.getDecoder().decode(encKey);
         return decodePublicKey(keyBytes);
     }
 
-    static PublicKey decodePublicKey(byte[] keyBytes) {
-        return new PublicKey() {
-
-            private static final long serialVersionUID = 1L;
-
-            @Override
-            public String getFormat() {
-                return "X.509";
-            }
-
-            @Override
-            public byte[] getEncoded() {
-                return keyBytes;
-            }
-
-            @Override
-            public String getAlgorithm() {
-                return "EC";
-            }
-            
-            @Override
-            public int hashCode() {
-                return Arrays.hashCode(keyBytes);
-            }
-
-            @Override
-            public boolean equals(Object obj) {
-                if (this == obj) return true;
-                if (!(obj instanceof PublicKey)) return false;
-                PublicKey other = (PublicKey) obj;
-                return Arrays.equals(keyBytes, other.getEncoded());
-            }
-            
-            public String toString() {
-                return Base64.getEncoder().encodeToString(keyBytes);
-            }
-        };
+    static PublicKey decodePublicKey(byte[] keyBytes) throws GeneralSecurityException {
+        X509EncodedKeySpec keySpec = new X509EncodedKeySpec(keyBytes);
+        KeyFactory keyFactory = CipherPool.getKeyFactory("EC", "BC");
+        return keyFactory.generatePublic(keySpec);
     }
     
-    private static KeyPair generateKeyPairInternal(SecureRandom secrnd) throws GeneralSecurityException {
+    private static KeyPair generateKeyPairInternal(SecureRandom secrnd, String curve) throws GeneralSecurityException {
         KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC", "BC");
-        kpg.initialize(new ECGenParameterSpec("secp128r1"), secrnd);
+        kpg.initialize(new ECGenParameterSpec(curve), secrnd);
         return kpg.generateKeyPair();
     }
 }
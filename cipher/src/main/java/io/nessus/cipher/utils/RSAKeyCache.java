@@ -0,0 +1,208 @@
+package io.nessus.cipher.utils;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nessus.Wallet.Address;
+import io.nessus.cipher.AESCipher;
+import io.nessus.utils.AssertArgument;
+import io.nessus.utils.StreamUtils;
+
+/**
+ * A bounded cache of RSA key pairs that are derived from blockchain private keys.
+ *
+ * Deriving a key pair requires prime generation, which is expensive. Entries are
+ * keyed by address and strength and are only returned for the same private key
+ * that they were derived from. The least recently used entry gets evicted first.
+ *
+ * Optionally, derived keys are kept in a keystore directory so that they survive
+ * restarts. Every key file is encrypted with an AES key that is itself derived
+ * from the owner's private key.
+ */
+public class RSAKeyCache {
+
+    static final Logger LOG = LoggerFactory.getLogger(RSAKeyCache.class);
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final Map<String, Entry> cache;
+    private final Path storeDir;
+
+    public RSAKeyCache() {
+        this(DEFAULT_CAPACITY, null);
+    }
+
+    public RSAKeyCache(int capacity, Path storeDir) {
+        AssertArgument.assertTrue(capacity > 0, "Invalid capacity: " + capacity);
+        this.storeDir = storeDir;
+        this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public Path getStoreDir() {
+        return storeDir;
+    }
+
+    public KeyPair getKeyPair(Address addr) throws GeneralSecurityException {
+        return getKeyPair(addr, RSAUtils.DEFAULT_STRENGTH);
+    }
+
+    public KeyPair getKeyPair(Address addr, int strength) throws GeneralSecurityException {
+        AssertArgument.assertNotNull(addr, "Null addr");
+        AssertArgument.assertNotNull(addr.getPrivKey(), "Wallet does not control private key for: " + addr);
+
+        String key = addr.getAddress() + "-" + strength;
+        byte[] fingerprint = fingerprint(addr);
+
+        synchronized (cache) {
+            Entry entry = cache.get(key);
+            if (entry != null && Arrays.equals(fingerprint, entry.fingerprint))
+                return entry.keyPair;
+        }
+
+        // Derive the key pair outside the lock
+        // Concurrent calls for the same key may do the same work once
+
+        KeyPair keyPair = loadKeyPair(addr, key);
+        if (keyPair == null) {
+            keyPair = RSAUtils.deriveKeyPair(addr, strength);
+            storeKeyPair(addr, key, keyPair);
+        }
+
+        synchronized (cache) {
+            cache.put(key, new Entry(fingerprint, keyPair));
+        }
+
+        return keyPair;
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private KeyPair loadKeyPair(Address addr, String key) {
+        if (storeDir == null) return null;
+
+        Path keyPath = storeDir.resolve(key + ".key");
+        if (!keyPath.toFile().isFile()) return null;
+
+        try {
+            AESCipher aes = new AESCipher();
+            InputStream ins = aes.decrypt(getStoreKey(addr), Files.newInputStream(keyPath));
+            byte[] encoded = StreamUtils.toBytes(ins);
+
+            KeyFactory keyFactory = CipherPool.getKeyFactory("RSA");
+            PrivateKey privKey = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(encoded));
+            RSAPrivateCrtKey crtKey = (RSAPrivateCrtKey) privKey;
+            PublicKey pubKey = keyFactory.generatePublic(new RSAPublicKeySpec(crtKey.getModulus(), crtKey.getPublicExponent()));
+
+            // Normalize the key representation
+            pubKey = RSAUtils.decodePublicKey(RSAUtils.encodeKey(pubKey));
+            return new KeyPair(pubKey, privKey);
+
+        } catch (IOException | GeneralSecurityException | ClassCastException ex) {
+
+            // The key file may belong to another private key
+            LOG.warn("Cannot load key pair from: {}", keyPath);
+            return null;
+        }
+    }
+
+    private void storeKeyPair(Address addr, String key, KeyPair keyPair) {
+        if (storeDir == null) return;
+
+        Path keyPath = storeDir.resolve(key + ".key");
+        try {
+            Files.createDirectories(storeDir);
+
+            AESCipher aes = new AESCipher();
+            byte[] encoded = keyPair.getPrivate().getEncoded();
+            InputStream ins = aes.encrypt(getStoreKey(addr), new ByteArrayInputStream(encoded));
+
+            // Write to a temp file first so that we never leave a partial key file behind
+            Path tmpPath = Files.createTempFile(storeDir, key, ".tmp");
+            Files.copy(ins, tmpPath, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpPath, keyPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (IOException | GeneralSecurityException ex) {
+            LOG.warn("Cannot store key pair to: " + keyPath, ex);
+        }
+    }
+
+    private SecretKey getStoreKey(Address addr) throws GeneralSecurityException {
+        byte[] input = ("keystore:" + addr.getPrivKey()).getBytes();
+        byte[] rawKey = new byte[AESUtils.DEFAULT_STRENGTH / 8];
+        new DeterministicRandom(input).nextBytes(rawKey);
+        return new SecretKeySpec(rawKey, "AES");
+    }
+
+    private byte[] fingerprint(Address addr) throws GeneralSecurityException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        return md.digest(addr.getPrivKey().getBytes());
+    }
+
+    static class Entry {
+
+        final byte[] fingerprint;
+        final KeyPair keyPair;
+
+        Entry(byte[] fingerprint, KeyPair keyPair) {
+            this.fingerprint = fingerprint;
+            this.keyPair = keyPair;
+        }
+    }
+}
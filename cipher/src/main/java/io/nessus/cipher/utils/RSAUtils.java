@@ -25,6 +25,9 @@ public class RSAUtils {
         Security.addProvider(new BouncyCastleProvider());
     }
     
+    // Deriving a key pair is expensive, hence we cache them
+    private static final RSAKeyCache keyCache = new RSAKeyCache();
+    
     /**
      * Generate the key pair from a random source.
      */
@@ -36,11 +39,11 @@ public class RSAUtils {
      * Derive the key pair from blockchain private key.
      */
     public static KeyPair newKeyPair(Address addr) throws GeneralSecurityException {
-        return generateKeyPairInternal(addr, DEFAULT_STRENGTH);
+        return keyCache.getKeyPair(addr, DEFAULT_STRENGTH);
     }
 
     public static KeyPair newKeyPair(Address addr, int strenght) throws GeneralSecurityException {
-        return generateKeyPairInternal(addr, strenght);
+        return keyCache.getKeyPair(addr, strenght);
     }
 
     public static String encodeKey(Key key) {
@@ -55,10 +58,18 @@ public class RSAUtils {
 
     static PublicKey decodePublicKey(byte[] keyBytes) throws GeneralSecurityException {
         X509EncodedKeySpec keySpec = new X509EncodedKeySpec(keyBytes);
-        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        KeyFactory keyFactory = CipherPool.getKeyFactory("RSA");
         return keyFactory.generatePublic(keySpec);
     }
 
+    /**
+     * Derive the key pair from blockchain private key, bypassing the cache.
+     */
+    static KeyPair deriveKeyPair(Address addr, int strenght) throws GeneralSecurityException {
+        AssertArgument.assertNotNull(addr, "Null addr");
+        return generateKeyPairInternal(addr, strenght);
+    }
+
     private static KeyPair generateKeyPairInternal(Address addr, int strenght) throws GeneralSecurityException {
         AssertArgument.assertTrue(addr == null || addr.getPrivKey() != null, "Wallet does not control private key for: " + addr);
     	
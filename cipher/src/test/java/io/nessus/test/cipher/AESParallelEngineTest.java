@@ -0,0 +1,128 @@
+package io.nessus.test.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.crypto.SecretKey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.nessus.cipher.AESCipher;
+import io.nessus.cipher.AESParallelEngine;
+import io.nessus.cipher.utils.AESUtils;
+import io.nessus.utils.StreamUtils;
+
+public class AESParallelEngineTest extends AbstractCipherTest {
+
+    static final int SEGMENT_SIZE = 64;
+    
+    @Test
+    public void testSameAsStreaming() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] iv = AESUtils.getIV(addrBob, cid);
+        
+        AESParallelEngine engine = new AESParallelEngine(new ForkJoinPool(4), SEGMENT_SIZE);
+        
+        // Cover more segments than fit into one window
+        
+        for (int len : new int[] { 0, 1, SEGMENT_SIZE, 5 * SEGMENT_SIZE, 20 * SEGMENT_SIZE + 3 }) {
+            
+            byte[] plain = randomBytes(len);
+            
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            engine.encrypt(secKey, iv, new ByteArrayInputStream(plain), baos, null);
+            byte[] secmsg = baos.toByteArray();
+            
+            // Verify that the engine produces the same as the streaming cipher
+            
+            AESCipher acipher = new AESCipher(SEGMENT_SIZE);
+            baos = new ByteArrayOutputStream();
+            try (OutputStream secOut = acipher.encrypt(secKey, iv, baos, null)) {
+                secOut.write(plain);
+            }
+            Assert.assertArrayEquals("Length " + len, baos.toByteArray(), secmsg);
+            
+            // Decrypt with the engine
+            
+            baos = new ByteArrayOutputStream();
+            engine.decrypt(secKey, new ByteArrayInputStream(secmsg), baos, null);
+            Assert.assertArrayEquals("Length " + len, plain, baos.toByteArray());
+            
+            // Decrypt with the streaming cipher
+            
+            InputStream msgIns = acipher.decrypt(secKey, new ByteArrayInputStream(secmsg));
+            Assert.assertArrayEquals("Length " + len, plain, StreamUtils.toBytes(msgIns));
+        }
+    }
+
+    @Test
+    public void testTruncatedContent() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] iv = AESUtils.getIV(addrBob, cid);
+        
+        AESParallelEngine engine = new AESParallelEngine(new ForkJoinPool(4), SEGMENT_SIZE);
+        
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        engine.encrypt(secKey, iv, new ByteArrayInputStream(randomBytes(20 * SEGMENT_SIZE)), baos, null);
+        byte[] secmsg = baos.toByteArray();
+        
+        byte[] truncated = Arrays.copyOf(secmsg, secmsg.length - (SEGMENT_SIZE + 16));
+        
+        try {
+            engine.decrypt(secKey, new ByteArrayInputStream(truncated), new ByteArrayOutputStream(), null);
+            Assert.fail("IOException expected");
+        } catch (IOException ex) {
+            LOG.info(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testLegacyContent() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] iv = AESUtils.getIV(addrBob, cid);
+        
+        AESCipher acipher = new AESCipher();
+        InputStream secIns = acipher.encrypt(secKey, iv, asStream(text), null);
+        
+        AESParallelEngine engine = new AESParallelEngine();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        engine.decrypt(secKey, secIns, baos, null);
+        Assert.assertEquals(text, new String(baos.toByteArray()));
+    }
+
+    private byte[] randomBytes(int len) {
+        byte[] bytes = new byte[len];
+        new Random(len).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,140 @@
+package io.nessus.test.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.nessus.cipher.AESCipher;
+import io.nessus.cipher.utils.AESUtils;
+
+public class AESSeekableChannelTest extends AbstractCipherTest {
+
+    static final int SEGMENT_SIZE = 64;
+    static final int PREFIX_LENGTH = 10;
+    
+    @Test
+    public void testRandomAccess() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] iv = AESUtils.getIV(addrBob, cid);
+        
+        for (int len : new int[] { 0, 1, SEGMENT_SIZE, 3 * SEGMENT_SIZE, 3 * SEGMENT_SIZE + 7 }) {
+            
+            byte[] plain = randomBytes(len);
+            Path path = writeContent(secKey, iv, plain);
+            
+            try (SeekableByteChannel channel = openChannel(secKey, path)) {
+                
+                Assert.assertEquals("Length " + len, len, channel.size());
+                
+                // Read ranges that start and end anywhere in a segment
+                Random random = new Random(len);
+                for (int i = 0; i < 20 && len > 0; i++) {
+                    int start = random.nextInt(len);
+                    int count = 1 + random.nextInt(len - start);
+                    ByteBuffer buffer = ByteBuffer.allocate(count);
+                    channel.position(start);
+                    while (buffer.hasRemaining() && channel.read(buffer) > 0);
+                    Assert.assertArrayEquals("Range " + start + "/" + count, Arrays.copyOfRange(plain, start, start + count), buffer.array());
+                }
+                
+                // Nothing after the end
+                channel.position(len);
+                Assert.assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+                
+            } finally {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testModifiedSegment() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] iv = AESUtils.getIV(addrBob, cid);
+        byte[] plain = randomBytes(3 * SEGMENT_SIZE);
+        Path path = writeContent(secKey, iv, plain);
+        
+        // Modify the second segment
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[PREFIX_LENGTH + 24 + SEGMENT_SIZE + 16 + 5] ^= 0x01;
+        Files.write(path, bytes);
+        
+        try (SeekableByteChannel channel = openChannel(secKey, path)) {
+            
+            // The other segments can still be read
+            ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_SIZE);
+            channel.position(2 * SEGMENT_SIZE);
+            channel.read(buffer);
+            Assert.assertArrayEquals(Arrays.copyOfRange(plain, 2 * SEGMENT_SIZE, 3 * SEGMENT_SIZE), buffer.array());
+            
+            try {
+                channel.position(SEGMENT_SIZE);
+                channel.read(ByteBuffer.allocate(1));
+                Assert.fail("IOException expected");
+            } catch (IOException ex) {
+                LOG.info(ex.getMessage());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private SeekableByteChannel openChannel(SecretKey secKey, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        channel.position(PREFIX_LENGTH);
+        return new AESCipher(SEGMENT_SIZE).decrypt(secKey, channel, null);
+    }
+
+    // Write the encrypted content after some prefix, like a file header
+    private Path writeContent(SecretKey secKey, byte[] iv, byte[] plain) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(new byte[PREFIX_LENGTH]);
+        try (OutputStream secOut = new AESCipher(SEGMENT_SIZE).encrypt(secKey, iv, baos, null)) {
+            secOut.write(plain);
+        }
+        Path path = Files.createTempFile("aes", ".dat");
+        Files.write(path, baos.toByteArray());
+        return path;
+    }
+
+    private byte[] randomBytes(int len) {
+        byte[] bytes = new byte[len];
+        new Random(len).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,173 @@
+package io.nessus.test.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.nessus.cipher.AESCipher;
+import io.nessus.cipher.utils.AESUtils;
+import io.nessus.utils.StreamUtils;
+
+public class AESStreamingTest extends AbstractCipherTest {
+
+    static final int SEGMENT_SIZE = 64;
+    
+    @Test
+    public void testRoundTrip() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] iv = AESUtils.getIV(addrBob, cid);
+        
+        for (int len : new int[] { 0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, 3 * SEGMENT_SIZE, 3 * SEGMENT_SIZE + 7 }) {
+            
+            byte[] plain = randomBytes(len);
+            byte[] secmsg = encrypt(secKey, iv, plain);
+            
+            int segments = Math.max(1, (len + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            Assert.assertEquals(24 + len + 16 * segments, secmsg.length);
+            
+            byte[] result = decrypt(secKey, secmsg);
+            Assert.assertArrayEquals("Length " + len, plain, result);
+        }
+    }
+
+    @Test
+    public void testContentBasedIV() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] iv = AESUtils.getIV(addrBob, cid);
+        byte[] plain = text.getBytes();
+        
+        // Note, this gives the same secret message every time
+        
+        byte[] secmsg1 = encrypt(secKey, iv, plain);
+        byte[] secmsg2 = encrypt(secKey, iv, plain);
+        Assert.assertArrayEquals(secmsg1, secmsg2);
+        
+        Assert.assertEquals(text, new String(decrypt(secKey, secmsg1)));
+    }
+
+    @Test
+    public void testTruncatedContent() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] iv = AESUtils.getIV(addrBob, cid);
+        byte[] plain = randomBytes(3 * SEGMENT_SIZE);
+        byte[] secmsg = encrypt(secKey, iv, plain);
+        
+        // Drop the last segment
+        
+        int segLength = SEGMENT_SIZE + 16;
+        byte[] truncated = Arrays.copyOf(secmsg, secmsg.length - segLength);
+        
+        try {
+            decrypt(secKey, truncated);
+            Assert.fail("IOException expected");
+        } catch (IOException ex) {
+            LOG.info(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testModifiedContent() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] iv = AESUtils.getIV(addrBob, cid);
+        byte[] plain = randomBytes(3 * SEGMENT_SIZE);
+        byte[] secmsg = encrypt(secKey, iv, plain);
+        
+        secmsg[24 + SEGMENT_SIZE + 16 + 5] ^= 0x01;
+        
+        try {
+            decrypt(secKey, secmsg);
+            Assert.fail("IOException expected");
+        } catch (IOException ex) {
+            LOG.info(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testMalformedHeader() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] iv = AESUtils.getIV(addrBob, cid);
+        byte[] secmsg = encrypt(secKey, iv, randomBytes(SEGMENT_SIZE));
+        
+        // A segment size that would make us allocate 2GB
+        
+        secmsg[20] = 0x7F;
+        
+        try {
+            decrypt(secKey, secmsg);
+            Assert.fail("IOException expected");
+        } catch (IOException ex) {
+            LOG.info(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testLegacyContent() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] iv = AESUtils.getIV(addrBob, cid);
+        
+        // Content encrypted in one piece can still be decrypted
+        
+        AESCipher acipher = new AESCipher(SEGMENT_SIZE);
+        InputStream secIns = acipher.encrypt(secKey, iv, asStream(text), null);
+        InputStream msgIns = acipher.decrypt(secKey, secIns);
+        Assert.assertEquals(text, asString(msgIns));
+    }
+
+    private byte[] encrypt(SecretKey secKey, byte[] iv, byte[] plain) throws Exception {
+        AESCipher acipher = new AESCipher(SEGMENT_SIZE);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputStream secOut = acipher.encrypt(secKey, iv, baos, null)) {
+            secOut.write(plain);
+        }
+        return baos.toByteArray();
+    }
+
+    private byte[] decrypt(SecretKey secKey, byte[] secmsg) throws Exception {
+        AESCipher acipher = new AESCipher(SEGMENT_SIZE);
+        InputStream msgIns = acipher.decrypt(secKey, new ByteArrayInputStream(secmsg));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        StreamUtils.copyStream(msgIns, baos);
+        return baos.toByteArray();
+    }
+
+    private byte[] randomBytes(int len) {
+        byte[] bytes = new byte[len];
+        new Random(len).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,111 @@
+package io.nessus.test.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.nessus.cipher.AESCipher;
+import io.nessus.cipher.utils.AESUtils;
+import io.nessus.cipher.utils.CipherPool;
+
+public class CipherPoolTest extends AbstractCipherTest {
+
+    @Test
+    public void testThreadLocalInstance() throws Exception {
+        
+        Cipher cipherA = CipherPool.getCipher("AES/GCM/NoPadding");
+        Cipher cipherB = CipherPool.getCipher("AES/GCM/NoPadding");
+        Assert.assertSame(cipherA, cipherB);
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Cipher cipherC = executor.submit(() -> CipherPool.getCipher("AES/GCM/NoPadding")).get();
+            Assert.assertNotSame(cipherA, cipherC);
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testReusedInstances() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] iv = AESUtils.getIV(addrBob, cid);
+        
+        // Warm up this thread
+        
+        encryptDecrypt(secKey, iv);
+        
+        CipherPool.resetCounters();
+        
+        // Note, encrypting with the same key and iv requires a new GCM instance
+        
+        int count = 10;
+        for (int i = 0; i < count; i++) {
+            encryptDecrypt(secKey, AESUtils.getIV(addrBob, cid));
+        }
+        
+        LOG.info("created={}, reused={}", CipherPool.getCreatedCount(), CipherPool.getReusedCount());
+        
+        Assert.assertEquals(2 * count, CipherPool.getReusedCount());
+        Assert.assertTrue(CipherPool.getCreatedCount() <= count);
+    }
+    
+    @Test
+    public void testConcurrentUse() throws Exception {
+        
+        SecretKey secKey = AESUtils.newSecretKey();
+        
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(executor.submit(() -> {
+                    AESCipher acipher = new AESCipher();
+                    InputStream secIns = acipher.encrypt(secKey, asStream(text));
+                    return asString(acipher.decrypt(secKey, secIns));
+                }));
+            }
+            for (Future<String> future : futures) {
+                Assert.assertEquals(text, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    private void encryptDecrypt(SecretKey secKey, byte[] iv) throws Exception {
+        AESCipher acipher = new AESCipher();
+        InputStream secIns = acipher.encrypt(secKey, iv, asStream(text), null);
+        Assert.assertEquals(text, asString(acipher.decrypt(secKey, secIns)));
+    }
+}
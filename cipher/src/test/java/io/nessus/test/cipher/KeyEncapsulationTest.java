@@ -0,0 +1,92 @@
+package io.nessus.test.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.Base64;
+
+import javax.crypto.SecretKey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.nessus.cipher.ECKeyEncapsulation;
+import io.nessus.cipher.KeyEncapsulation;
+import io.nessus.cipher.RSAKeyEncapsulation;
+import io.nessus.cipher.utils.AESUtils;
+
+public class KeyEncapsulationTest extends AbstractCipherTest {
+
+    @Test
+    public void testRSA() throws Exception {
+        
+        KeyEncapsulation kem = new RSAKeyEncapsulation();
+        Assert.assertEquals("RSA", kem.getType());
+        
+        String token = wrapUnwrap(kem);
+        Assert.assertEquals(344, token.length());
+    }
+    
+    @Test
+    public void testEC() throws Exception {
+        
+        KeyEncapsulation kem = new ECKeyEncapsulation();
+        Assert.assertEquals("EC", kem.getType());
+        
+        String token = wrapUnwrap(kem);
+        Assert.assertTrue("Unexpected token length: " + token.length(), token.length() < 200);
+    }
+    
+    @Test
+    public void testDeterministicKeyPair() throws Exception {
+        
+        for (KeyEncapsulation kem : new KeyEncapsulation[] { new RSAKeyEncapsulation(), new ECKeyEncapsulation() }) {
+            
+            KeyPair keyPairA = kem.getKeyPair(addrBob);
+            KeyPair keyPairB = kem.getKeyPair(addrBob);
+            Assert.assertArrayEquals(keyPairA.getPublic().getEncoded(), keyPairB.getPublic().getEncoded());
+            
+            KeyPair keyPairC = kem.getKeyPair(addrMary);
+            Assert.assertFalse(keyPairA.getPublic().equals(keyPairC.getPublic()));
+        }
+    }
+    
+    private String wrapUnwrap(KeyEncapsulation kem) throws Exception {
+        
+        KeyPair keyPair = kem.getKeyPair(addrBob);
+        
+        // The public key is published as part of the address registration
+        String encKey = kem.encodePublicKey(keyPair.getPublic());
+        PublicKey pubKey = kem.decodePublicKey(encKey);
+        Assert.assertEquals(keyPair.getPublic(), pubKey);
+        
+        SecretKey secKey = AESUtils.newSecretKey(addrBob, cid);
+        byte[] tokBytes = kem.wrap(pubKey, secKey);
+        String token = Base64.getEncoder().encodeToString(tokBytes);
+        LOG.info("{}: {} {}", kem.getType(), encKey.length(), token.length());
+        
+        SecretKey result = kem.unwrap(keyPair.getPrivate(), tokBytes);
+        Assert.assertArrayEquals(secKey.getEncoded(), result.getEncoded());
+        
+        return token;
+    }
+}
@@ -0,0 +1,126 @@
+package io.nessus.test.cipher;
+
+/*-
+ * #%L
+ * Nessus :: Cipher
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.nessus.AbstractAddress;
+import io.nessus.Wallet.Address;
+import io.nessus.cipher.utils.RSAKeyCache;
+import io.nessus.cipher.utils.RSAUtils;
+import io.nessus.utils.FileUtils;
+
+public class RSAKeyCacheTest extends AbstractCipherTest {
+
+    static final int STRENGTH = 1024;
+    
+    @Test
+    public void testCachedKeyPair() throws Exception {
+        
+        RSAKeyCache keyCache = new RSAKeyCache();
+        
+        KeyPair keyPair1 = keyCache.getKeyPair(addrBob, STRENGTH);
+        KeyPair keyPair2 = keyCache.getKeyPair(addrBob, STRENGTH);
+        Assert.assertSame(keyPair1, keyPair2);
+        Assert.assertEquals(1, keyCache.size());
+        
+        // Verify that the cached key is the derived key
+        
+        KeyPair keyPair3 = RSAUtils.newKeyPair(addrBob, STRENGTH);
+        Assert.assertEquals(keyPair1.getPublic(), keyPair3.getPublic());
+        Assert.assertEquals(keyPair1.getPrivate(), keyPair3.getPrivate());
+    }
+
+    @Test
+    public void testBoundedCapacity() throws Exception {
+        
+        RSAKeyCache keyCache = new RSAKeyCache(1, null);
+        
+        KeyPair keyPair1 = keyCache.getKeyPair(addrBob, STRENGTH);
+        keyCache.getKeyPair(addrMary, STRENGTH);
+        Assert.assertEquals(1, keyCache.size());
+        
+        // Bob's key pair got evicted, we get a new but equal instance
+        
+        KeyPair keyPair2 = keyCache.getKeyPair(addrBob, STRENGTH);
+        Assert.assertNotSame(keyPair1, keyPair2);
+        Assert.assertEquals(keyPair1.getPublic(), keyPair2.getPublic());
+    }
+
+    @Test
+    public void testChangedPrivateKey() throws Exception {
+        
+        RSAKeyCache keyCache = new RSAKeyCache();
+        
+        // Same address with Mary's private key
+        
+        Address addrOther = new AbstractAddress(addrBob.getAddress()) {
+            public String getPrivKey() {
+                return addrMary.getPrivKey();
+            }
+        };
+        
+        KeyPair keyPair1 = keyCache.getKeyPair(addrBob, STRENGTH);
+        KeyPair keyPair2 = keyCache.getKeyPair(addrOther, STRENGTH);
+        Assert.assertNotEquals(keyPair1.getPublic(), keyPair2.getPublic());
+    }
+
+    @Test
+    public void testKeyStore() throws Exception {
+        
+        Path storeDir = Files.createTempDirectory("keystore");
+        try {
+            
+            RSAKeyCache keyCache = new RSAKeyCache(RSAKeyCache.DEFAULT_CAPACITY, storeDir);
+            KeyPair keyPair1 = keyCache.getKeyPair(addrBob, STRENGTH);
+            
+            Path keyPath = storeDir.resolve(addrBob.getAddress() + "-" + STRENGTH + ".key");
+            Assert.assertTrue(keyPath.toFile().isFile());
+            
+            // A new cache loads the key pair from the keystore
+            
+            keyCache = new RSAKeyCache(RSAKeyCache.DEFAULT_CAPACITY, storeDir);
+            KeyPair keyPair2 = keyCache.getKeyPair(addrBob, STRENGTH);
+            Assert.assertEquals(keyPair1.getPublic(), keyPair2.getPublic());
+            Assert.assertEquals(keyPair1.getPrivate(), keyPair2.getPrivate());
+            
+            // The key file cannot be read with another private key
+            
+            Address addrOther = new AbstractAddress(addrBob.getAddress()) {
+                public String getPrivKey() {
+                    return addrMary.getPrivKey();
+                }
+            };
+            
+            keyCache = new RSAKeyCache(RSAKeyCache.DEFAULT_CAPACITY, storeDir);
+            KeyPair keyPair3 = keyCache.getKeyPair(addrOther, STRENGTH);
+            Assert.assertNotEquals(keyPair1.getPublic(), keyPair3.getPublic());
+            
+        } finally {
+            FileUtils.recursiveDelete(storeDir);
+        }
+    }
+}
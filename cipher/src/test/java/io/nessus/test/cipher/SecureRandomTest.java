@@ -1,5 +1,6 @@
 package io.nessus.test.cipher;
 
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
@@ -9,6 +10,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import io.nessus.cipher.utils.DeterministicRandom;
+import io.nessus.cipher.utils.DeterministicRandom.Version;
 
 public class SecureRandomTest extends AbstractCipherTest {
 
@@ -72,4 +74,68 @@ public class SecureRandomTest extends AbstractCipherTest {
                 .distinct().count());
         
     }
+    
+    @Test
+    public void testDeterministicRandomV1() throws Exception {
+        
+        // Note, existing keys are derived from this output
+        
+        Assert.assertEquals("ab4c290ecae21c4589409c73df05d1ae674fd02182489151e55f8cd9830984a7", 
+                digestOutput(new DeterministicRandom("some bytes".getBytes(), Version.V1)));
+        
+        Assert.assertEquals("6afa154b0b89288aaab831f7831d9e7c2bc54528eb62bff62c2ae98ebd72aaa6", 
+                digestOutput(new DeterministicRandom(addrBob, null, Version.V1)));
+        
+        Assert.assertEquals("6d58004470c1f960cfed034824f3b4c4090115af5cba7decb7fd1560e4e055f0", 
+                digestOutput(new DeterministicRandom(addrBob, cid, Version.V1)));
+    }
+    
+    @Test
+    public void testDeterministicRandomV2() throws Exception {
+        
+        String digestA = digestOutput(new DeterministicRandom(addrBob, cid, Version.V2));
+        String digestB = digestOutput(new DeterministicRandom(addrBob, cid, Version.V2));
+        Assert.assertEquals(digestA, digestB);
+        
+        String digestC = digestOutput(new DeterministicRandom(addrBob, cid, Version.V1));
+        Assert.assertNotEquals(digestA, digestC);
+        
+        // Output does not depend on how it is requested
+        
+        SecureRandom secrnd = new DeterministicRandom(addrBob, cid, Version.V2);
+        byte[] bufferA = new byte[100];
+        secrnd.nextBytes(bufferA);
+        
+        secrnd = new DeterministicRandom(addrBob, cid, Version.V2);
+        byte[] bufferB = new byte[100];
+        for (int i = 0; i < 10; i++) {
+            byte[] aux = new byte[10];
+            secrnd.nextBytes(aux);
+            System.arraycopy(aux, 0, bufferB, i * 10, 10);
+        }
+        
+        Assert.assertArrayEquals(bufferA, bufferB);
+    }
+    
+    @Test
+    public void testNoUpperLimit() throws Exception {
+        
+        for (Version version : Version.values()) {
+            SecureRandom secrnd = new DeterministicRandom(addrBob, cid, version);
+            for (int i = 0; i < 3; i++) {
+                byte[] buffer = new byte[512 * 1024];
+                secrnd.nextBytes(buffer);
+            }
+        }
+    }
+    
+    private String digestOutput(SecureRandom secrnd) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for (int len : new int[] { 16, 100, 1, 1000, 64, 4096 }) {
+            byte[] buffer = new byte[len];
+            secrnd.nextBytes(buffer);
+            md.update(buffer);
+        }
+        return Hex.toHexString(md.digest());
+    }
 }
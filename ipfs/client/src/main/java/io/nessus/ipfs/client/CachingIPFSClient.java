@@ -0,0 +1,723 @@
+package io.nessus.ipfs.client;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.ipfs.api.IPFS.Config;
+import io.ipfs.multiaddr.MultiAddress;
+import io.ipfs.multihash.Multihash;
+import io.nessus.utils.AssertArgument;
+
+/**
+ * A disk backed cache of IPFS content in front of another client.
+ *
+ * Files are cached by their content id, when they are read through cat or get
+ * and when they are added from a byte array. Content is only cached when it
+ * hashes to its id, and it is verified again whenever it is read from the cache.
+ * A cat of cached content that does not verify fails at the end of the stream,
+ * a get fetches it again. Content that is corrupted is evicted. Ranges are served 
+ * from files that still have the size and modification time they were cached with.
+ * Content that is evicted while it is being looked up is fetched from the daemon.
+ *
+ * The cache is bounded in size, the least recently used content is evicted first.
+ * Directories, ranges of content that is not cached yet and content larger than
+ * an eighth of the cache size always go to the daemon.
+ *
+ * Clients in the same JVM that use the same cache dir share its content and
+ * the smallest of their sizes applies. A cache dir that is in use by another
+ * process is not used, all content then goes to the daemon.
+ */
+public class CachingIPFSClient implements IPFSClient {
+
+    static final Logger LOG = LoggerFactory.getLogger(CachingIPFSClient.class);
+    
+    public static final long DEFAULT_CACHE_SIZE = 256L << 20;
+    
+    private final IPFSClient delegate;
+    private final Path cacheDir;
+    private final long maxEntrySize;
+
+    // The shared content of the cache dir, null when it is in use by another process
+    private final CacheStore store;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CachingIPFSClient(IPFSClient delegate, Path cacheDir, long maxSize) {
+        AssertArgument.assertNotNull(delegate, "Null delegate");
+        AssertArgument.assertNotNull(cacheDir, "Null cacheDir");
+        AssertArgument.assertTrue(maxSize > 0, "Invalid cache size: " + maxSize);
+        this.delegate = delegate;
+        this.cacheDir = cacheDir;
+        this.maxEntrySize = maxSize / 8;
+        this.store = CacheStore.getStore(cacheDir, maxSize);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return store != null ? store.evictions.get() : 0;
+    }
+
+    public long getCorruptions() {
+        return store != null ? store.corruptions.get() : 0;
+    }
+
+    public long getSize() {
+        return store != null ? store.getSize() : 0;
+    }
+
+    public long getMaxSize() {
+        return store != null ? store.getMaxSize() : 0;
+    }
+
+    @Override
+    public Config getIpfsConfig() {
+        return delegate.getIpfsConfig();
+    }
+
+    @Override
+    public IPFSClient connect() {
+        delegate.connect();
+        return this;
+    }
+
+    @Override
+    public MultiAddress getAPIAddress() {
+        return delegate.getAPIAddress();
+    }
+
+    @Override
+    public String getPeerId() throws IOException {
+        return delegate.getPeerId();
+    }
+
+    @Override
+    public List<Multihash> add(Path path) throws IOException {
+        return delegate.add(path);
+    }
+
+    @Override
+    public List<Multihash> add(Path path, boolean hashOnly) throws IOException {
+        return delegate.add(path, hashOnly);
+    }
+
+    @Override
+    public Multihash addSingle(Path path) throws IOException {
+        return delegate.addSingle(path);
+    }
+
+    @Override
+    public Multihash addSingle(Path path, boolean hashOnly) throws IOException {
+        return delegate.addSingle(path, hashOnly);
+    }
+
+    @Override
+    public Multihash addSingle(InputStream input) throws IOException {
+        return delegate.addSingle(input);
+    }
+
+    @Override
+    public Multihash addSingle(InputStream input, boolean hashOnly) throws IOException {
+        return delegate.addSingle(input, hashOnly);
+    }
+
+    @Override
+    public Multihash addSingle(byte[] bytes) throws IOException {
+        return addSingle(bytes, false);
+    }
+
+    @Override
+    public Multihash addSingle(byte[] bytes, boolean hashOnly) throws IOException {
+        Multihash cid = delegate.addSingle(bytes, hashOnly);
+        return cacheAdded(cid, bytes, hashOnly);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> addAsync(Path path, boolean hashOnly) {
+        return delegate.addAsync(path, hashOnly);
+    }
+
+    @Override
+    public CompletableFuture<Multihash> addSingleAsync(InputStream input, boolean hashOnly) {
+        return delegate.addSingleAsync(input, hashOnly);
+    }
+
+    @Override
+    public CompletableFuture<Multihash> addSingleAsync(byte[] bytes, boolean hashOnly) {
+        CompletableFuture<Multihash> future = delegate.addSingleAsync(bytes, hashOnly);
+        return map(future, cid -> cacheAdded(cid, bytes, hashOnly));
+    }
+
+    // Registrations and metadata are read back soon after they were added
+    private Multihash cacheAdded(Multihash cid, byte[] bytes, boolean hashOnly) {
+        if (store != null && !hashOnly && bytes.length <= maxEntrySize && cid.equals(UnixFSHasher.hash(bytes))) {
+            try {
+                Path tmpPath = createTempFile();
+                Files.write(tmpPath, bytes);
+                commit(cid, tmpPath);
+            } catch (IOException ex) {
+                LOG.warn("Cannot cache content: " + cid, ex);
+            }
+        }
+        return cid;
+    }
+
+    @Override
+    public CompletableFuture<InputStream> cat(Multihash cid) {
+        AssertArgument.assertNotNull(cid, "Null cid");
+        
+        InputStream cached = readCached(cid, path -> new VerifyingInputStream(cid, Files.newInputStream(path)));
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        
+        CompletableFuture<InputStream> future = delegate.cat(cid);
+        if (store == null)
+            return future;
+        
+        return map(future, ins -> new CachingInputStream(cid, ins));
+    }
+
+    @Override
+    public CompletableFuture<InputStream> cat(Multihash cid, long offset, long length) {
+        AssertArgument.assertNotNull(cid, "Null cid");
+        
+        InputStream cached = readCached(cid, path -> catRange(path, offset, length));
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        
+        return delegate.cat(cid, offset, length);
+    }
+
+    private InputStream catRange(Path path, long offset, long length) throws IOException {
+        
+        // Never read beyond the requested length
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        long limit = Math.max(0, Math.min(length, channel.size() - offset));
+        channel.position(Math.min(offset, channel.size()));
+        
+        return new FilterInputStream(Channels.newInputStream(channel)) {
+            
+            long remaining = limit;
+            
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) return -1;
+                int b = super.read();
+                if (b >= 0) remaining--;
+                return b;
+            }
+            
+            @Override
+            public int read(byte[] bytes, int off, int len) throws IOException {
+                if (remaining <= 0) return -1;
+                int read = super.read(bytes, off, (int) Math.min(len, remaining));
+                if (read > 0) remaining -= read;
+                return read;
+            }
+        };
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Multihash>> links(Multihash cid) {
+        return delegate.links(cid);
+    }
+
+    @Override
+    public CompletableFuture<Path> get(Multihash cid, Path outdir) {
+        AssertArgument.assertNotNull(cid, "Null cid");
+        AssertArgument.assertNotNull(outdir, "Null outdir");
+        
+        Path cached = readCached(cid, path -> {
+            try (InputStream ins = Files.newInputStream(path)) {
+                if (!cid.equals(UnixFSHasher.hash(ins))) {
+                    store.evictCorrupted(cid.toBase58());
+                    return null;
+                }
+            }
+            Path outpath = outdir.resolve(cid.toBase58());
+            Files.createDirectories(outdir);
+            Files.copy(path, outpath, StandardCopyOption.REPLACE_EXISTING);
+            return outpath;
+        });
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        
+        CompletableFuture<Path> future = delegate.get(cid, outdir);
+        if (store == null)
+            return future;
+        
+        return map(future, outpath -> {
+            File outfile = outpath.toFile();
+            if (outfile.isFile() && outfile.length() <= maxEntrySize) {
+                try (InputStream ins = Files.newInputStream(outpath)) {
+                    if (cid.equals(UnixFSHasher.hash(ins))) {
+                        Path tmpPath = createTempFile();
+                        Files.copy(outpath, tmpPath, StandardCopyOption.REPLACE_EXISTING);
+                        commit(cid, tmpPath);
+                    }
+                } catch (IOException ex) {
+                    LOG.warn("Cannot cache content: " + cid, ex);
+                }
+            }
+            return outpath;
+        });
+    }
+
+    @Override
+    public String version() throws IOException {
+        return delegate.version();
+    }
+
+    @Override
+    public CompletableFuture<String> versionAsync() {
+        return delegate.versionAsync();
+    }
+
+    @Override
+    public CompletableFuture<String> getPeerIdAsync() {
+        return delegate.getPeerIdAsync();
+    }
+
+    @Override
+    public boolean hasConnection() {
+        return delegate.hasConnection();
+    }
+
+    public String toString() {
+        return String.format("[dir=%s, size=%d/%d, hits=%d, misses=%d, evictions=%d, corruptions=%d]",
+                cacheDir, getSize(), getMaxSize(), getHits(), getMisses(), getEvictions(), getCorruptions());
+    }
+
+    // Read the given content from the cache, or null when it is not cached or the reader finds it corrupted
+    private <T> T readCached(Multihash cid, CacheReader<T> reader) {
+        
+        String key = cid.toBase58();
+        Path path = store != null ? store.lookup(key) : null;
+        if (path != null) {
+            try {
+                T result = reader.read(path);
+                if (result != null) {
+                    hits.incrementAndGet();
+                    return result;
+                }
+            } catch (NoSuchFileException ex) {
+                // Evicted after the lookup
+                LOG.debug("Cached content is gone: {}", key);
+                store.remove(key);
+            } catch (IOException ex) {
+                LOG.warn("Cannot read cached content: " + key, ex);
+            }
+        }
+        
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private void commit(Multihash cid, Path tmpPath) throws IOException {
+        store.commit(cid.toBase58(), tmpPath);
+    }
+
+    private Path createTempFile() throws IOException {
+        return Files.createTempFile(store.cacheDir, "cache", ".part");
+    }
+
+    interface CacheReader<T> {
+        T read(Path path) throws IOException;
+    }
+
+    // The content of a cache dir, shared by all clients in this JVM that use the dir.
+    // Content is verified before it is committed. A lookup checks that the file still 
+    // has the size and modification time it was committed with, readers hash it again.
+    static class CacheStore {
+        
+        static final String LOCK_FILE = ".lock";
+        
+        private static final Map<Path, CacheStore> stores = new HashMap<>();
+        
+        final Path cacheDir;
+        
+        // Held for the lifetime of the JVM, another process cannot use the dir
+        private final FileLock lock;
+        private long maxSize;
+        
+        // Cached content ids and their files, least recently used first
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+        
+        final AtomicLong evictions = new AtomicLong();
+        final AtomicLong corruptions = new AtomicLong();
+        
+        // Get the store for the given dir, or null when the dir is in use by another process
+        static synchronized CacheStore getStore(Path cacheDir, long maxSize) {
+            
+            Path dir = cacheDir.toAbsolutePath().normalize();
+            CacheStore store = stores.get(dir);
+            if (store == null) {
+                FileLock lock = lockDir(dir);
+                if (lock == null) return null;
+                store = new CacheStore(dir, lock, maxSize);
+                stores.put(dir, store);
+            } else {
+                store.limit(maxSize);
+            }
+            
+            LOG.info("IPFS cache: {}", store);
+            return store;
+        }
+        
+        private static FileLock lockDir(Path dir) {
+            try {
+                Files.createDirectories(dir);
+                FileChannel channel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = channel.tryLock();
+                if (lock == null) {
+                    LOG.warn("IPFS cache in use by another process: {}", dir);
+                    channel.close();
+                }
+                return lock;
+            } catch (IOException ex) {
+                LOG.warn("Cannot lock IPFS cache: " + dir, ex);
+                return null;
+            }
+        }
+        
+        private CacheStore(Path cacheDir, FileLock lock, long maxSize) {
+            this.cacheDir = cacheDir;
+            this.lock = lock;
+            this.maxSize = maxSize;
+            loadEntries();
+        }
+        
+        synchronized long getSize() {
+            return size;
+        }
+        
+        synchronized long getMaxSize() {
+            return maxSize;
+        }
+        
+        // Get the cache path for the given content, or null
+        synchronized Path lookup(String key) {
+            
+            Entry entry = entries.get(key);
+            if (entry == null) return null;
+            
+            Path path = cacheDir.resolve(key);
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attrs.size() == entry.length && attrs.lastModifiedTime().equals(entry.modified))
+                    return path;
+            } catch (IOException ex) {
+                LOG.debug("Cannot read cached content: " + path, ex);
+            }
+            
+            evictCorrupted(key);
+            return null;
+        }
+        
+        synchronized void evictCorrupted(String key) {
+            LOG.warn("Evict corrupted content: {}", key);
+            corruptions.incrementAndGet();
+            Entry entry = entries.remove(key);
+            if (entry != null) size -= entry.length;
+            cacheDir.resolve(key).toFile().delete();
+        }
+        
+        // Remove the entry for content that is gone
+        synchronized void remove(String key) {
+            Path path = cacheDir.resolve(key);
+            if (!Files.exists(path)) {
+                Entry entry = entries.remove(key);
+                if (entry != null) size -= entry.length;
+            }
+        }
+        
+        synchronized void commit(String key, Path tmpPath) throws IOException {
+            
+            Path path = cacheDir.resolve(key);
+            Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            Entry previous = entries.put(key, new Entry(attrs.size(), attrs.lastModifiedTime()));
+            size += attrs.size() - (previous != null ? previous.length : 0);
+            
+            evict(key);
+        }
+        
+        private synchronized void limit(long maxSize) {
+            if (maxSize < this.maxSize) {
+                this.maxSize = maxSize;
+                try {
+                    evict(null);
+                } catch (IOException ex) {
+                    LOG.warn("Cannot evict content: " + cacheDir, ex);
+                }
+            }
+        }
+        
+        // Evict the least recently used content, other than the given key
+        private void evict(String key) throws IOException {
+            Iterator<Map.Entry<String, Entry>> itr = entries.entrySet().iterator();
+            while (size > maxSize && itr.hasNext()) {
+                Map.Entry<String, Entry> entry = itr.next();
+                if (entry.getKey().equals(key)) continue;
+                Files.deleteIfExists(cacheDir.resolve(entry.getKey()));
+                size -= entry.getValue().length;
+                evictions.incrementAndGet();
+                itr.remove();
+            }
+        }
+        
+        // Restore the entries from a previous run, oldest first
+        private void loadEntries() {
+            
+            File[] files = cacheDir.toFile().listFiles();
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            try {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.endsWith(".part")) {
+                        file.delete();
+                    } else if (!name.equals(LOCK_FILE)) {
+                        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                        entries.put(name, new Entry(attrs.size(), attrs.lastModifiedTime()));
+                        size += attrs.size();
+                    }
+                }
+                evict(null);
+            } catch (IOException ex) {
+                LOG.warn("Cannot load IPFS cache: " + cacheDir, ex);
+            }
+        }
+        
+        public synchronized String toString() {
+            return String.format("[dir=%s, size=%d/%d, entries=%d, locked=%b]", cacheDir, getSize(), getMaxSize(), entries.size(), lock.isValid());
+        }
+    }
+
+    static class Entry {
+        
+        final long length;
+        final FileTime modified;
+        
+        Entry(long length, FileTime modified) {
+            this.length = length;
+            this.modified = modified;
+        }
+    }
+
+    // Hashes cached content while it is being read. Content that does not hash 
+    // to its id fails the read at the end of the stream and is evicted.
+    class VerifyingInputStream extends FilterInputStream {
+        
+        private final Multihash cid;
+        private final UnixFSHasher hasher = new UnixFSHasher();
+        private boolean verified;
+        
+        VerifyingInputStream(Multihash cid, InputStream ins) {
+            super(ins);
+            this.cid = cid;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) verify();
+            else hasher.update(new byte[] { (byte) b }, 0, 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            int read = super.read(bytes, off, len);
+            if (read < 0) verify();
+            else hasher.update(bytes, off, read);
+            return read;
+        }
+
+        // Skipped content is hashed as well
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.max(0, Math.min(n, 8192))];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read < 0) break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void verify() throws IOException {
+            if (!verified) {
+                verified = true;
+                if (!cid.equals(hasher.digest())) {
+                    store.evictCorrupted(cid.toBase58());
+                    throw new IOException("Cached content does not hash to its id: " + cid);
+                }
+            }
+        }
+    }
+    
+    // Copies the content into the cache while it is being read. Content that is not 
+    // read to the end, is too large, or does not hash to its id is discarded.
+    class CachingInputStream extends FilterInputStream {
+        
+        private final Multihash cid;
+        private final UnixFSHasher hasher = new UnixFSHasher();
+        private Path tmpPath;
+        private OutputStream out;
+        private long count;
+        
+        CachingInputStream(Multihash cid, InputStream ins) {
+            super(ins);
+            this.cid = cid;
+            try {
+                tmpPath = createTempFile();
+                out = Files.newOutputStream(tmpPath);
+            } catch (IOException ex) {
+                LOG.warn("Cannot cache content: " + cid, ex);
+                discard();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) finish();
+            else write(new byte[] { (byte) b }, 0, 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            int read = super.read(bytes, off, len);
+            if (read < 0) finish();
+            else write(bytes, off, read);
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                discard();
+            }
+        }
+
+        private void write(byte[] bytes, int off, int len) throws IOException {
+            if (out != null) {
+                count += len;
+                if (count > maxEntrySize) {
+                    discard();
+                } else {
+                    out.write(bytes, off, len);
+                    hasher.update(bytes, off, len);
+                }
+            }
+        }
+        
+        private void finish() {
+            if (out != null) {
+                try {
+                    out.close();
+                    out = null;
+                    if (cid.equals(hasher.digest())) {
+                        commit(cid, tmpPath);
+                    } else {
+                        LOG.debug("Content does not hash to its id: {}", cid);
+                    }
+                } catch (IOException ex) {
+                    LOG.warn("Cannot cache content: " + cid, ex);
+                } finally {
+                    discard();
+                }
+            }
+        }
+        
+        private void discard() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                    // ignore
+                }
+                out = null;
+            }
+            if (tmpPath != null) {
+                tmpPath.toFile().delete();
+            }
+        }
+    }
+    
+    // Maps the result of the delegate's future. 
+    // Failing the mapped future from the outside also fails the delegate's, which aborts its request.
+    static <T, R> CompletableFuture<R> map(CompletableFuture<T> future, Function<T, R> function) {
+        CompletableFuture<R> result = future.thenApply(function);
+        result.whenComplete((res, th) -> {
+            if (th != null) future.completeExceptionally(th);
+        });
+        return result;
+    }
+}
@@ -1,7 +1,5 @@
 package io.nessus.ipfs.client;
 
-import java.io.ByteArrayOutputStream;
-
 /*-
  * #%L
  * Nessus :: IPFS :: Core
@@ -22,33 +20,51 @@ import java.io.ByteArrayOutputStream;
  * #L%
  */
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.ipfs.api.IPFS;
 import io.ipfs.api.IPFS.Config;
-import io.ipfs.api.MerkleNode;
-import io.ipfs.api.NamedStreamable.ByteArrayWrapper;
-import io.ipfs.api.NamedStreamable.FileWrapper;
 import io.ipfs.multiaddr.MultiAddress;
 import io.ipfs.multihash.Multihash;
 import io.nessus.utils.AssertArgument;
 import io.nessus.utils.AssertState;
+import io.nessus.utils.FileUtils;
 import io.nessus.utils.StreamUtils;
 
 public class DefaultIPFSClient implements IPFSClient {
@@ -57,22 +73,61 @@ public class DefaultIPFSClient implements IPFSClient {
     
     private final MultiAddress addr;
     
+    // Pooled connections for the requests that we send directly
+    private final IPFSTransport transport;
+    
     private IPFS ipfs;
     
-    // Executor service for async get operations
+    // The content id in the JSON response of an add
+    static final Pattern ADD_HASH = Pattern.compile("\"Hash\"\\s*:\\s*\"(\\w+)\"");
+    
+    // The version in the JSON response of a version request
+    static final Pattern VERSION = Pattern.compile("\"Version\"\\s*:\\s*\"([^\"]*)\"");
+    
+    // The value in the JSON response of a config request
+    static final Pattern CONFIG_VALUE = Pattern.compile("\"Value\"\\s*:\\s*\"([^\"]*)\"");
+    
+    // Number of links that a single get fetches concurrently
+    static final int FETCH_WINDOW = 8;
+    
+    // A link in the JSON response of an ls, the daemon writes the name before the hash
+    static final Pattern LS_LINK = Pattern.compile("\\{\\s*\"Name\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"\\s*,\\s*\"Hash\"\\s*:\\s*\"(\\w+)\"");
+    
+    // Executor service for the async operations, a call blocks while it waits for the daemon
     private final ExecutorService executorService;
     
+    // Executor service for the fetches of all gets, which share the connections of the transport
+    private final ExecutorService fetchService;
+    
     public DefaultIPFSClient(String host, Integer port) {
         this(new MultiAddress("/ip4/" + host + "/tcp/" + port));
     }
 
     public DefaultIPFSClient(MultiAddress addr) {
-        this.addr = addr;
+        this(new IPFSTransport(addr));
+    }
+
+    public DefaultIPFSClient(IPFSTransport transport) {
+        AssertArgument.assertNotNull(transport, "Null transport");
+        this.addr = transport.getAddress();
+        this.transport = transport;
         
-        executorService = Executors.newFixedThreadPool(12, new ThreadFactory() {
+        // More threads would only wait for a connection
+        executorService = Executors.newFixedThreadPool(transport.getConnections(), new ThreadFactory() {
             AtomicInteger count = new AtomicInteger();
             public Thread newThread(Runnable run) {
-                return new Thread(run, "ipfs-client-" + count.incrementAndGet());
+                Thread thread = new Thread(run, "ipfs-client-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        
+        fetchService = Executors.newFixedThreadPool(transport.getConnections(), new ThreadFactory() {
+            AtomicInteger count = new AtomicInteger();
+            public Thread newThread(Runnable run) {
+                Thread thread = new Thread(run, "ipfs-fetch-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
             }
         });
     }
@@ -99,7 +154,7 @@ public class DefaultIPFSClient implements IPFSClient {
 
 	@Override
 	public String getPeerId() throws IOException {
-		return getIpfsConfig().get("Identity.PeerID");
+		return getPeerId(new IPFSTransport.Call());
 	}
 
 	@Override
@@ -119,9 +174,7 @@ public class DefaultIPFSClient implements IPFSClient {
 
     @Override
     public List<Multihash> add(Path path, boolean hashOnly) throws IOException {
-        List<MerkleNode> parts = getIpfs().add(new FileWrapper(path.toFile()), false, hashOnly);
-        AssertState.assertTrue(parts.size() > 0, "No content added");
-        return parts.stream().map(mn -> mn.hash).collect(Collectors.toList());
+        return addPath(path, hashOnly, new IPFSTransport.Call());
     }
 
     @Override
@@ -139,13 +192,13 @@ public class DefaultIPFSClient implements IPFSClient {
 
     @Override
     public Multihash addSingle(InputStream input) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        return addSingle(baos.toByteArray());
+        return addSingle(input, false);
     }
 
     @Override
     public Multihash addSingle(InputStream input, boolean hashOnly) throws IOException {
-        return addSingle(input, false);
+        AssertArgument.assertNotNull(input, "Null input");
+        return addStream(input, hashOnly);
     }
 
     @Override
@@ -155,70 +208,513 @@ public class DefaultIPFSClient implements IPFSClient {
 
     @Override
     public Multihash addSingle(byte[] bytes, boolean hashOnly) throws IOException {
-        List<MerkleNode> parts = getIpfs().add(new ByteArrayWrapper(bytes), false, hashOnly);
-        AssertState.assertTrue(parts.size() > 0, "No content added");
-        Multihash cid = parts.stream().map(mn -> mn.hash).findFirst().get();
-        return cid;
+        AssertArgument.assertNotNull(bytes, "Null bytes");
+        return addStream(new ByteArrayInputStream(bytes), hashOnly);
     }
 
     @Override
-    public Future<InputStream> cat(Multihash cid) throws IOException {
-    	
-        Callable<InputStream> call = new Callable<InputStream>() {
-        	
-            @Override
-            public InputStream call() throws Exception {
-                try {
-                    return getIpfs().catStream(cid);
-                } catch (Exception ex) {
-                    throw new IPFSException(ex);
-                }
+    public CompletableFuture<List<Multihash>> addAsync(Path path, boolean hashOnly) {
+        return submit(call -> addPath(path, hashOnly, call));
+    }
+
+    @Override
+    public CompletableFuture<Multihash> addSingleAsync(InputStream input, boolean hashOnly) {
+        AssertArgument.assertNotNull(input, "Null input");
+        return submit(call -> addStream(input, hashOnly, call));
+    }
+
+    @Override
+    public CompletableFuture<Multihash> addSingleAsync(byte[] bytes, boolean hashOnly) {
+        AssertArgument.assertNotNull(bytes, "Null bytes");
+        return submit(call -> addStream(new ByteArrayInputStream(bytes), hashOnly, call));
+    }
+
+    @Override
+    public CompletableFuture<InputStream> cat(Multihash cid) {
+        AssertArgument.assertNotNull(cid, "Null cid");
+        return submit(call -> catStream(cid, call));
+    }
+
+    @Override
+    public CompletableFuture<InputStream> cat(Multihash cid, long offset, long length) {
+        AssertArgument.assertNotNull(cid, "Null cid");
+        AssertArgument.assertTrue(offset >= 0, "Invalid offset: " + offset);
+        AssertArgument.assertTrue(length > 0, "Invalid length: " + length);
+        return submit(call -> catRange(cid, offset, length, call));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, Multihash>> links(Multihash cid) {
+        AssertArgument.assertNotNull(cid, "Null cid");
+        return submit(call -> {
+            
+            // The links of a large file are its unnamed chunks
+            
+            Map<String, Multihash> result = new LinkedHashMap<>();
+            for (Link link : lsLinks(cid, call)) {
+                if (!link.name.isEmpty()) result.put(link.name, link.cid);
             }
-        };
-        
-		Future<InputStream> future = executorService.submit(call);
-        return future;
+            return result;
+        });
     }
 
     @Override
-    public Future<Path> get(Multihash cid, Path outdir) {
-    	
-        Callable<Path> call = new Callable<Path>() {
-        	
-            @Override
-            public Path call() throws Exception {
+    public CompletableFuture<Path> get(Multihash cid, Path outdir) {
+        AssertArgument.assertNotNull(cid, "Null cid");
+        AssertArgument.assertNotNull(outdir, "Null outdir");
+        return new DAGWalker(outdir.resolve(cid.toBase58())).get(cid);
+    }
+
+    @Override
+    public String version() throws IOException {
+        return version(new IPFSTransport.Call());
+    }
+
+    @Override
+    public CompletableFuture<String> versionAsync() {
+        return submit(call -> version(call));
+    }
+
+    @Override
+    public CompletableFuture<String> getPeerIdAsync() {
+        return submit(call -> getPeerId(call));
+    }
+
+    private String version(IPFSTransport.Call call) throws IOException {
+        return requestValue("/api/v0/version", VERSION, call);
+    }
+
+    private String getPeerId(IPFSTransport.Call call) throws IOException {
+        return requestValue("/api/v0/config?arg=Identity.PeerID", CONFIG_VALUE, call);
+    }
+
+    // Runs the request on the executor service. The future fails with an IPFSException. 
+    // 
+    // When the future is failed from the outside, e.g. with a timeout or cancel, 
+    // the request is interrupted and its HTTP call is aborted. A result that arrives 
+    // after the future was completed from the outside is closed, so that its connection
+    // goes back to the pool.
+    //
+    // The HTTP calls still block the executor thread while they wait for the daemon. 
+    // The futures only decouple the caller from that thread.
+    private <T> CompletableFuture<T> submit(Request<T> request) {
+        
+        CompletableFuture<T> result = new CompletableFuture<>();
+        IPFSTransport.Call call = new IPFSTransport.Call();
+        AtomicBoolean finished = new AtomicBoolean();
+        
+        Future<?> task = executorService.submit(() -> {
+            T value = null;
+            IPFSException failure = null;
+            try {
+                value = request.call(call);
+            } catch (IPFSException ex) {
+                failure = ex;
+            } catch (Exception ex) {
+                failure = new IPFSException(ex);
+            }
+            finished.set(true);
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else if (!result.complete(value)) {
+                discard(value);
+            }
+        });
+        
+        result.whenComplete((res, th) -> {
+            if (th != null && !finished.get()) {
+                task.cancel(true);
+                call.abort();
+            }
+        });
+        
+        return result;
+    }
+
+    // Close a result that nobody receives
+    private void discard(Object value) {
+        if (value instanceof Closeable) {
+            try {
+                ((Closeable) value).close();
+            } catch (IOException ex) {
+                LOG.debug("Cannot close discarded result", ex);
+            }
+        }
+    }
+    
+    interface Request<T> {
+        T call(IPFSTransport.Call call) throws Exception;
+    }
+    
+    // Walks the DAG of a get. Sibling links are fetched concurrently, every get 
+    // has no more than FETCH_WINDOW fetches on the shared fetch threads at a time.
+    // Files are written as they arrive, chunks of large files go to a temp dir first.
+    // 
+    // No thread waits for the walk, the last fetch completes the result. The first failure, 
+    // or a cancel or timeout of the result, aborts the requests that are still in flight.
+    private class DAGWalker {
+        
+        private final Path outpath;
+        private final CompletableFuture<Path> result = new CompletableFuture<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger partCount = new AtomicInteger();
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private final Set<IPFSTransport.Call> calls = ConcurrentHashMap.newKeySet();
+        
+        // Fetches that wait for a place in the window
+        private final Deque<Fetch> queue = new ArrayDeque<>();
+        private int active;
+        private Path partsDir;
+        
+        DAGWalker(Path outpath) {
+            this.outpath = outpath;
+            result.whenComplete((res, th) -> {
+                if (th != null) fail(th instanceof Exception ? (Exception) th : new IPFSException(th));
+            });
+        }
+        
+        CompletableFuture<Path> get(Multihash cid) {
+            submit(call -> fetch(cid, outpath, call));
+            return result;
+        }
+        
+        // Called by the last fetch, when nothing is in flight anymore
+        private void finish() {
+            
+            synchronized (this) {
                 try {
-                    return getInternal(cid, outdir.resolve(cid.toBase58()));
-                } catch (Exception ex) {
-                    throw new IPFSException(ex);
+                    if (partsDir != null) FileUtils.recursiveDelete(partsDir);
+                } catch (IOException ex) {
+                    LOG.warn("Cannot delete parts: " + partsDir, ex);
                 }
             }
             
-            Path getInternal(Multihash cid, Path outpath) throws IOException {
-                List<MerkleNode> links = getIpfs().ls(cid).get(0).links;
-                for (MerkleNode node : links) {
-                    String name = node.name.get();
-                    getInternal(node.hash, outpath.resolve(name));
-                }
-                if (links.isEmpty()) {
-                    File outfile = outpath.toFile();
-                    outpath.getParent().toFile().mkdirs();
-                    try (OutputStream fout = new FileOutputStream(outfile)) {
-                        InputStream ins = getIpfs().catStream(cid);
-                        StreamUtils.copyStream(ins, fout);
+            Exception ex = failure.get();
+            if (ex == null) {
+                result.complete(outpath);
+            } else {
+                result.completeExceptionally(ex instanceof IPFSException ? ex : new IPFSException(ex));
+            }
+        }
+        
+        private void fetch(Multihash cid, Path outpath, IPFSTransport.Call call) throws IOException {
+            
+            List<Link> links = lsLinks(cid, call);
+            if (links.isEmpty()) {
+                fetchFile(cid, outpath, call);
+                return;
+            }
+            
+            // The links of a large file are its unnamed chunks
+            if (links.get(0).name.isEmpty()) {
+                fetchChunks(links, outpath);
+                return;
+            }
+            
+            for (Link link : links) {
+                Path childPath = outpath.resolve(link.name);
+                submit(next -> fetch(link.cid, childPath, next));
+            }
+        }
+        
+        private void fetchFile(Multihash cid, Path outpath, IPFSTransport.Call call) throws IOException {
+            File outfile = outpath.toFile();
+            outpath.getParent().toFile().mkdirs();
+            try (InputStream ins = catStream(cid, call); 
+                    OutputStream fout = new FileOutputStream(outfile)) {
+                StreamUtils.copyStream(ins, fout);
+            }
+        }
+        
+        private void fail(Exception ex) {
+            if (failure.compareAndSet(null, ex)) {
+                calls.forEach(call -> call.abort());
+            }
+        }
+        
+        // Chunks are fetched into parts, which are joined when the last one has arrived 
+        private void fetchChunks(List<Link> links, Path outpath) throws IOException {
+            
+            Path tmpDir = getPartsDir();
+            
+            List<Path> chunkParts = new ArrayList<>();
+            for (int i = 0; i < links.size(); i++) {
+                chunkParts.add(tmpDir.resolve(partCount.incrementAndGet() + ".part"));
+            }
+            
+            AtomicInteger remaining = new AtomicInteger(links.size());
+            for (int i = 0; i < links.size(); i++) {
+                Multihash chunk = links.get(i).cid;
+                Path part = chunkParts.get(i);
+                submit(call -> {
+                    fetchFile(chunk, part, call);
+                    if (remaining.decrementAndGet() == 0) {
+                        joinParts(chunkParts, outpath);
+                    }
+                });
+            }
+        }
+        
+        private synchronized Path getPartsDir() throws IOException {
+            if (partsDir == null) {
+                partsDir = Files.createTempDirectory("ipfs-get");
+            }
+            return partsDir;
+        }
+        
+        private void joinParts(List<Path> chunkParts, Path outpath) throws IOException {
+            outpath.getParent().toFile().mkdirs();
+            try (FileChannel out = FileChannel.open(outpath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Path part : chunkParts) {
+                    try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                        long pos = 0;
+                        long size = in.size();
+                        while (pos < size) {
+                            pos += in.transferTo(pos, size - pos, out);
+                        }
                     }
+                    Files.delete(part);
                 }
-                return outpath;
             }
+        }
+        
+        // Children are submitted before their parent is done, 
+        // so there is nothing pending only when the entire DAG was fetched
+        private void submit(Fetch fetch) {
+            pending.incrementAndGet();
+            synchronized (this) {
+                queue.add(fetch);
+                schedule();
+            }
+        }
+        
+        private synchronized void schedule() {
+            while (active < FETCH_WINDOW && !queue.isEmpty()) {
+                Fetch fetch = queue.poll();
+                active++;
+                fetchService.execute(() -> run(fetch));
+            }
+        }
+        
+        private void run(Fetch fetch) {
+            IPFSTransport.Call call = new IPFSTransport.Call();
+            calls.add(call);
+            try {
+                if (failure.get() == null) fetch.run(call);
+            } catch (Exception ex) {
+                fail(ex);
+            } finally {
+                calls.remove(call);
+                synchronized (this) {
+                    active--;
+                    schedule();
+                }
+                if (pending.decrementAndGet() == 0) {
+                    finish();
+                }
+            }
+        }
+    }
+    
+    interface Fetch {
+        void run(IPFSTransport.Call call) throws Exception;
+    }
+    
+    // The API client can only add content that it has in full, we talk to the HTTP API directly.
+    // The input is piped into a multipart body with chunked transfer, so nothing is buffered 
+    // beyond a single chunk. Writes block while the daemon is not reading.
+    private Multihash addStream(InputStream input, boolean hashOnly) throws IOException {
+        return addStream(input, hashOnly, new IPFSTransport.Call());
+    }
+    
+    private Multihash addStream(InputStream input, boolean hashOnly, IPFSTransport.Call call) throws IOException {
+        
+        String query = String.format("/api/v0/add?stream-channels=true&progress=false&only-hash=%b", hashOnly);
+        String boundary = "nessus-" + Long.toHexString(System.nanoTime());
+        
+        IPFSTransport.Body body = out -> {
+            writePart(out, boundary, "data", "application/octet-stream", input);
+            writeTail(out, boundary);
+        };
+        
+        // The last object in the response is the root of the added content
+        List<Multihash> cids = addParts(query, boundary, body, call);
+        return cids.get(cids.size() - 1);
+    }
+    
+    // A file or directory tree goes in one multipart body, with a part for every file and 
+    // directory. Directories come before their content, the daemon responds with the root last.
+    private List<Multihash> addPath(Path path, boolean hashOnly, IPFSTransport.Call call) throws IOException {
+        AssertArgument.assertNotNull(path, "Null path");
+        AssertArgument.assertTrue(path.toFile().exists(), "Path does not exist: " + path);
+        
+        String query = String.format("/api/v0/add?stream-channels=true&progress=false&only-hash=%b", hashOnly);
+        String boundary = "nessus-" + Long.toHexString(System.nanoTime());
+        
+        IPFSTransport.Body body = out -> {
+            writeParts(out, boundary, path.toFile(), path.getFileName().toString());
+            writeTail(out, boundary);
         };
         
-		Future<Path> future = executorService.submit(call);
-        return future;
+        return addParts(query, boundary, body, call);
+    }
+    
+    private List<Multihash> addParts(String query, String boundary, IPFSTransport.Body body, IPFSTransport.Call call) throws IOException {
+        
+        String response;
+        try (InputStream ins = transport.request(query, "multipart/form-data; boundary=" + boundary, body, call)) {
+            response = new String(StreamUtils.toBytes(ins), StandardCharsets.UTF_8);
+        }
+        
+        List<Multihash> result = new ArrayList<>();
+        Matcher matcher = ADD_HASH.matcher(response);
+        while (matcher.find()) {
+            result.add(Multihash.fromBase58(matcher.group(1)));
+        }
+        
+        AssertState.assertTrue(result.size() > 0, "No content added: " + response);
+        return result;
+    }
+    
+    private void writeParts(OutputStream out, String boundary, File file, String name) throws IOException {
+        if (file.isDirectory()) {
+            writePart(out, boundary, name, "application/x-directory", null);
+            File[] children = file.listFiles();
+            Arrays.sort(children, Comparator.comparing(File::getName));
+            for (File child : children) {
+                writeParts(out, boundary, child, name + "/" + child.getName());
+            }
+        } else {
+            try (InputStream ins = new FileInputStream(file)) {
+                writePart(out, boundary, name, "application/octet-stream", ins);
+            }
+        }
+    }
+    
+    // The file name is the path relative to the added root, URL encoded
+    private void writePart(OutputStream out, String boundary, String name, String contentType, InputStream content) throws IOException {
+        
+        StringBuilder head = new StringBuilder();
+        head.append("--" + boundary + "\r\n");
+        head.append("Content-Disposition: form-data; name=\"file\"; filename=\"" + URLEncoder.encode(name, "UTF-8") + "\"\r\n");
+        head.append("Content-Type: " + contentType + "\r\n\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+        
+        if (content != null) {
+            StreamUtils.copyStream(content, out);
+        }
+        
+        out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private void writeTail(OutputStream out, String boundary) throws IOException {
+        String tail = "--" + boundary + "--\r\n";
+        out.write(tail.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    // A string value from the JSON response of the given query
+    private String requestValue(String query, Pattern pattern, IPFSTransport.Call call) throws IOException {
+        
+        String response = requestString(query, call);
+        
+        Matcher matcher = pattern.matcher(response);
+        AssertState.assertTrue(matcher.find(), "Unexpected response: " + response);
+        return matcher.group(1);
+    }
+    
+    private String requestString(String query, IPFSTransport.Call call) throws IOException {
+        try (InputStream ins = transport.request(query, call)) {
+            return new String(StreamUtils.toBytes(ins), StandardCharsets.UTF_8);
+        }
+    }
+
+    // The links of the given node, we talk to the HTTP API directly so that the request can be aborted
+    private List<Link> lsLinks(Multihash cid, IPFSTransport.Call call) throws IOException {
+        
+        String response = requestString("/api/v0/ls?arg=" + cid.toBase58(), call);
+        
+        List<Link> result = new ArrayList<>();
+        Matcher matcher = LS_LINK.matcher(response);
+        while (matcher.find()) {
+            result.add(new Link(unescape(matcher.group(1)), Multihash.fromBase58(matcher.group(2))));
+        }
+        return result;
+    }
+    
+    // Names are JSON strings, which may contain escaped characters
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) 
+            return value;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 'u': 
+                        sb.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16)); 
+                        i += 4; 
+                        break;
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    default: sb.append(next);
+                }
+            } else {
+                sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+    
+    static class Link {
+        
+        final String name;
+        final Multihash cid;
+        
+        Link(String name, Multihash cid) {
+            this.name = name;
+            this.cid = cid;
+        }
     }
 
+    private IPFSTransport.Response catStream(Multihash cid, IPFSTransport.Call call) throws IOException {
+        return transport.request("/api/v0/cat?arg=" + cid.toBase58(), call);
+    }
 
-    @Override
-    public String version() throws IOException {
-        return getIpfs().version();
+    // The API client has no ranged cat
+    private InputStream catRange(Multihash cid, long offset, long length, IPFSTransport.Call call) throws IOException {
+        
+        String query = String.format("/api/v0/cat?arg=%s&offset=%d&length=%d", cid.toBase58(), offset, length);
+        
+        // Never read beyond the requested length
+        InputStream ins = transport.request(query, call);
+        return new InputStream() {
+            
+            long remaining = length;
+            
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) return -1;
+                int b = ins.read();
+                if (b >= 0) remaining--;
+                return b;
+            }
+            
+            @Override
+            public int read(byte[] bytes, int off, int len) throws IOException {
+                if (remaining <= 0) return -1;
+                int read = ins.read(bytes, off, (int) Math.min(len, remaining));
+                if (read > 0) remaining -= read;
+                return read;
+            }
+            
+            @Override
+            public void close() throws IOException {
+                ins.close();
+            }
+        };
     }
 }
@@ -25,12 +25,21 @@ import java.io.InputStream;
 
 import java.nio.file.Path;
 import java.util.List;
-import java.util.concurrent.Future;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import io.ipfs.api.IPFS.Config;
 import io.ipfs.multiaddr.MultiAddress;
 import io.ipfs.multihash.Multihash;
-
+import io.nessus.utils.FutureUtils;
+
+/**
+ * A client for the IPFS API.
+ *
+ * Operations that return a {@link CompletableFuture} do not block the calling thread.
+ * Failing such a future from the outside, e.g. with a timeout or cancel, aborts the
+ * request that it is waiting for. 
+ */
 public interface IPFSClient {
 
     MultiAddress DEFAULT_IPFS_ADDR = new MultiAddress("/ip4/127.0.0.1/tcp/5001");
@@ -59,12 +68,57 @@ public interface IPFSClient {
 
     Multihash addSingle(byte[] bytes, boolean hashOnly) throws IOException;
 
-    Future<InputStream> cat(Multihash cid) throws IOException;
-
-    Future<Path> get(Multihash cid, Path outdir);
+    /**
+     * The default runs the add on the calling thread.
+     */
+    default CompletableFuture<List<Multihash>> addAsync(Path path, boolean hashOnly) {
+        return FutureUtils.call(() -> add(path, hashOnly));
+    }
+
+    /**
+     * The default runs the add on the calling thread.
+     */
+    default CompletableFuture<Multihash> addSingleAsync(InputStream input, boolean hashOnly) {
+        return FutureUtils.call(() -> addSingle(input, hashOnly));
+    }
+
+    /**
+     * The default runs the add on the calling thread.
+     */
+    default CompletableFuture<Multihash> addSingleAsync(byte[] bytes, boolean hashOnly) {
+        return FutureUtils.call(() -> addSingle(bytes, hashOnly));
+    }
+
+    CompletableFuture<InputStream> cat(Multihash cid);
+
+    /**
+     * Get at most length bytes of the given file, starting at offset.
+     */
+    CompletableFuture<InputStream> cat(Multihash cid, long offset, long length);
+
+    /**
+     * Get the named links of the given node. A file has no named links.
+     */
+    CompletableFuture<Map<String, Multihash>> links(Multihash cid);
+
+    CompletableFuture<Path> get(Multihash cid, Path outdir);
 
     String version() throws IOException;
     
+    /**
+     * The default gets the version on the calling thread.
+     */
+    default CompletableFuture<String> versionAsync() {
+        return FutureUtils.call(() -> version());
+    }
+    
+    /**
+     * The default gets the peer id on the calling thread.
+     */
+    default CompletableFuture<String> getPeerIdAsync() {
+        return FutureUtils.call(() -> getPeerId());
+    }
+    
     boolean hasConnection();
 
 }
\ No newline at end of file
@@ -0,0 +1,299 @@
+package io.nessus.ipfs.client;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import io.ipfs.multiaddr.MultiAddress;
+import io.nessus.utils.AssertArgument;
+import io.nessus.utils.StreamUtils;
+
+/**
+ * The HTTP transport for requests that the client sends to the IPFS API directly.
+ *
+ * The {@link DefaultIPFSClient} sends all its requests through this transport, except for 
+ * {@link IPFSClient#getIpfsConfig()}. The config still comes from the IPFS API client, 
+ * which opens a connection of its own without these timeouts.
+ *
+ * Connections are kept alive and reused. No more than the given number of requests 
+ * are in flight at the same time, a request waits until a connection becomes available 
+ * or its {@link Call} is aborted. A connection goes back to the pool when its response 
+ * is closed, after the response was read fully.
+ *
+ * Idle connections are kept by the JDK, by default no more than five per destination.
+ * An application that wants to reuse more of them sets the JVM wide "http.maxConnections" 
+ * system property to the number of connections on startup, before the first request.
+ *
+ * Connect and read timeouts are reported as {@link IPFSTimeoutException}.
+ *
+ * A request can be aborted from another thread through the {@link Call} that it was 
+ * sent with, until its response is closed. This closes the connection of that request only.
+ */
+public class IPFSTransport {
+
+    public static final int DEFAULT_CONNECTIONS = 16;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 60000;
+    
+    // The size of the chunks in which a request body is sent
+    static final int CHUNK_SIZE = 64 * 1024;
+    
+    // How often a request that waits for a connection checks whether it was aborted
+    static final int ABORT_CHECK_INTERVAL = 100;
+    
+    private final MultiAddress addr;
+    private final int connections;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final Semaphore permits;
+    
+    public IPFSTransport(MultiAddress addr) {
+        this(addr, DEFAULT_CONNECTIONS, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    public IPFSTransport(MultiAddress addr, int connections, int connectTimeout, int readTimeout) {
+        AssertArgument.assertNotNull(addr, "Null addr");
+        AssertArgument.assertTrue(connections > 0, "Invalid connections: " + connections);
+        AssertArgument.assertTrue(connectTimeout >= 0, "Invalid connect timeout: " + connectTimeout);
+        AssertArgument.assertTrue(readTimeout >= 0, "Invalid read timeout: " + readTimeout);
+        this.addr = addr;
+        this.connections = connections;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.permits = new Semaphore(connections, true);
+    }
+
+    public MultiAddress getAddress() {
+        return addr;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Send a request without a body, e.g. "/api/v0/cat?arg=..."
+     */
+    public Response request(String query) throws IOException {
+        return request(query, null, null, new Call());
+    }
+
+    /**
+     * Send a request without a body, that can be aborted with the given call.
+     */
+    public Response request(String query, Call call) throws IOException {
+        return request(query, null, null, call);
+    }
+
+    /**
+     * Send a request with a body that is written in chunks.
+     * 
+     * The returned response must be closed.
+     */
+    public Response request(String query, String contentType, Body body) throws IOException {
+        return request(query, contentType, body, new Call());
+    }
+
+    /**
+     * Send a request with a body, that can be aborted with the given call.
+     * 
+     * The returned response must be closed.
+     */
+    public Response request(String query, String contentType, Body body, Call call) throws IOException {
+        AssertArgument.assertNotNull(query, "Null query");
+        AssertArgument.assertNotNull(call, "Null call");
+        
+        // A busy pool is not a failure, the caller's deadline aborts the call
+        try {
+            while (!permits.tryAcquire(ABORT_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if (call.isAborted()) 
+                    throw new InterruptedIOException("Request aborted");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection");
+        }
+        
+        HttpURLConnection con = null;
+        
+        boolean success = false;
+        try {
+            
+            URL url = new URL("http", addr.getHost(), addr.getTCPPort(), query);
+            con = (HttpURLConnection) url.openConnection();
+            call.attach(con);
+            
+            con.setConnectTimeout(connectTimeout);
+            con.setReadTimeout(readTimeout);
+            con.setRequestMethod("POST");
+            
+            if (body != null) {
+                con.setDoOutput(true);
+                con.setChunkedStreamingMode(CHUNK_SIZE);
+                con.setRequestProperty("Content-Type", contentType);
+                try (OutputStream out = con.getOutputStream()) {
+                    body.writeTo(out);
+                }
+            }
+            
+            int status = con.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                
+                // Reading the error fully keeps the connection alive
+                String message = "";
+                InputStream err = con.getErrorStream();
+                if (err != null) {
+                    try (InputStream ins = err) {
+                        message = new String(StreamUtils.toBytes(ins));
+                    }
+                }
+                throw new IOException(String.format("Cannot request %s [status=%d]: %s", query, status, message));
+            }
+            
+            Response response = new Response(call, con, con.getInputStream());
+            success = true;
+            return response;
+            
+        } catch (SocketTimeoutException ex) {
+            
+            throw new IPFSTimeoutException(ex);
+            
+        } finally {
+            
+            if (!success) {
+                if (con != null) call.detach(con);
+                permits.release();
+            }
+        }
+    }
+
+    public String toString() {
+        return String.format("[addr=%s, connections=%d, connect=%d, read=%d]", addr, connections, connectTimeout, readTimeout);
+    }
+    
+    public interface Body {
+        
+        void writeTo(OutputStream out) throws IOException;
+    }
+    
+    /**
+     * A handle to abort a request from another thread, e.g. when nobody waits for it anymore.
+     * 
+     * It covers the request from when it is sent until its response is closed. 
+     * A request that is sent with a call that was already aborted fails straight away.
+     */
+    public static class Call {
+        
+        private HttpURLConnection con;
+        private boolean aborted;
+        
+        synchronized void attach(HttpURLConnection con) throws IOException {
+            if (aborted) 
+                throw new InterruptedIOException("Request aborted");
+            this.con = con;
+        }
+        
+        synchronized void detach(HttpURLConnection con) {
+            if (this.con == con) this.con = null;
+        }
+        
+        public synchronized boolean isAborted() {
+            return aborted;
+        }
+        
+        /**
+         * Abort the request. A thread that waits for it or reads its response gets an IOException.
+         */
+        public void abort() {
+            HttpURLConnection aux;
+            synchronized (this) {
+                aborted = true;
+                aux = con;
+                con = null;
+            }
+            if (aux != null) aux.disconnect();
+        }
+    }
+    
+    /**
+     * The body of a response. The connection is released on close.
+     */
+    public class Response extends FilterInputStream {
+
+        private final Call call;
+        private final HttpURLConnection con;
+        private boolean closed;
+        
+        Response(Call call, HttpURLConnection con, InputStream ins) {
+            super(ins);
+            this.call = call;
+            this.con = con;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (SocketTimeoutException ex) {
+                throw new IPFSTimeoutException(ex);
+            }
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            try {
+                return super.read(bytes, off, len);
+            } catch (SocketTimeoutException ex) {
+                throw new IPFSTimeoutException(ex);
+            }
+        }
+
+        /**
+         * Abort reading the response. A thread that is blocked in read gets an IOException.
+         */
+        public void abort() {
+            call.abort();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    super.close();
+                } finally {
+                    call.detach(con);
+                    permits.release();
+                }
+            }
+        }
+    }
+}
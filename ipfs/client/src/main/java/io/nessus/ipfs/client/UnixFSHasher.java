@@ -0,0 +1,333 @@
+package io.nessus.ipfs.client;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.ipfs.multihash.Multihash;
+import io.ipfs.multihash.Multihash.Type;
+import io.nessus.utils.AssertArgument;
+import io.nessus.utils.AssertState;
+
+/**
+ * Computes IPFS content ids locally, without talking to the daemon.
+ *
+ * The result is the same as for 'ipfs add --only-hash' with default settings.
+ * Content is split into fixed size chunks, which become UnixFS leaf nodes in a
+ * balanced DAG of protobuf encoded merkle nodes. Directories link their entries
+ * by name. Content ids are CIDv0, the SHA-256 multihash of the root node.
+ *
+ * Content is streamed through {@link #update(byte[], int, int)}, so that
+ * memory usage does not depend on the content size.
+ */
+public class UnixFSHasher {
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    public static final int DEFAULT_LINKS_PER_BLOCK = 174;
+
+    // UnixFS data types
+    private static final byte TYPE_DIRECTORY = 1;
+    private static final byte TYPE_FILE = 2;
+
+    private static final byte[] EMPTY_NAME = new byte[0];
+
+    private final int chunkSize;
+    private final int maxLinks;
+    private final MessageDigest md;
+    private final byte[] chunk;
+    private int chunkLength;
+    private long leafCount;
+
+    // Pending links per tree level, the first level holds the leaves
+    private final List<List<Link>> levels = new ArrayList<>();
+
+    public UnixFSHasher() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_LINKS_PER_BLOCK);
+    }
+
+    public UnixFSHasher(int chunkSize, int maxLinks) {
+        AssertArgument.assertTrue(chunkSize > 0, "Invalid chunk size: " + chunkSize);
+        AssertArgument.assertTrue(maxLinks > 1, "Invalid max links: " + maxLinks);
+        this.chunkSize = chunkSize;
+        this.maxLinks = maxLinks;
+        this.chunk = new byte[chunkSize];
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static Multihash hash(byte[] bytes) {
+        UnixFSHasher hasher = new UnixFSHasher();
+        hasher.update(bytes, 0, bytes.length);
+        return hasher.digest();
+    }
+
+    public static Multihash hash(InputStream input) throws IOException {
+        return new UnixFSHasher().hashInternal(input).getCid();
+    }
+
+    /**
+     * Get the content ids for the given file or directory tree.
+     *
+     * Entries of a directory come before the directory, the root comes last.
+     */
+    public static Map<Path, Multihash> hashTree(Path path) throws IOException {
+        AssertArgument.assertNotNull(path, "Null path");
+        AssertArgument.assertTrue(Files.exists(path), "Path does not exist: " + path);
+
+        Map<Path, Multihash> result = new LinkedHashMap<>();
+        hashTreeInternal(path, result);
+        return result;
+    }
+
+    public void update(byte[] buf, int off, int len) {
+        while (len > 0) {
+            int count = Math.min(len, chunkSize - chunkLength);
+            System.arraycopy(buf, off, chunk, chunkLength, count);
+            chunkLength += count;
+            off += count;
+            len -= count;
+            if (chunkLength == chunkSize) {
+                addLeaf();
+            }
+        }
+    }
+
+    /**
+     * Complete the DAG and return the content id of its root.
+     *
+     * The hasher cannot be used any more after this call.
+     */
+    public Multihash digest() {
+        return finish().getCid();
+    }
+
+    private Link finish() {
+
+        // A trailing partial chunk or the empty leaf of empty content
+        if (chunkLength > 0 || leafCount == 0) {
+            addLeaf();
+        }
+
+        int level = 0;
+        while (true) {
+            List<Link> links = levels.get(level);
+            boolean top = level == levels.size() - 1;
+            if (top && links.size() == 1 && (level > 0 || leafCount == 1))
+                return links.get(0);
+
+            addNode(level++);
+        }
+    }
+
+    private Link hashInternal(InputStream input) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int read = input.read(buffer);
+        while (read >= 0) {
+            update(buffer, 0, read);
+            read = input.read(buffer);
+        }
+        return finish();
+    }
+
+    private static Link hashTreeInternal(Path path, Map<Path, Multihash> result) throws IOException {
+
+        Link link;
+        if (Files.isDirectory(path)) {
+
+            // Entries are linked in the byte order of their names
+            Map<byte[], Path> children = new TreeMap<>(UnixFSHasher::compare);
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(path)) {
+                for (Path child : ds) {
+                    byte[] name = child.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+                    children.put(name, child);
+                }
+            }
+
+            Map<byte[], Link> entries = new LinkedHashMap<>();
+            for (Map.Entry<byte[], Path> entry : children.entrySet()) {
+                entries.put(entry.getKey(), hashTreeInternal(entry.getValue(), result));
+            }
+            link = new UnixFSHasher().directory(entries);
+
+        } else {
+
+            try (InputStream input = Files.newInputStream(path)) {
+                link = new UnixFSHasher().hashInternal(input);
+            }
+        }
+
+        result.put(path, link.getCid());
+        return link;
+    }
+
+    private void addLeaf() {
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream(chunkLength + 16);
+        writeVarint(data, 0x08);
+        writeVarint(data, TYPE_FILE);
+        if (chunkLength > 0) {
+            writeBytes(data, 0x12, chunk, chunkLength);
+        }
+        writeVarint(data, 0x18);
+        writeVarint(data, chunkLength);
+
+        ByteArrayOutputStream node = new ByteArrayOutputStream(chunkLength + 24);
+        writeBytes(node, 0x0a, data.toByteArray());
+
+        addLink(0, newLink(node.toByteArray(), 0, chunkLength));
+        chunkLength = 0;
+        leafCount++;
+    }
+
+    private void addLink(int level, Link link) {
+        if (levels.size() == level) {
+            levels.add(new ArrayList<>(maxLinks));
+        }
+
+        // A full level only becomes a node when we know that more links follow
+        if (levels.get(level).size() == maxLinks) {
+            addNode(level);
+        }
+
+        levels.get(level).add(link);
+    }
+
+    private void addNode(int level) {
+        List<Link> links = levels.get(level);
+        AssertState.assertFalse(links.isEmpty(), "No links at level: " + level);
+
+        ByteArrayOutputStream node = new ByteArrayOutputStream();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        writeVarint(data, 0x08);
+        writeVarint(data, TYPE_FILE);
+
+        long fileSize = 0;
+        long childSize = 0;
+        for (Link link : links) {
+            writeBytes(node, 0x12, link.encode(EMPTY_NAME));
+            fileSize += link.fileSize;
+            childSize += link.treeSize;
+        }
+        writeVarint(data, 0x18);
+        writeVarint(data, fileSize);
+        for (Link link : links) {
+            writeVarint(data, 0x20);
+            writeVarint(data, link.fileSize);
+        }
+        writeBytes(node, 0x0a, data.toByteArray());
+
+        links.clear();
+        addLink(level + 1, newLink(node.toByteArray(), childSize, fileSize));
+    }
+
+    private Link directory(Map<byte[], Link> entries) {
+
+        ByteArrayOutputStream node = new ByteArrayOutputStream();
+        long childSize = 0;
+        for (Map.Entry<byte[], Link> entry : entries.entrySet()) {
+            Link link = entry.getValue();
+            writeBytes(node, 0x12, link.encode(entry.getKey()));
+            childSize += link.treeSize;
+        }
+        writeBytes(node, 0x0a, new byte[] { 0x08, TYPE_DIRECTORY });
+
+        return newLink(node.toByteArray(), childSize, 0);
+    }
+
+    private Link newLink(byte[] node, long childSize, long fileSize) {
+        byte[] digest = md.digest(node);
+        Multihash cid = new Multihash(Type.sha2_256, digest);
+        return new Link(cid, node.length + childSize, fileSize);
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) return diff;
+        }
+        return a.length - b.length;
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, int tag, byte[] bytes) {
+        writeBytes(out, tag, bytes, bytes.length);
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, int tag, byte[] bytes, int len) {
+        writeVarint(out, tag);
+        writeVarint(out, len);
+        out.write(bytes, 0, len);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static class Link {
+
+        final Multihash cid;
+        final long treeSize;
+        final long fileSize;
+
+        Link(Multihash cid, long treeSize, long fileSize) {
+            this.cid = cid;
+            this.treeSize = treeSize;
+            this.fileSize = fileSize;
+        }
+
+        Multihash getCid() {
+            return cid;
+        }
+
+        byte[] encode(byte[] name) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 + name.length);
+            writeBytes(out, 0x0a, cid.toBytes());
+            writeBytes(out, 0x12, name);
+            writeVarint(out, 0x18);
+            writeVarint(out, treeSize);
+            return out.toByteArray();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[cid=%s, size=%d]", cid, treeSize);
+        }
+    }
+}
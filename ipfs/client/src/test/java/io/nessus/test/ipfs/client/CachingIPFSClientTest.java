@@ -0,0 +1,377 @@
+package io.nessus.test.ipfs.client;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.ipfs.api.IPFS.Config;
+import io.ipfs.multiaddr.MultiAddress;
+import io.ipfs.multihash.Multihash;
+import io.nessus.ipfs.client.CachingIPFSClient;
+import io.nessus.ipfs.client.IPFSClient;
+import io.nessus.ipfs.client.IPFSTimeoutException;
+import io.nessus.ipfs.client.UnixFSHasher;
+import io.nessus.utils.FileUtils;
+import io.nessus.utils.FutureUtils;
+import io.nessus.utils.StreamUtils;
+
+public class CachingIPFSClientTest {
+
+    Path cacheDir;
+    MemoryClient daemon;
+    
+    @Before
+    public void before() throws Exception {
+        cacheDir = Files.createTempDirectory("blocks");
+        daemon = new MemoryClient();
+    }
+    
+    @After
+    public void after() throws Exception {
+        FileUtils.recursiveDelete(cacheDir);
+    }
+    
+    @Test
+    public void testCatFromCache() throws Exception {
+        
+        byte[] bytes = randomBytes(1000);
+        Multihash cid = daemon.put(bytes);
+        
+        CachingIPFSClient client = new CachingIPFSClient(daemon, cacheDir, 8 * 1024);
+        Assert.assertArrayEquals(bytes, cat(client, cid));
+        Assert.assertArrayEquals(bytes, cat(client, cid));
+        Assert.assertEquals(1, daemon.cats);
+        Assert.assertEquals(1, client.getHits());
+        Assert.assertEquals(1, client.getMisses());
+        
+        // Another client on the same dir shares the cache
+        client = new CachingIPFSClient(daemon, cacheDir, 8 * 1024);
+        Assert.assertArrayEquals(bytes, cat(client, cid));
+        Assert.assertEquals(1, daemon.cats);
+        
+        // Ranges are served from the cache
+        byte[] range = StreamUtils.toBytes(client.cat(cid, 100, 10).get());
+        Assert.assertEquals(10, range.length);
+        Assert.assertEquals(bytes[100], range[0]);
+        Assert.assertEquals(1, daemon.cats);
+    }
+    
+    @Test
+    public void testCorruptedContent() throws Exception {
+        
+        byte[] bytes = randomBytes(1000);
+        Multihash cid = daemon.put(bytes);
+        
+        CachingIPFSClient client = new CachingIPFSClient(daemon, cacheDir, 8 * 1024);
+        cat(client, cid);
+        
+        // Content that changed in size is fetched again
+        Path path = cacheDir.resolve(cid.toBase58());
+        Files.write(path, randomBytes(500));
+        Assert.assertArrayEquals(bytes, cat(client, cid));
+        Assert.assertEquals(2, daemon.cats);
+        Assert.assertEquals(1, client.getCorruptions());
+        
+        // Content that was modified is fetched again
+        FileTime modified = Files.getLastModifiedTime(path);
+        Files.write(path, randomBytes(1000));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(modified.toMillis() + 1000));
+        Assert.assertArrayEquals(bytes, cat(client, cid));
+        Assert.assertEquals(3, daemon.cats);
+        Assert.assertEquals(2, client.getCorruptions());
+        
+        // Content that was removed is fetched again
+        Files.delete(path);
+        Assert.assertArrayEquals(bytes, cat(client, cid));
+        Assert.assertEquals(4, daemon.cats);
+        Assert.assertArrayEquals(bytes, cat(client, cid));
+        Assert.assertEquals(4, daemon.cats);
+    }
+    
+    @Test
+    public void testTamperedContent() throws Exception {
+        
+        byte[] bytes = randomBytes(1000);
+        Multihash cid = daemon.put(bytes);
+        
+        CachingIPFSClient client = new CachingIPFSClient(daemon, cacheDir, 8 * 1024);
+        cat(client, cid);
+        
+        // Get is served from the cache
+        Path outdir = cacheDir.resolve("out");
+        Path outpath = client.get(cid, outdir).get();
+        Assert.assertArrayEquals(bytes, Files.readAllBytes(outpath));
+        Assert.assertEquals(0, daemon.gets);
+        
+        // A cat of content that changed with the same size and time fails at the end
+        Path path = cacheDir.resolve(cid.toBase58());
+        tamper(path);
+        try {
+            cat(client, cid);
+            Assert.fail("IOException expected");
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage().contains(cid.toBase58()));
+        }
+        Assert.assertEquals(1, client.getCorruptions());
+        Assert.assertFalse(Files.exists(path));
+        
+        // The next cat goes to the daemon
+        Assert.assertArrayEquals(bytes, cat(client, cid));
+        Assert.assertEquals(2, daemon.cats);
+        
+        // A get of content that changed goes to the daemon
+        tamper(path);
+        outpath = client.get(cid, outdir).get();
+        Assert.assertArrayEquals(bytes, Files.readAllBytes(outpath));
+        Assert.assertEquals(1, daemon.gets);
+        Assert.assertEquals(2, client.getCorruptions());
+    }
+    
+    @Test
+    public void testRestoreEntries() throws Exception {
+        
+        byte[] bytes = randomBytes(1000);
+        Multihash cid = daemon.put(bytes);
+        
+        // Content from a previous run and a partial write
+        Path partPath = cacheDir.resolve("cache123.part");
+        Files.write(cacheDir.resolve(cid.toBase58()), bytes);
+        Files.write(partPath, randomBytes(100));
+        
+        CachingIPFSClient client = new CachingIPFSClient(daemon, cacheDir, 8 * 1024);
+        Assert.assertEquals(1000, client.getSize());
+        Assert.assertFalse(Files.exists(partPath));
+        
+        Assert.assertArrayEquals(bytes, cat(client, cid));
+        Assert.assertEquals(0, daemon.cats);
+    }
+    
+    @Test
+    public void testSharedCacheDir() throws Exception {
+        
+        CachingIPFSClient clientA = new CachingIPFSClient(daemon, cacheDir, 8 * 1024);
+        CachingIPFSClient clientB = new CachingIPFSClient(daemon, cacheDir, 4 * 1024);
+        
+        // Content added through one client is read from the cache by the other
+        byte[] bytes = randomBytes(500);
+        Multihash cid = clientA.addSingle(bytes);
+        Assert.assertArrayEquals(bytes, cat(clientB, cid));
+        Assert.assertEquals(0, daemon.cats);
+        
+        // Both clients are bound by the smaller size
+        for (int i = 0; i < 10; i++) {
+            clientA.addSingle(randomBytes(500));
+            clientB.addSingle(randomBytes(500));
+        }
+        Assert.assertEquals(4 * 1024, clientA.getMaxSize());
+        Assert.assertEquals(4000, clientA.getSize());
+        Assert.assertEquals(4000, clientB.getSize());
+        
+        long onDisk = 0;
+        for (File file : cacheDir.toFile().listFiles()) {
+            if (!file.getName().startsWith(".")) onDisk += file.length();
+        }
+        Assert.assertEquals(4000, onDisk);
+    }
+    
+    @Test
+    public void testEviction() throws Exception {
+        
+        CachingIPFSClient client = new CachingIPFSClient(daemon, cacheDir, 8 * 1024);
+        
+        // Added content is cached
+        Multihash cidA = client.addSingle(randomBytes(1000));
+        Multihash cidB = client.addSingle(randomBytes(1000));
+        Assert.assertEquals(2000, client.getSize());
+        
+        // Content that is larger than an entry is not cached
+        Multihash cidC = daemon.put(randomBytes(2000));
+        cat(client, cidC);
+        Assert.assertEquals(2000, client.getSize());
+        
+        // The least recently used content goes first
+        cat(client, cidA);
+        for (int i = 0; i < 7; i++) {
+            client.addSingle(randomBytes(1000));
+        }
+        Assert.assertEquals(1, client.getEvictions());
+        Assert.assertTrue(Files.exists(cacheDir.resolve(cidA.toBase58())));
+        Assert.assertFalse(Files.exists(cacheDir.resolve(cidB.toBase58())));
+        Assert.assertEquals(1, daemon.cats);
+    }
+    
+    @Test
+    public void testTimeout() throws Exception {
+        
+        // A daemon that never responds
+        CompletableFuture<InputStream> pending = new CompletableFuture<>();
+        MemoryClient silent = new MemoryClient() {
+            public CompletableFuture<InputStream> cat(Multihash cid) {
+                return pending;
+            }
+        };
+        
+        Multihash cid = silent.put(randomBytes(1000));
+        CachingIPFSClient client = new CachingIPFSClient(silent, cacheDir, 8 * 1024);
+        
+        CompletableFuture<InputStream> future = client.cat(cid);
+        FutureUtils.withTimeout(future, 100, () -> new IPFSTimeoutException("Timeout"));
+        try {
+            future.get();
+            Assert.fail("IPFSTimeoutException expected");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof IPFSTimeoutException);
+        }
+        
+        // The request to the daemon is aborted as well
+        Assert.assertTrue(pending.isCompletedExceptionally());
+    }
+    
+    private byte[] cat(IPFSClient client, Multihash cid) throws Exception {
+        try (InputStream ins = client.cat(cid).get()) {
+            return StreamUtils.toBytes(ins);
+        }
+    }
+    
+    // Change the content, but keep its size and modification time
+    private void tamper(Path path) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(path);
+        Files.write(path, randomBytes((int) Files.size(path)));
+        Files.setLastModifiedTime(path, modified);
+    }
+    
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+    
+    // A daemon that keeps its content in memory
+    static class MemoryClient implements IPFSClient {
+        
+        final Map<Multihash, byte[]> content = new HashMap<>();
+        int cats;
+        int gets;
+        
+        Multihash put(byte[] bytes) {
+            Multihash cid = UnixFSHasher.hash(bytes);
+            content.put(cid, bytes);
+            return cid;
+        }
+        
+        public Config getIpfsConfig() {
+            throw new UnsupportedOperationException();
+        }
+
+        public IPFSClient connect() {
+            return this;
+        }
+
+        public MultiAddress getAPIAddress() {
+            return DEFAULT_IPFS_ADDR;
+        }
+
+        public String getPeerId() {
+            throw new UnsupportedOperationException();
+        }
+
+        public List<Multihash> add(Path path) {
+            throw new UnsupportedOperationException();
+        }
+
+        public List<Multihash> add(Path path, boolean hashOnly) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Multihash addSingle(Path path) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Multihash addSingle(Path path, boolean hashOnly) {
+            throw new UnsupportedOperationException();
+        }
+
+        public Multihash addSingle(InputStream input) throws IOException {
+            return put(StreamUtils.toBytes(input));
+        }
+
+        public Multihash addSingle(InputStream input, boolean hashOnly) throws IOException {
+            return put(StreamUtils.toBytes(input));
+        }
+
+        public Multihash addSingle(byte[] bytes) {
+            return put(bytes);
+        }
+
+        public Multihash addSingle(byte[] bytes, boolean hashOnly) {
+            return put(bytes);
+        }
+
+        public CompletableFuture<InputStream> cat(Multihash cid) {
+            cats++;
+            return CompletableFuture.completedFuture(new ByteArrayInputStream(content.get(cid)));
+        }
+
+        public CompletableFuture<InputStream> cat(Multihash cid, long offset, long length) {
+            cats++;
+            return CompletableFuture.completedFuture(new ByteArrayInputStream(content.get(cid), (int) offset, (int) length));
+        }
+
+        public CompletableFuture<Map<String, Multihash>> links(Multihash cid) {
+            throw new UnsupportedOperationException();
+        }
+
+        public CompletableFuture<Path> get(Multihash cid, Path outdir) {
+            gets++;
+            return FutureUtils.call(() -> {
+                Path outpath = outdir.resolve(cid.toBase58());
+                Files.createDirectories(outdir);
+                Files.write(outpath, content.get(cid));
+                return outpath;
+            });
+        }
+
+        public String version() {
+            return "0.4.18";
+        }
+
+        public boolean hasConnection() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package io.nessus.test.ipfs.client;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.ipfs.multiaddr.MultiAddress;
+import io.ipfs.multihash.Multihash;
+import io.nessus.ipfs.client.DefaultIPFSClient;
+import io.nessus.ipfs.client.IPFSException;
+import io.nessus.ipfs.client.IPFSTimeoutException;
+import io.nessus.ipfs.client.IPFSTransport;
+import io.nessus.ipfs.client.UnixFSHasher;
+import io.nessus.utils.FileUtils;
+import io.nessus.utils.StreamUtils;
+
+/**
+ * Verify the async client against a stub of the IPFS API.
+ */
+public class DefaultIPFSClientTest {
+
+    static final Multihash CID = Multihash.fromBase58("QmT78zSuBmuS4z925WZfrqQ1qHaJ56DQaTfyMUF7F8ff5o");
+    
+    static final Pattern PART_HEAD = Pattern.compile("filename=\"([^\"]*)\"\r\nContent-Type: ([^\r]*)\r\n");
+
+    HttpServer server;
+    MultiAddress addr;
+    CountDownLatch release;
+
+    // The stub DAG, content and links by cid
+    Map<String, byte[]> contents = new ConcurrentHashMap<>();
+    Map<String, List<String>> links = new ConcurrentHashMap<>();
+    Set<String> failing = ConcurrentHashMap.newKeySet();
+    List<String> addedParts = new ArrayList<>();
+    AtomicInteger inflight = new AtomicInteger();
+    AtomicInteger maxInflight = new AtomicInteger();
+
+    @Before
+    public void before() throws Exception {
+        release = new CountDownLatch(1);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+
+        server.createContext("/api/v0/cat", exchange -> {
+            String arg = getArg(exchange);
+            
+            // This cat does not respond before it is released
+            if (CID.toBase58().equals(arg)) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, 200, "hello world\n".getBytes());
+                return;
+            }
+            
+            if (failing.contains(arg)) {
+                respond(exchange, 500, "Cannot fetch".getBytes());
+                return;
+            }
+            
+            // Give concurrent requests a chance to overlap
+            maxInflight.accumulateAndGet(inflight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inflight.decrementAndGet();
+            }
+            respond(exchange, 200, contents.get(arg));
+        });
+        server.createContext("/api/v0/ls", exchange -> {
+            String arg = getArg(exchange);
+            StringBuilder sb = new StringBuilder("{\"Objects\":[{\"Hash\":\"" + arg + "\",\"Links\":[");
+            List<String> entries = links.getOrDefault(arg, new ArrayList<>());
+            sb.append(String.join(",", entries));
+            sb.append("]}]}");
+            respond(exchange, 200, sb.toString().getBytes());
+        });
+        server.createContext("/api/v0/add", exchange -> {
+            
+            // One object per part, the root comes last
+            String body = new String(StreamUtils.toBytes(exchange.getRequestBody()));
+            Matcher matcher = PART_HEAD.matcher(body);
+            List<String> objects = new ArrayList<>();
+            while (matcher.find()) {
+                String name = matcher.group(1);
+                addedParts.add(name + " " + matcher.group(2));
+                objects.add(0, "{\"Name\":\"" + name + "\",\"Hash\":\"" + hash(name).toBase58() + "\"}");
+            }
+            respond(exchange, 200, String.join("\n", objects).getBytes());
+        });
+        server.createContext("/api/v0/config", exchange -> respond(exchange, 200, "{\"Key\":\"Identity.PeerID\",\"Value\":\"QmPeer\"}".getBytes()));
+        server.createContext("/api/v0/version", exchange -> respond(exchange, 200, "{\"Version\":\"0.4.18\"}".getBytes()));
+        server.start();
+        addr = new MultiAddress("/ip4/127.0.0.1/tcp/" + server.getAddress().getPort());
+    }
+
+    @After
+    public void after() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testLateResultIsClosed() throws Exception {
+
+        IPFSTransport transport = new IPFSTransport(addr, 1, 5000, 5000);
+        DefaultIPFSClient client = new DefaultIPFSClient(transport);
+
+        // The caller completes the future before the response arrives
+        CompletableFuture<InputStream> future = client.cat(CID);
+        future.complete(new ByteArrayInputStream(new byte[0]));
+        release.countDown();
+
+        // The late response gives its connection back to the pool
+        try (InputStream ins = transport.request("/api/v0/version")) {
+            Assert.assertTrue(new String(StreamUtils.toBytes(ins)).contains("0.4.18"));
+        }
+    }
+
+    @Test
+    public void testAbortOnFailure() throws Exception {
+
+        IPFSTransport transport = new IPFSTransport(addr, 1, 5000, 5000);
+        DefaultIPFSClient client = new DefaultIPFSClient(transport);
+
+        CompletableFuture<InputStream> future = client.cat(CID);
+
+        // Wait until the request holds the only connection
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+            Assert.fail("TimeoutException expected");
+        } catch (TimeoutException ex) {
+            // expected
+        }
+
+        // The caller gives up, which aborts the request
+        future.completeExceptionally(new IPFSTimeoutException("Timeout"));
+        try {
+            future.get();
+            Assert.fail("ExecutionException expected");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof IPFSTimeoutException);
+        }
+
+        // The aborted request gives its connection back to the pool
+        try (InputStream ins = transport.request("/api/v0/version")) {
+            Assert.assertTrue(new String(StreamUtils.toBytes(ins)).contains("0.4.18"));
+        }
+    }
+
+    @Test
+    public void testAddPath() throws Exception {
+
+        Path rootDir = Files.createTempDirectory("ipfs-add");
+        try {
+            
+            Path dir = rootDir.resolve("dir");
+            Files.createDirectories(dir.resolve("sub"));
+            Files.write(dir.resolve("a.txt"), "aaa".getBytes());
+            Files.write(dir.resolve("sub/b c.txt"), "bbb".getBytes());
+
+            DefaultIPFSClient client = new DefaultIPFSClient(new IPFSTransport(addr));
+            List<Multihash> cids = client.add(dir);
+
+            // A part for every file and directory, directories before their content
+            List<String> expected = Arrays.asList(
+                    "dir application/x-directory", 
+                    "dir%2Fa.txt application/octet-stream", 
+                    "dir%2Fsub application/x-directory", 
+                    "dir%2Fsub%2Fb+c.txt application/octet-stream");
+            Assert.assertEquals(expected, addedParts);
+            
+            Assert.assertEquals(4, cids.size());
+            Assert.assertEquals(hash("dir"), cids.get(cids.size() - 1));
+
+        } finally {
+            FileUtils.recursiveDelete(rootDir);
+        }
+    }
+
+    @Test
+    public void testVersionAndPeerId() throws Exception {
+
+        DefaultIPFSClient client = new DefaultIPFSClient(new IPFSTransport(addr));
+        Assert.assertEquals("0.4.18", client.version());
+        Assert.assertEquals("0.4.18", client.versionAsync().get());
+        Assert.assertEquals("QmPeer", client.getPeerId());
+    }
+
+    @Test
+    public void testGet() throws Exception {
+
+        Multihash dir = addTree();
+
+        DefaultIPFSClient client = new DefaultIPFSClient(new IPFSTransport(addr));
+        Path outdir = Files.createTempDirectory("ipfs-out");
+        int tmpDirs = countPartsDirs();
+        try {
+
+            Path outpath = client.get(dir, outdir).get();
+            Assert.assertEquals(outdir.resolve(dir.toBase58()), outpath);
+
+            Assert.assertArrayEquals(contents.get(hash("a.txt").toBase58()), Files.readAllBytes(outpath.resolve("a.txt")));
+            Assert.assertArrayEquals(contents.get(hash("b.txt").toBase58()), Files.readAllBytes(outpath.resolve("sub/b.txt")));
+
+            // The chunks were joined in order
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            for (int i = 0; i < 3; i++) {
+                baos.write(contents.get(hash("chunk" + i).toBase58()));
+            }
+            Assert.assertArrayEquals(baos.toByteArray(), Files.readAllBytes(outpath.resolve("big.bin")));
+
+            // Siblings were fetched concurrently, no parts were left behind
+            Assert.assertTrue("Concurrent fetches: " + maxInflight.get(), maxInflight.get() > 1);
+            Assert.assertEquals(Arrays.asList("a.txt", "big.bin", "sub"), listNames(outpath));
+            Assert.assertEquals(tmpDirs, countPartsDirs());
+
+        } finally {
+            FileUtils.recursiveDelete(outdir);
+        }
+    }
+
+    @Test
+    public void testGetFailure() throws Exception {
+
+        Multihash dir = addTree();
+        failing.add(hash("chunk1").toBase58());
+
+        DefaultIPFSClient client = new DefaultIPFSClient(new IPFSTransport(addr));
+        Path outdir = Files.createTempDirectory("ipfs-out");
+        int tmpDirs = countPartsDirs();
+        try {
+
+            try {
+                client.get(dir, outdir).get();
+                Assert.fail("ExecutionException expected");
+            } catch (ExecutionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof IPFSException);
+                Assert.assertTrue(ex.getCause().getMessage().contains("500"));
+            }
+
+            // The file was not joined and the parts were removed
+            Path outpath = outdir.resolve(dir.toBase58());
+            Assert.assertFalse(outpath.resolve("big.bin").toFile().exists());
+            Assert.assertEquals(tmpDirs, countPartsDirs());
+
+        } finally {
+            FileUtils.recursiveDelete(outdir);
+        }
+    }
+
+    @Test
+    public void testGetTimeout() throws Exception {
+
+        // A file that does not arrive before it is released
+        Multihash dir = hash("dir");
+        links.put(dir.toBase58(), Arrays.asList(link("a.txt", addFile("a.txt")), link("slow.txt", CID)));
+
+        IPFSTransport transport = new IPFSTransport(addr, 1, 5000, 5000);
+        DefaultIPFSClient client = new DefaultIPFSClient(transport);
+        Path outdir = Files.createTempDirectory("ipfs-out");
+        try {
+
+            CompletableFuture<Path> future = client.get(dir, outdir);
+            try {
+                future.get(300, TimeUnit.MILLISECONDS);
+                Assert.fail("TimeoutException expected");
+            } catch (TimeoutException ex) {
+                // expected
+            }
+
+            // The caller gives up, which aborts the fetch in flight
+            future.completeExceptionally(new IPFSTimeoutException("Timeout"));
+
+            // The aborted fetch gives its connection back to the pool
+            try (InputStream ins = transport.request("/api/v0/version")) {
+                Assert.assertTrue(new String(StreamUtils.toBytes(ins)).contains("0.4.18"));
+            }
+            Assert.assertFalse(outdir.resolve(dir.toBase58()).resolve("slow.txt").toFile().exists());
+
+        } finally {
+            FileUtils.recursiveDelete(outdir);
+        }
+    }
+
+    // dir: a.txt, sub/b.txt and big.bin in three chunks
+    private Multihash addTree() {
+        
+        Multihash dir = hash("dir");
+        Multihash sub = hash("sub");
+        Multihash big = hash("big.bin");
+        
+        addFile("a.txt");
+        addFile("b.txt");
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            chunks.add(link("", addFile("chunk" + i)));
+        }
+        
+        links.put(dir.toBase58(), Arrays.asList(link("a.txt", hash("a.txt")), link("big.bin", big), link("sub", sub)));
+        links.put(sub.toBase58(), Arrays.asList(link("b.txt", hash("b.txt"))));
+        links.put(big.toBase58(), chunks);
+        
+        return dir;
+    }
+
+    private Multihash addFile(String name) {
+        byte[] bytes = new byte[1000];
+        new Random(name.hashCode()).nextBytes(bytes);
+        Multihash cid = hash(name);
+        contents.put(cid.toBase58(), bytes);
+        return cid;
+    }
+
+    private static Multihash hash(String name) {
+        return UnixFSHasher.hash(name.getBytes());
+    }
+
+    private static String link(String name, Multihash cid) {
+        return String.format("{\"Name\":\"%s\",\"Hash\":\"%s\",\"Size\":1000,\"Type\":2,\"Target\":\"\"}", name, cid.toBase58());
+    }
+
+    private static List<String> listNames(Path dir) {
+        List<String> result = new ArrayList<>(Arrays.asList(dir.toFile().list()));
+        Collections.sort(result);
+        return result;
+    }
+
+    private static int countPartsDirs() {
+        File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        return tmpDir.list((dir, name) -> name.startsWith("ipfs-get")).length;
+    }
+
+    private static String getArg(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getQuery();
+        for (String param : query.split("&")) {
+            if (param.startsWith("arg=")) return param.substring(4);
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] bytes) {
+        try {
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (Exception ex) {
+            // the client is gone
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.io.InputStream;
  */
 
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
@@ -40,6 +41,7 @@ import org.junit.Test;
 import io.ipfs.multihash.Multihash;
 import io.nessus.ipfs.client.DefaultIPFSClient;
 import io.nessus.ipfs.client.IPFSClient;
+import io.nessus.ipfs.client.UnixFSHasher;
 import io.nessus.utils.StreamUtils;
 
 /**
@@ -96,6 +98,39 @@ public class IPFSClientTest {
         Assert.assertTrue("Is file: " + path, path.toFile().isFile());
     }
 
+    @Test
+    public void streamAdd() throws Exception {
+        
+        Multihash HASH = Multihash.fromBase58("QmaMgvGJjZU511pzH1fSwh9RRnKckyujoRxVeDSEaEGM5N");
+        
+        // add --only-hash
+        
+        Path path = Paths.get("src/test/resources/html/img/logo.png");
+        try (InputStream ins = Files.newInputStream(path)) {
+            Multihash resHash = client.addSingle(ins, true);
+            Assert.assertEquals(HASH, resHash);
+        }
+        
+        // add
+        
+        try (InputStream ins = Files.newInputStream(path)) {
+            Multihash resHash = client.addSingle(ins);
+            Assert.assertEquals(HASH, resHash);
+        }
+    }
+
+    @Test
+    public void largeAddOnlyHash() throws Exception {
+        
+        // Same content and ids as in UnixFSHasherTest
+        
+        byte[] bytes = new byte[3 * UnixFSHasher.DEFAULT_CHUNK_SIZE + 1];
+        Assert.assertEquals("QmeB4p35H9op7f6AYwNS2XAFG62JCBvjX6AVmfUp94djdn", client.addSingle(bytes, true).toBase58());
+        
+        bytes = new byte[UnixFSHasher.DEFAULT_LINKS_PER_BLOCK * UnixFSHasher.DEFAULT_CHUNK_SIZE + 1];
+        Assert.assertEquals("QmehMASWcBsX7VcEQqs6rpR5AHoBfKyBVEgmkJHjpPg8jq", client.addSingle(bytes, true).toBase58());
+    }
+
     @Test
     public void binaryAddGet() throws Exception {
         
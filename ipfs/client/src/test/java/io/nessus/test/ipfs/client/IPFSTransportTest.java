@@ -0,0 +1,123 @@
+package io.nessus.test.ipfs.client;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.ipfs.multiaddr.MultiAddress;
+import io.nessus.ipfs.client.IPFSTransport;
+import io.nessus.utils.StreamUtils;
+
+/**
+ * Verify the transport against a stub of the IPFS API.
+ */
+public class IPFSTransportTest {
+
+    HttpServer server;
+    MultiAddress addr;
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    @Before
+    public void before() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v0/cat", exchange -> {
+            byte[] bytes = "hello world\n".getBytes();
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+        addr = new MultiAddress("/ip4/127.0.0.1/tcp/" + server.getAddress().getPort());
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+        server.stop(0);
+    }
+
+    @Test
+    public void testWaitForConnection() throws Exception {
+
+        IPFSTransport transport = new IPFSTransport(addr, 1, 200, 1000);
+
+        Future<String> waiting;
+        try (InputStream ins = transport.request("/api/v0/cat?arg=foo")) {
+
+            // The only connection is taken until the response is closed
+            waiting = executor.submit(() -> {
+                try (InputStream aux = transport.request("/api/v0/cat?arg=bar")) {
+                    return new String(StreamUtils.toBytes(aux));
+                }
+            });
+            
+            // A busy pool does not time out
+            Thread.sleep(500);
+            Assert.assertFalse(waiting.isDone());
+
+            Assert.assertEquals("hello world\n", new String(StreamUtils.toBytes(ins)));
+        }
+
+        Assert.assertEquals("hello world\n", waiting.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAbortWhileWaiting() throws Exception {
+
+        IPFSTransport transport = new IPFSTransport(addr, 1, 200, 1000);
+
+        try (InputStream ins = transport.request("/api/v0/cat?arg=foo")) {
+
+            IPFSTransport.Call call = new IPFSTransport.Call();
+            Future<InputStream> waiting = executor.submit(() -> transport.request("/api/v0/cat?arg=bar", call));
+            
+            // An aborted call stops waiting for a connection
+            Thread.sleep(200);
+            call.abort();
+            try {
+                waiting.get(5, TimeUnit.SECONDS);
+                Assert.fail("ExecutionException expected");
+            } catch (ExecutionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof InterruptedIOException);
+            }
+        }
+
+        try (InputStream ins = transport.request("/api/v0/cat?arg=bar")) {
+            Assert.assertEquals("hello world\n", new String(StreamUtils.toBytes(ins)));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.nessus.test.ipfs.client;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.ipfs.multihash.Multihash;
+import io.nessus.ipfs.client.UnixFSHasher;
+
+/**
+ * Verify local content ids against values that were obtained from the daemon.
+ */
+public class UnixFSHasherTest {
+
+    @Test
+    public void testFiles() throws Exception {
+        
+        Assert.assertEquals("QmbFMke1KXqnYyBBWxB74N4c5SBnJMVAiMNRcGu6x1AwQH", UnixFSHasher.hash(new byte[0]).toBase58());
+        Assert.assertEquals("QmT78zSuBmuS4z925WZfrqQ1qHaJ56DQaTfyMUF7F8ff5o", UnixFSHasher.hash("hello world\n".getBytes()).toBase58());
+        
+        Map<Path, Multihash> cids = UnixFSHasher.hashTree(Paths.get("src/test/resources/html/etc/userfile.txt"));
+        Assert.assertEquals(1, cids.size());
+        Assert.assertEquals("QmUD7uG5prAMHbcCfp4x1G1mMSpywcSMHTGpq62sbpDAg6", cids.values().iterator().next().toBase58());
+        
+        cids = UnixFSHasher.hashTree(Paths.get("src/test/resources/html/img/logo.png"));
+        Assert.assertEquals("QmaMgvGJjZU511pzH1fSwh9RRnKckyujoRxVeDSEaEGM5N", cids.values().iterator().next().toBase58());
+    }
+    
+    @Test
+    public void testDirectories() throws Exception {
+        
+        Path path = Paths.get("src/test/resources/html");
+        Map<Path, Multihash> cids = UnixFSHasher.hashTree(path);
+        Assert.assertEquals(10, cids.size());
+        Assert.assertEquals("QmYhaNnLGtFDEc559T9bVkqYqaXLGojMWDzVqjFZgrmnCi", cids.get(path.resolve("img")).toBase58());
+        Assert.assertEquals("QmUNRu2qVDFoA7hg37E7mNCkBurvyfvjRjUJT8d2LwUkDT", cids.get(path.resolve("chap/ch01.html")).toBase58());
+        Assert.assertEquals("Qme6hd6tYXTFb7bb7L3JZ5U6ygktpAHKxbaeffYyQN85mW", new ArrayList<>(cids.values()).get(9).toBase58());
+        
+        path = Paths.get("src/test/resources/contentA");
+        cids = UnixFSHasher.hashTree(path);
+        Assert.assertEquals(7, cids.size());
+        Assert.assertEquals("QmT5zhCnhR73e8LnMs59j4tfn8TPH6kgL9ajiULsUJ9q6K", cids.get(path.resolve("subB/subC")).toBase58());
+        Assert.assertEquals("QmZBd64wnUqfpeaKFNTNqUxSZmzawD4pLi4k8GH6sYWJm8", cids.get(path).toBase58());
+    }
+    
+    @Test
+    public void testStreaming() throws Exception {
+        
+        // More than one level of links
+        byte[] bytes = new byte[8 * 1000 + 5];
+        new Random(0).nextBytes(bytes);
+        
+        UnixFSHasher hasherA = new UnixFSHasher(8, 10);
+        hasherA.update(bytes, 0, bytes.length);
+        Multihash cidA = hasherA.digest();
+        
+        UnixFSHasher hasherB = new UnixFSHasher(8, 10);
+        for (int i = 0; i < bytes.length; i += 7) {
+            hasherB.update(bytes, i, Math.min(7, bytes.length - i));
+        }
+        Assert.assertEquals(cidA, hasherB.digest());
+        
+        bytes = new byte[3 * UnixFSHasher.DEFAULT_CHUNK_SIZE + 1];
+        new Random(0).nextBytes(bytes);
+        Assert.assertEquals(UnixFSHasher.hash(bytes), UnixFSHasher.hash(new ByteArrayInputStream(bytes)));
+    }
+    
+    @Test
+    public void testLargeContent() throws Exception {
+        
+        // head -c 786433 /dev/zero | ipfs add --only-hash
+        byte[] bytes = new byte[3 * UnixFSHasher.DEFAULT_CHUNK_SIZE + 1];
+        Assert.assertEquals("QmeB4p35H9op7f6AYwNS2XAFG62JCBvjX6AVmfUp94djdn", UnixFSHasher.hash(bytes).toBase58());
+        Assert.assertEquals("QmeB4p35H9op7f6AYwNS2XAFG62JCBvjX6AVmfUp94djdn", UnixFSHasher.hash(new ByteArrayInputStream(bytes)).toBase58());
+        
+        // head -c 45613057 /dev/zero | ipfs add --only-hash
+        bytes = new byte[UnixFSHasher.DEFAULT_LINKS_PER_BLOCK * UnixFSHasher.DEFAULT_CHUNK_SIZE + 1];
+        Assert.assertEquals("QmehMASWcBsX7VcEQqs6rpR5AHoBfKyBVEgmkJHjpPg8jq", UnixFSHasher.hash(new ByteArrayInputStream(bytes)).toBase58());
+    }
+}
@@ -30,16 +30,25 @@ import io.nessus.utils.AssertArgument;
 public class AHandle extends AbstractHandle {
 	
 	final PublicKey pubKey;
+	final String keyType;
 	
-	private AHandle(Address addr, PublicKey pubKey, CidPath cid, String txId, boolean expired, int attempt, long elapsed) {
+	private AHandle(Address addr, PublicKey pubKey, String keyType, CidPath cid, String txId, boolean expired, int attempt, long elapsed) {
     	super(addr, cid, txId, pubKey != null, expired, attempt, elapsed);
 		this.pubKey = pubKey;
+		this.keyType = keyType;
 	}
 	
 	public PublicKey getPubKey() {
 		return pubKey;
 	}
 
+	/**
+	 * The key encapsulation type of the public key
+	 */
+	public String getKeyType() {
+		return keyType;
+	}
+
 	@Override
 	public int hashCode() {
 		int result = 1;
@@ -59,18 +68,21 @@ public class AHandle extends AbstractHandle {
 	public String toString() {
         String addr = owner.getAddress();
         String keystr = pubKey != null ? AESUtils.encodeKey(pubKey).substring(0, 8) : null;
-		return String.format("[addr=%s, cid=%s, key=%s, avl=%d, exp=%d, try=%d, time=%s]", 
-				addr, cid, keystr, available ? 1 : 0, expired ? 1 : 0, attempt, elapsed);
+		return String.format("[addr=%s, cid=%s, key=%s, type=%s, avl=%d, exp=%d, try=%d, time=%s]", 
+				addr, cid, keystr, keyType, available ? 1 : 0, expired ? 1 : 0, attempt, elapsed);
 	}
 
     public static class AHBuilder extends AbstractBuilder<AHBuilder, AbstractHandle> {
         
         private PublicKey pubKey;
+        private String keyType;
         
-        public AHBuilder(Address owner, PublicKey pubKey) {
+        public AHBuilder(Address owner, PublicKey pubKey, String keyType) {
         	super(owner);
             AssertArgument.assertNotNull(pubKey, "Null pubKey");
+            AssertArgument.assertNotNull(keyType, "Null keyType");
             this.pubKey = pubKey;
+            this.keyType = keyType;
         }
 
         public AHBuilder(Address owner, String txId, Multihash cid) {
@@ -80,6 +92,7 @@ public class AHandle extends AbstractHandle {
         public AHBuilder(AHandle ahandle) {
         	super(ahandle);
             this.pubKey = ahandle.pubKey;
+            this.keyType = ahandle.keyType;
         }
 
         public AHBuilder pubKey(PublicKey pubKey) {
@@ -87,9 +100,14 @@ public class AHandle extends AbstractHandle {
             return this;
         }
 
+        public AHBuilder keyType(String keyType) {
+            this.keyType = keyType;
+            return this;
+        }
+
         @Override
         public AHandle build() {
-        	AHandle ahandle = new AHandle(owner, pubKey, cid, txId, expired, attempt, elapsed);
+        	AHandle ahandle = new AHandle(owner, pubKey, keyType, cid, txId, expired, attempt, elapsed);
             return ahandle;
         }
     }
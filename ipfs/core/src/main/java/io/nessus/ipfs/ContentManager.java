@@ -23,6 +23,7 @@ package io.nessus.ipfs;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
 import java.security.GeneralSecurityException;
 import java.util.List;
@@ -108,6 +109,23 @@ public interface ContentManager {
      */
     FHandle getIpfsContent(Address owner, Multihash cid, Path path, Long timeout) throws IOException, GeneralSecurityException;
     
+    /**
+     * Get a file from IPFS content as a stream of plain content.
+     * 
+     * The path is the path of the file in the content, or null when the content is a single file.
+     * The file is found and its key is unwrapped before this returns, the content is decrypted 
+     * while the stream is read. The plain content is not written to disk.
+     */
+    InputStream streamIpfsContent(Address owner, Multihash cid, Path path, Long timeout) throws IOException, GeneralSecurityException;
+    
+    /**
+     * Open a file from IPFS content for random access, without storing the plain content.
+     * 
+     * The path is the path of the file in the content, or null when the content is a single file.
+     * Only the segments that cover the bytes being read are decrypted.
+     */
+    SeekableByteChannel openIpfsContent(Address owner, Multihash cid, Path path, Long timeout) throws IOException, GeneralSecurityException;
+    
     /**
      * Find registered IPFS content for a given address.
      */
@@ -117,6 +135,15 @@ public interface ContentManager {
      * Send content to a target address via IPFS. 
      */
     FHandle sendIpfsContent(Address owner, Multihash cid, Address target, Long timeout) throws IOException, GeneralSecurityException;
+    
+    /**
+     * Send content to a target address.
+     * 
+     * With rewrap, the encrypted content is not touched. Only the secret key of the tree 
+     * is wrapped again for the target and published with new metadata that references 
+     * the existing content. The cost of such a send does not grow with the content size.
+     */
+    FHandle sendIpfsContent(Address owner, Multihash cid, Address target, boolean rewrap, Long timeout) throws IOException, GeneralSecurityException;
 
     /**
      * Unregister a IPFS content.
@@ -5,6 +5,7 @@ import java.nio.file.Paths;
 
 import org.kohsuke.args4j.Option;
 
+import io.nessus.cipher.RSAKeyEncapsulation;
 import io.nessus.ipfs.core.AbstractConfig;
 
 public class ContentManagerConfig extends AbstractConfig {
@@ -12,6 +13,9 @@ public class ContentManagerConfig extends AbstractConfig {
     public static final long DEFAULT_IPFS_TIMEOUT = 6000; // 6 sec
     public static final int DEFAULT_IPFS_ATTEMPTS = 100; // 10 min
     public static final int DEFAULT_IPFS_THREADS = 24;
+    public static final long DEFAULT_PARALLEL_THRESHOLD = 16 * 1024 * 1024; // 16 MB
+    public static final String DEFAULT_KEY_TYPE = RSAKeyEncapsulation.TYPE;
+    public static final long DEFAULT_CHUNK_THRESHOLD = 0; // disabled
     
     @Option(name = "--ipfs-timeout", usage = "The maximum number of millis for IPFS operations")
     protected long ipfsTimeout = DEFAULT_IPFS_TIMEOUT;
@@ -28,20 +32,38 @@ public class ContentManagerConfig extends AbstractConfig {
     @Option(name = "--overwrite", usage = "Whether to overwrite existing files")
     protected boolean overwrite;
 
+    @Option(name = "--keystore", usage = "Whether to keep derived keys in an encrypted keystore in the data directory")
+    protected boolean keyStore;
+
+    @Option(name = "--parallel-threshold", usage = "The minimum file size in bytes for parallel encryption")
+    protected long parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    @Option(name = "--key-type", usage = "The key encapsulation type for new address registrations (RSA, EC)")
+    protected String keyType = DEFAULT_KEY_TYPE;
+
+    @Option(name = "--chunk-threshold", usage = "The minimum file size in bytes for content defined chunking, 0 disables it")
+    protected long chunkThreshold = DEFAULT_CHUNK_THRESHOLD;
+
     public ContentManagerConfig() {
     }
     
     protected ContentManagerConfig(String bcImpl, String bcUrl, String bcHost, int bcPort, String bcUser, String bcPass, 
-    		String ipfsAddr, long ipfsTimeout, int ipfsAttempts, int ipfsThreads, Path dataDir, boolean overwrite) {
+    		String ipfsAddr, long ipfsTimeout, int ipfsAttempts, int ipfsThreads, Path dataDir, boolean overwrite, boolean keyStore, long parallelThreshold, String keyType, long chunkThreshold) {
     	super(ipfsAddr, bcImpl, bcUrl, bcHost, bcPort, bcUser, bcPass);
     	
         this.ipfsTimeout = ipfsTimeout;
         this.ipfsAttempts = ipfsAttempts;
         this.ipfsThreads = ipfsThreads;
         this.overwrite = overwrite;
+        this.keyStore = keyStore;
+        this.parallelThreshold = parallelThreshold;
+        this.chunkThreshold = chunkThreshold;
         
         if (dataDir != null)
         	this.dataDir = dataDir;
+        
+        if (keyType != null)
+        	this.keyType = keyType;
     }
 
     public long getIpfsTimeout() {
@@ -60,19 +82,40 @@ public class ContentManagerConfig extends AbstractConfig {
         return dataDir;
     }
 
+    @Override
+    public Path getIpfsCacheDir() {
+        return dataDir.resolve("blocks");
+    }
+
     public boolean isOverwrite() {
 		return overwrite;
 	}
 
+    public boolean isKeyStore() {
+        return keyStore;
+    }
+
+    public long getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public String getKeyType() {
+        return keyType;
+    }
+
+    public long getChunkThreshold() {
+        return chunkThreshold;
+    }
+
     public String toString() {
-        return String.format("[dataDir=%s, timeout=%s, attempts=%s, threads=%s, overwrite=%b]", 
-                dataDir, ipfsTimeout, ipfsAttempts, ipfsThreads, overwrite);
+        return String.format("[dataDir=%s, timeout=%s, attempts=%s, threads=%s, overwrite=%b, keystore=%b, keytype=%s, chunks=%d]", 
+                dataDir, ipfsTimeout, ipfsAttempts, ipfsThreads, overwrite, keyStore, keyType, chunkThreshold);
     }
     
     public static class ContentManagerConfigBuilder extends AbstractContentManagerConfigBuilder<ContentManagerConfigBuilder, ContentManagerConfig>  {
     	
         public ContentManagerConfig build() {
-            return new ContentManagerConfig(bcImpl, bcUrl, bcHost, bcPort, bcUser, bcPass, ipfsAddr, ipfsTimeout, ipfsAttempts, ipfsThreads, dataDir, overwrite);
+            return new ContentManagerConfig(bcImpl, bcUrl, bcHost, bcPort, bcUser, bcPass, ipfsAddr, ipfsTimeout, ipfsAttempts, ipfsThreads, dataDir, overwrite, keyStore, parallelThreshold, keyType, chunkThreshold);
         }
     }
     
@@ -83,6 +126,10 @@ public class ContentManagerConfig extends AbstractConfig {
         protected int ipfsAttempts = DEFAULT_IPFS_ATTEMPTS;
         protected int ipfsThreads = DEFAULT_IPFS_THREADS;
         protected boolean overwrite;
+        protected boolean keyStore;
+        protected long parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+        protected String keyType = DEFAULT_KEY_TYPE;
+        protected long chunkThreshold = DEFAULT_CHUNK_THRESHOLD;
         protected Path dataDir;
         
 		@SuppressWarnings("unchecked")
@@ -97,6 +144,30 @@ public class ContentManagerConfig extends AbstractConfig {
             return (B) this;
         }
         
+		@SuppressWarnings("unchecked")
+		public B keyStore(boolean keyStore) {
+            this.keyStore = keyStore;
+            return (B) this;
+        }
+        
+		@SuppressWarnings("unchecked")
+		public B keyType(String keyType) {
+            this.keyType = keyType;
+            return (B) this;
+        }
+        
+		@SuppressWarnings("unchecked")
+		public B parallelThreshold(long threshold) {
+            this.parallelThreshold = threshold;
+            return (B) this;
+        }
+        
+		@SuppressWarnings("unchecked")
+		public B chunkThreshold(long threshold) {
+            this.chunkThreshold = threshold;
+            return (B) this;
+        }
+        
 		@SuppressWarnings("unchecked")
 		public B ipfsTimeout(long timeout) {
             this.ipfsTimeout = timeout;
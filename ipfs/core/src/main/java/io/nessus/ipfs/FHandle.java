@@ -47,10 +47,11 @@ public class FHandle extends AbstractHandle {
     final Path path;
     final URL furl;
     final String secToken;
+    final Multihash metaCid;
     
     final List<FHandle> children = new ArrayList<>();
     
-    private FHandle(FHandle parent, Address owner, CidPath cid, Path path, URL furl, String secToken, String txId, boolean available, boolean expired, int attempt, long elapsed) {
+    private FHandle(FHandle parent, Address owner, CidPath cid, Path path, URL furl, String secToken, Multihash metaCid, String txId, boolean available, boolean expired, int attempt, long elapsed) {
     	super(owner, cid, txId, available, expired, attempt, elapsed);
         boolean urlBased = path != null && furl != null;
         AssertArgument.assertTrue(urlBased || cid != null, "Neither url nor cid based");
@@ -59,6 +60,7 @@ public class FHandle extends AbstractHandle {
         this.path = path;
         this.furl = furl;
         this.secToken = secToken;
+        this.metaCid = metaCid;
     }
     
 	public FHandle getRoot() {
@@ -111,6 +113,13 @@ public class FHandle extends AbstractHandle {
         return secToken != null;
     }
 
+    /**
+     * The id of the metadata object that describes this tree, if any
+     */
+    public Multihash getMetadataCid() {
+        return metaCid;
+    }
+
     private void addChild(FHandle fhchild) {
         Path chpath = fhchild.getPath();
         Multihash chcid = fhchild.getCid();
@@ -226,6 +235,7 @@ public class FHandle extends AbstractHandle {
         private Path path;
         private URL furl;
         private String secToken;
+        private Multihash metaCid;
         private boolean available;
         
         private FHBuilder parentBuilder;
@@ -262,6 +272,7 @@ public class FHandle extends AbstractHandle {
             this.furl = fhandle.furl;
             this.txId = fhandle.txId;
             this.secToken = fhandle.secToken;
+            this.metaCid = fhandle.metaCid;
             this.available = fhandle.available;
             this.expired = fhandle.expired;
             this.attempt = fhandle.attempt;
@@ -337,6 +348,11 @@ public class FHandle extends AbstractHandle {
             return this;
         }
         
+        public FHBuilder metadataCid(Multihash metaCid) {
+            this.metaCid = metaCid;
+            return this;
+        }
+        
         public FHBuilder available(boolean available) {
             this.available = available;
             return this;
@@ -367,7 +383,7 @@ public class FHandle extends AbstractHandle {
         		}
         	}
         	
-            FHandle fhandle = new FHandle(parent, owner, cid, path, furl, secToken, txId, available, expired, attempt, elapsed);
+            FHandle fhandle = new FHandle(parent, owner, cid, path, furl, secToken, metaCid, txId, available, expired, attempt, elapsed);
             childBuilders.values().stream().map(cb -> cb.parent(fhandle).buildInternal()).collect(Collectors.toList());
             if (parent != null) parent.addChild(fhandle);
             
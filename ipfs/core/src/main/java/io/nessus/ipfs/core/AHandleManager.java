@@ -29,11 +29,8 @@ import java.security.GeneralSecurityException;
 import java.security.PublicKey;
 import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import io.ipfs.multihash.Multihash;
 import io.nessus.Tx;
@@ -41,7 +38,8 @@ import io.nessus.TxOutput;
 import io.nessus.UTXO;
 import io.nessus.Wallet;
 import io.nessus.Wallet.Address;
-import io.nessus.cipher.utils.RSAUtils;
+import io.nessus.cipher.KeyEncapsulation;
+import io.nessus.cipher.RSAKeyEncapsulation;
 import io.nessus.ipfs.AHandle;
 import io.nessus.ipfs.AHandle.AHBuilder;
 import io.nessus.ipfs.ContentManagerConfig;
@@ -51,12 +49,14 @@ import io.nessus.ipfs.client.IPFSNotFoundException;
 import io.nessus.ipfs.client.IPFSTimeoutException;
 import io.nessus.utils.AssertArgument;
 import io.nessus.utils.AssertState;
+import io.nessus.utils.FutureUtils;
 
 public class AHandleManager extends AbstractHandleManager<AHandle> {
 
 	private static final String KEY_LABEL = "Label";
 	private static final String KEY_ADDRESS = "Address";
 	private static final String KEY_PUBKEY = "PublicKey";
+	private static final String KEY_TYPE = "KeyType";
 
 	AHandleManager(DefaultContentManager cntmgr) {
 		super(cntmgr);
@@ -70,13 +70,20 @@ public class AHandleManager extends AbstractHandleManager<AHandle> {
 		Address owner = ahandle.getOwner();
 		String rawAddr = owner.getAddress();
 		PublicKey pubKey = ahandle.getPubKey();
+		String keyType = ahandle.getKeyType();
 
+		// RSA registrations keep the original version, so that older readers can still use them
+		boolean rsa = RSAKeyEncapsulation.TYPE.equals(keyType);
+		String version = rsa ? fhvals.VERSION : FHeaderValues.KEY_TYPE_VERSION;
+		KeyEncapsulation kem = cntmgr.getKeyEncapsulation(keyType);
+		
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(baos))) {
-			pw.println(fhvals.PREFIX + "-Version: " + fhvals.VERSION);
+			pw.println(fhvals.getVersionString(version));
 			pw.println(KEY_ADDRESS + ": " + rawAddr);
 			pw.println(KEY_LABEL + ": " + ahandle.getLabel());
-			pw.println(KEY_PUBKEY + ": " + RSAUtils.encodeKey(pubKey));
+			if (!rsa) pw.println(KEY_TYPE + ": " + keyType);
+			pw.println(KEY_PUBKEY + ": " + kem.encodePublicKey(pubKey));
 		}
 
 		Multihash cid = ipfsClient.addSingle(baos.toByteArray(), dryRun);
@@ -86,6 +93,16 @@ public class AHandleManager extends AbstractHandleManager<AHandle> {
 	}
 
 	public AHandle getIpfsContent(AHandle ahandle, long timeout) throws IOException, GeneralSecurityException {
+		try {
+			return join(getIpfsContentAsync(ahandle, timeout));
+		} catch (IPFSException ex) {
+			if (ex.getCause() instanceof GeneralSecurityException)
+				throw (GeneralSecurityException) ex.getCause();
+			throw ex;
+		}
+	}
+
+	public CompletableFuture<AHandle> getIpfsContentAsync(AHandle ahandle, long timeout) {
         AssertArgument.assertNotNull(ahandle, "Null ahandle");
         AssertArgument.assertNotNull(ahandle.getOwner(), "Null owner");
         AssertArgument.assertNotNull(ahandle.getCid(), "Null cid");
@@ -94,64 +111,72 @@ public class AHandleManager extends AbstractHandleManager<AHandle> {
         Multihash cid = ahandle.getCid();
         
         IPFSCache ipfsCache = cntmgr.getIPFSCache();
-        AHandle ahres = ipfsCache.get(cid, AHandle.class);
-        if (ahres.isAvailable()) return ahres;
+        AHandle ahbase = ipfsCache.get(cid, AHandle.class);
+        if (ahbase.isAvailable()) 
+        	return CompletableFuture.completedFuture(ahbase);
         
         // Fetch the content from IPFS
         
-        int attempt = ahres.getAttempt();
-        LOG.info("{}: {}", logPrefix("attempt", attempt),  ahres);
+        int attempt = ahbase.getAttempt();
+        LOG.info("{}: {}", logPrefix("attempt", attempt),  ahbase);
         
     	long before = System.currentTimeMillis();
 		
-        try {
-            
-    		IPFSClient ipfsClient = cntmgr.getIPFSClient();
-    		FHeaderValues fhvals = cntmgr.getFHeaderValues();
+		IPFSClient ipfsClient = cntmgr.getIPFSClient();
+		FHeaderValues fhvals = cntmgr.getFHeaderValues();
 
+		CompletableFuture<AHandle> future = withDeadline(ipfsClient.cat(cid), before + timeout).thenApply(FutureUtils.unchecked(ins -> {
+			
     		Properties props = new Properties();
-    		Future<InputStream> future = ipfsClient.cat(ahres.getCid());
-    		InputStream input = future.get(timeout, TimeUnit.MILLISECONDS);
-    		props.load(input);
+    		try (InputStream input = ins) {
+    			props.load(input);
+    		}
 
     		String version = props.getProperty(fhvals.PREFIX + "-Version");
     		String rawAddr = props.getProperty(KEY_ADDRESS);
     		String encKey = props.getProperty(KEY_PUBKEY);
+    		String keyType = props.getProperty(KEY_TYPE);
 
-    		AssertState.assertEquals(fhvals.VERSION, version);
             AssertState.assertEquals(owner.getAddress(), rawAddr, "Unexpected owner: " + rawAddr);
             
-    		PublicKey pubKey = RSAUtils.decodePublicKey(encKey);
-    		ahres = new AHBuilder(ahres)
+            // Registrations without a key type are RSA
+            if (fhvals.VERSION.equals(version)) {
+                AssertState.assertNull(keyType, "Unexpected key type: " + keyType);
+                keyType = RSAKeyEncapsulation.TYPE;
+            } else {
+                AssertState.assertEquals(FHeaderValues.KEY_TYPE_VERSION, version, "Unsupported version: " + version);
+                AssertState.assertNotNull(keyType, "No key type");
+            }
+            
+            KeyEncapsulation kem = cntmgr.getKeyEncapsulation(keyType);
+    		PublicKey pubKey = kem.decodePublicKey(encKey);
+    		
+    		return new AHBuilder(ahbase)
     				.pubKey(pubKey)
+    				.keyType(keyType)
+    				.build();
+		}));
+		
+		// Every attempt is counted and cached, successful or not
+		
+		return future.handle((ahres, th) -> {
+			
+			AHandle ahaux = ahres != null ? ahres : ahbase;
+            long elapsed = System.currentTimeMillis() - before;
+            ahaux = new AHBuilder(ahaux)
+    				.elapsed(ahaux.getElapsed() + elapsed)
+                    .attempt(ahaux.getAttempt() + 1)
     				.build();
             
-        } catch (InterruptedException | ExecutionException ex) {
-            
-            Throwable cause = ex.getCause();
-            if (cause instanceof IPFSException) 
-                throw (IPFSException)cause;
-            else 
-                throw new IPFSException(ex);
-            
-        } catch (TimeoutException ex) {
-            
-            throw new IPFSTimeoutException(ex);
+            ipfsCache.put(ahaux);
             
-        } finally {
+            if (th != null)
+            	throw new CompletionException(FutureUtils.unwrap(th));
             
-            long elapsed = System.currentTimeMillis() - before;
-            ahres = new AHBuilder(ahres)
-    				.elapsed(ahres.getElapsed() + elapsed)
-                    .attempt(ahres.getAttempt() + 1)
-    				.build();
+            LOG.info("IPFS Addr found: {}", ahaux);
             
-            ipfsCache.put(ahres);
-        }
-        
-        LOG.info("IPFS Addr found: {}", ahres);
-
-		return ahres;
+            return ahaux;
+		});
 	}
 
     public AHandle findContentAsync(Address owner, long timeout) {
@@ -164,8 +189,8 @@ public class AHandleManager extends AbstractHandleManager<AHandle> {
 			}
 
 			@Override
-			public Callable<AHandle> newWorker(AHandle fh) {
-				return new AsyncGetCallable(fh, timeout);
+			public CompletableFuture<AHandle> newWorker(AHandle ah) {
+				return getIpfsAsync(ah, timeout);
 			}
 		};
 		
@@ -221,79 +246,61 @@ public class AHandleManager extends AbstractHandleManager<AHandle> {
         return String.format("IPFS Addr %s [%s] [%d/%d]", action, trdName, attempt, ipfsAttempts);
     }
     
-    class AsyncGetCallable implements Callable<AHandle> {
+    private CompletableFuture<AHandle> getIpfsAsync(AHandle ahandle, long timeout) {
         
-        final long timeout;
-        final AHandle ahandle;
-        
-        AsyncGetCallable(AHandle ahandle, long timeout) {
-            AssertArgument.assertNotNull(ahandle, "Null ahandle");
-            this.timeout = timeout;
-            this.ahandle = ahandle;
-        }
-
-        @Override
-        public AHandle call() throws Exception {
+    	Multihash cid = ahandle.getCid();
+    	
+    	CompletableFuture<AHandle> future = CompletableFuture.completedFuture(ahandle)
+    			.thenCompose(ahaux -> getIpfsContentAsync(ahaux, timeout));
+    	
+        return future.handle((ahres, th) -> {
             
+        	AHandle ahaux = th != null ? processException(cid, FutureUtils.unwrap(th)) : ahres;
+        	
             IPFSCache ipfsCache = cntmgr.getIPFSCache();
+            ipfsCache.put(ahaux);
             
-        	AHandle ahaux = ahandle;
-        	Multihash cid = ahandle.getCid();
-        	
-            try {
-                
-                ahaux = getIpfsContent(ahandle, timeout);
-                
-            } catch (Exception ex) {
-                
-                ahaux = processException(cid, ex);
-                
-            } finally {
-                
-                ipfsCache.put(ahaux);
-            }
-
             return ahaux;
-        }
+        });
+    }
+    
+    private AHandle processException(Multihash cid, Throwable ex) {
         
-        private AHandle processException(Multihash cid, Exception ex) throws InterruptedException {
-            
-            IPFSCache ipfsCache = cntmgr.getIPFSCache();
-            ContentManagerConfig config = cntmgr.getConfig();
-            
-            AHandle ahres = ipfsCache.get(cid, AHandle.class);
-            int attempt = ahres.getAttempt();
-            
-            if (ex instanceof IPFSTimeoutException) {
-                
-                if (config.getIpfsAttempts() <= attempt) {
-                    ahres = new AHBuilder(ahres)
-                            .expired(true)
-                            .build();
-                }
-                
-                LOG.info("{}: {}", logPrefix("timeout", attempt),  ahres);
-            }
+        IPFSCache ipfsCache = cntmgr.getIPFSCache();
+        ContentManagerConfig config = cntmgr.getConfig();
+        
+        AHandle ahres = ipfsCache.get(cid, AHandle.class);
+        int attempt = ahres.getAttempt();
+        
+        if (ex instanceof IPFSTimeoutException) {
             
-            else if (ex instanceof IPFSNotFoundException) {
-                
+            if (config.getIpfsAttempts() <= attempt) {
                 ahres = new AHBuilder(ahres)
                         .expired(true)
                         .build();
-                
-                LOG.warn("{}: {}", logPrefix("not found", attempt),  ahres);
             }
             
-            else {
-                
-                ahres = new AHBuilder(ahres)
-                        .expired(true)
-                        .build();
-                
-                LOG.error(logPrefix("error", attempt) + ": " + ahres, ex);
-            }
+            LOG.info("{}: {}", logPrefix("timeout", attempt),  ahres);
+        }
+        
+        else if (ex instanceof IPFSNotFoundException) {
+            
+            ahres = new AHBuilder(ahres)
+                    .expired(true)
+                    .build();
             
-            return ahres;
+            LOG.warn("{}: {}", logPrefix("not found", attempt),  ahres);
         }
+        
+        else {
+            
+            ahres = new AHBuilder(ahres)
+                    .expired(true)
+                    .build();
+            
+            LOG.error(logPrefix("error", attempt) + ": " + ahres, ex);
+        }
+        
+        return ahres;
     }
-}
\ No newline at end of file
+}
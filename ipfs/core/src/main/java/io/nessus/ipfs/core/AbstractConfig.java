@@ -2,14 +2,18 @@ package io.nessus.ipfs.core;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import org.kohsuke.args4j.Option;
 
 import io.ipfs.multiaddr.MultiAddress;
 import io.nessus.Blockchain;
 import io.nessus.BlockchainFactory;
+import io.nessus.ipfs.client.CachingIPFSClient;
 import io.nessus.ipfs.client.DefaultIPFSClient;
 import io.nessus.ipfs.client.IPFSClient;
+import io.nessus.ipfs.client.IPFSTransport;
 import io.nessus.utils.SystemUtils;
 
 public class AbstractConfig {
@@ -38,6 +42,18 @@ public class AbstractConfig {
     @Option(name = "--ipfs-api", usage = "The IPFS API address")
     String ipfsAddr = DEFAULT_IPFS_ADDR;
 
+    @Option(name = "--ipfs-connections", usage = "The max number of pooled connections to the IPFS API")
+    int ipfsConnections = IPFSTransport.DEFAULT_CONNECTIONS;
+
+    @Option(name = "--ipfs-connect-timeout", usage = "The maximum number of millis to connect to the IPFS API")
+    int ipfsConnectTimeout = IPFSTransport.DEFAULT_CONNECT_TIMEOUT;
+
+    @Option(name = "--ipfs-read-timeout", usage = "The maximum number of millis to wait for data from the IPFS API")
+    int ipfsReadTimeout = IPFSTransport.DEFAULT_READ_TIMEOUT;
+
+    @Option(name = "--ipfs-cache-size", usage = "The max number of bytes in the local IPFS content cache, 0 disables it")
+    long ipfsCacheSize = CachingIPFSClient.DEFAULT_CACHE_SIZE;
+
     @Option(name = "--bcimpl", usage = "The Blockchain implementation class")
     String bcImpl = DEFAULT_BLOCKCHAIN_IMPL;
 
@@ -59,6 +75,8 @@ public class AbstractConfig {
     @Option(name = "--help", help = true)
     public boolean help;
     
+    private IPFSClient ipfsClient;
+    
     public AbstractConfig() {
     }
     
@@ -82,10 +100,22 @@ public class AbstractConfig {
         return new MultiAddress(ipfsAddr);
     }
     
-	public IPFSClient getIPFSClient () {
-        MultiAddress ipfsAddr = getIpfsApiAddress();
-        IPFSClient ipfsClient = new DefaultIPFSClient(ipfsAddr);
-        return ipfsClient.connect();
+	// The client is shared by all users of this config, so that they share its connections
+	public synchronized IPFSClient getIPFSClient () {
+        if (ipfsClient == null) {
+            MultiAddress ipfsAddr = getIpfsApiAddress();
+            IPFSTransport transport = new IPFSTransport(ipfsAddr, ipfsConnections, ipfsConnectTimeout, ipfsReadTimeout);
+            IPFSClient client = new DefaultIPFSClient(transport);
+            if (ipfsCacheSize > 0) {
+                client = new CachingIPFSClient(client, getIpfsCacheDir(), ipfsCacheSize);
+            }
+            ipfsClient = client.connect();
+        }
+        return ipfsClient;
+	}
+	
+	public Path getIpfsCacheDir() {
+		return Paths.get(System.getProperty("user.home"), ".nessus", "blocks");
 	}
 	
     public URL getBlockchainUrl() throws MalformedURLException {
@@ -1,17 +1,16 @@
 package io.nessus.ipfs.core;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -30,8 +29,11 @@ import io.nessus.Wallet.Address;
 import io.nessus.ipfs.AHandle;
 import io.nessus.ipfs.AbstractHandle;
 import io.nessus.ipfs.FHandle;
+import io.nessus.ipfs.client.IPFSException;
+import io.nessus.ipfs.client.IPFSTimeoutException;
 import io.nessus.utils.AssertArgument;
 import io.nessus.utils.AssertState;
+import io.nessus.utils.FutureUtils;
 
 abstract class AbstractHandleManager<T extends AbstractHandle> {
 	
@@ -41,13 +43,17 @@ abstract class AbstractHandleManager<T extends AbstractHandle> {
 	protected final TxDataHandler dataHandler;
 	protected final Executor executor;
     
-	private static ExecutorService executorService;
+    // Runs blockchain and file work, never waits for the network
+	static ExecutorService executorService;
 
+    // The delay between two attempts for the same handle
+    static final long RETRY_DELAY = 500L;
+    
 	interface WorkerFactory<T extends AbstractHandle> {
 		
 		Class<T> getType();
 		
-		Callable<T> newWorker(T handle);
+		CompletableFuture<T> newWorker(T handle);
 	}
 	
 	AbstractHandleManager(DefaultContentManager cntmgr) {
@@ -78,7 +84,7 @@ abstract class AbstractHandleManager<T extends AbstractHandle> {
         
         // Process the workload asynchronously
         
-        Future<Integer> future = executor.process(owner, handles, factory, timeout);
+        CompletableFuture<Integer> future = executor.process(owner, handles, factory, timeout);
         
         int missing = -1;
 		try {
@@ -100,6 +106,30 @@ abstract class AbstractHandleManager<T extends AbstractHandle> {
 		return result;
 	}
 
+	// Fail the future with a timeout when it is not done by the given deadline, which aborts its request
+	<R> CompletableFuture<R> withDeadline(CompletableFuture<R> future, long deadline) {
+		long remaining = deadline - System.currentTimeMillis();
+		return FutureUtils.withTimeout(future, remaining, () -> new IPFSTimeoutException("Timeout after " + Math.max(0, remaining) + "ms"));
+	}
+	
+	// Wait for the result on behalf of a synchronous caller 
+	<R> R join(CompletableFuture<R> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IPFSException(ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = FutureUtils.unwrap(ex);
+			if (cause instanceof IOException) 
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException) 
+				throw (RuntimeException) cause;
+			throw new IPFSException(cause);
+		}
+	}
+
 	public T getUnspentHandle(Address owner, Multihash cid, Class<T> type) {
 		AssertArgument.assertNotNull(owner, "Null owner");
 		AssertArgument.assertNotNull(cid, "Null cid");
@@ -262,9 +292,10 @@ abstract class AbstractHandleManager<T extends AbstractHandle> {
 
     class Executor {
     	
-    	final Set<Multihash> scheduled = new HashSet<>();
+    	// The current attempt for every handle that is scheduled
+    	final Map<Multihash, CompletableFuture<T>> scheduled = new HashMap<>();
 
-    	Future<Integer> process(Address owner, List<T> handles, WorkerFactory<T> factory, long timeout) {
+    	CompletableFuture<Integer> process(Address owner, List<T> handles, WorkerFactory<T> factory, long timeout) {
     		
     		Class<T> type = factory.getType();
     		String prefix = getLogPrefix(type);
@@ -273,124 +304,66 @@ abstract class AbstractHandleManager<T extends AbstractHandle> {
             
             List<T> missing = getMissingHandles(handles, type);
             
-            // Filter out handles that are already scheduled 
+            // Schedule the handles that are not already scheduled. For each of these we 
+            // keep trying to get the content until it is no longer missing (i.e. either 
+            // available or expired)
+            
+            List<CompletableFuture<T>> attempts = new ArrayList<>();
+            int unscheduled = 0;
             
-            List<T> unscheduled;
     		synchronized (scheduled) {
-    			unscheduled = getUnscheduledHandles(missing);
-    			scheduled.addAll(getCids(unscheduled));
+    			for (T fh : missing) {
+    				CompletableFuture<T> attempt = scheduled.get(fh.getCid());
+    				if (attempt == null) {
+    					LOG.info("{} submit: {}", prefix, fh);
+    					attempt = schedule(owner, fh.getCid(), factory, 0);
+    					unscheduled++;
+    				}
+    				attempts.add(attempt);
+    			}
     		}
         		
             // Log some scheduling stats
     		
             if (missing.size() > 0)
-            	LOG.info("{} finding: [utxo={}, missing={}, schedule={}]", prefix, handles.size(), missing.size(), unscheduled.size());
-            
-            // For each unscheduled handle we create a task that keeps trying to get the 
-            // content until it is no longer missing (i.e. either available or expired)
+            	LOG.info("{} finding: [utxo={}, missing={}, schedule={}]", prefix, handles.size(), missing.size(), unscheduled);
             
-            long shortNap = 500L;
+            // Complete when the current attempt for all missing handles has completed
             
-			for (T fh : unscheduled) {
-				
-				Multihash cid = fh.getCid();
-				LOG.info("{} submit: {}", prefix, fh);
-				
-				executorService.submit(new Callable<Boolean>() {
-
-					@Override
-					public Boolean call() throws Exception {
-						
-						try {
-							
-							Future<T> submit = null;
-							
-							T aux = getUnspentHandle(owner, cid, type);
-							
-							while (aux != null && aux.isMissing()) {
-								
-								if (submit == null || submit.isDone()) {
-		        					Callable<T> worker = factory.newWorker(aux);
-		        					submit = executorService.submit(worker);
-								}
-								
-	            				try {
-	        						Thread.sleep(shortNap);
-	        					} catch (InterruptedException e) {
-	        						break;
-	        					}
-	            				
-	            				// The UTXO may have been spent in the meantime
-	            				
-								aux = getUnspentHandle(owner, cid, type);
-							}
-							
-						} finally {
-							synchronized (scheduled) {
-								scheduled.remove(cid);
-							}
-						}
-						
-						return fh.isAvailable();
-					}
-				});
-			}
-
-			Future<Integer> future = executorService.submit(new Callable<Integer>() {
-
-				Map<Multihash, Integer> attempts = new HashMap<>();
-				
-				@Override
-				public Integer call() throws Exception {
-					
-					// Record the curremt number of attempts for all missing handles
-					missing.forEach(fh -> attempts.put(fh.getCid(), fh.getAttempt()));
-										
-					while(!completed()) {
-						try {
-							Thread.sleep(shortNap);
-						} catch (InterruptedException e) {
-							break;
-						}
-					}
-					
-					List<T> todos = getMissingHandles(missing, type);
-					return todos.size();
-				}
-				
-				boolean completed() {
-					
-					List<T> todos = getMissingHandles(missing, type);
-					
-					if (!todos.isEmpty()) {
-						
-						// Filter from todos when the next attempt has completed
-						
-						todos = todos.stream()
-							.filter(fh -> {
-						    	IPFSCache ipfsCache = cntmgr.getIPFSCache();
-								T fhaux = ipfsCache.get(fh.getCid(), type);
-								int lastAtt = attempts.get(fh.getCid());
-								int currAtt = fhaux.getAttempt();
-								return lastAtt == currAtt; 
-							})
-							.collect(Collectors.toList());
-					}
-					
-					return todos.isEmpty();
-				}
-			});
-
-			return future;
+            CompletableFuture<?>[] array = attempts.toArray(new CompletableFuture<?>[attempts.size()]);
+            return CompletableFuture.allOf(array).handle((res, th) -> getMissingHandles(missing, type).size());
 		}
 
-        private List<T> getUnscheduledHandles(List<T> fhandles) {
+    	// Attempts are chained, no thread waits for the network or sleeps in between. 
+    	// The next attempt is scheduled as soon as the current one completes.
+        private CompletableFuture<T> schedule(Address owner, Multihash cid, WorkerFactory<T> factory, long delay) {
+        	
+        	Class<T> type = factory.getType();
         	
-        	List<T> result = fhandles.stream()
-                .filter(fh -> !scheduled.contains(fh.getCid()))
-    	        .collect(Collectors.toList());
+			// The UTXO may have been spent in the meantime
+        	
+        	CompletableFuture<T> attempt = FutureUtils.delay(delay)
+        			.thenApplyAsync(v -> getUnspentHandle(owner, cid, type), executorService)
+        			.thenCompose(aux -> aux != null && aux.isMissing() ? factory.newWorker(aux) : CompletableFuture.completedFuture(aux));
+        	
+        	synchronized (scheduled) {
+        		scheduled.put(cid, attempt);
+        	}
+        	
+        	attempt.whenComplete((aux, th) -> {
+        		if (th != null) 
+        			LOG.error("{} error: {}", getLogPrefix(type), cid, th);
+        		
+        		if (th == null && aux != null && aux.isMissing()) {
+        			schedule(owner, cid, factory, RETRY_DELAY);
+        		} else {
+        			synchronized (scheduled) {
+        				scheduled.remove(cid, attempt);
+        			}
+        		}
+        	});
         	
-        	return result;
+        	return attempt;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+package io.nessus.ipfs.core;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.ipfs.multihash.Multihash;
+import io.nessus.utils.AssertArgument;
+import io.nessus.utils.AssertState;
+
+/**
+ * The list of chunks that make up a large file.
+ *
+ * Every chunk is encrypted with a key that is derived from its own content and
+ * added to IPFS as a separate block. Unchanged chunks of a re-added file therefore
+ * produce the same blocks again. The manifest itself takes the place of the cipher
+ * text in the file and is encrypted like any other content.
+ *
+ * Chunk blocks are not linked from the DAG of the file. They are pinned by the
+ * 'ipfs add' that stores them, so they stay on the node that added the file.
+ * Another node that wants to keep the file must also pin the chunk cids listed
+ * in the manifest, pinning the file cid alone does not keep them.
+ *
+ *  int     magic "NSC2"
+ *  int     number of chunks
+ *  int     plain length, UTF block cid, byte[16] key ...
+ */
+public class ChunkManifest {
+
+    // The manifest starts with "NSC2"
+    public static final int MAGIC = 0x4E534332;
+
+    public final List<Chunk> chunks;
+
+    ChunkManifest(List<Chunk> chunks) {
+        AssertArgument.assertNotNull(chunks, "Null chunks");
+        this.chunks = Collections.unmodifiableList(new ArrayList<>(chunks));
+    }
+
+    /**
+     * The length of the plain content.
+     */
+    public long getLength() {
+        long result = 0;
+        for (Chunk chunk : chunks) {
+            result += chunk.length;
+        }
+        return result;
+    }
+
+    public static ChunkManifest fromStream(InputStream ins) throws IOException {
+        DataInputStream dis = new DataInputStream(ins);
+
+        int magic = dis.readInt();
+        AssertState.assertTrue(magic == MAGIC, "Invalid manifest: " + Integer.toHexString(magic));
+
+        int count = dis.readInt();
+        AssertState.assertTrue(count >= 0, "Invalid number of chunks: " + count);
+
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int length = dis.readInt();
+            Multihash cid = Multihash.fromBase58(dis.readUTF());
+            byte[] key = new byte[16];
+            dis.readFully(key);
+            chunks.add(new Chunk(cid, length, key));
+        }
+
+        return new ChunkManifest(chunks);
+    }
+
+    public byte[] toBytes() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(64 + 80 * chunks.size());
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        dos.writeInt(MAGIC);
+        dos.writeInt(chunks.size());
+        for (Chunk chunk : chunks) {
+            dos.writeInt(chunk.length);
+            dos.writeUTF(chunk.cid.toBase58());
+            dos.write(chunk.key);
+        }
+
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    public String toString() {
+        return String.format("[chunks=%d, length=%d]", chunks.size(), getLength());
+    }
+
+    public static class Chunk {
+
+        public final Multihash cid;
+        public final int length;
+        final byte[] key;
+
+        Chunk(Multihash cid, int length, byte[] key) {
+            AssertArgument.assertNotNull(cid, "Null cid");
+            AssertArgument.assertTrue(key != null && key.length == 16, "Expected 128 bit key");
+            this.cid = cid;
+            this.length = length;
+            this.key = key;
+        }
+
+        public String toString() {
+            return String.format("[cid=%s, length=%d]", cid, length);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.nessus.ipfs.core;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses file content before it gets encrypted.
+ *
+ * Cipher text does not compress, so this is the only place where it can be done.
+ * The type is recorded in the file header, so that decrypt can reverse it.
+ */
+public interface Compression {
+
+    /**
+     * The type name that is recorded in file headers.
+     */
+    String getType();
+
+    /**
+     * Wrap the given output, closing the result finishes the compressed stream.
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    InputStream decompress(InputStream ins) throws IOException;
+
+    /**
+     * The largest ratio of plain to compressed size that the format can produce.
+     */
+    int getMaxRatio();
+
+    /**
+     * Decompress the given input, reading past the given size fails with an IOException.
+     *
+     * This protects against crafted content that expands to an arbitrary size.
+     */
+    default InputStream decompress(InputStream ins, long maxSize) throws IOException {
+        return new FilterInputStream(decompress(ins)) {
+
+            long count;
+
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) checkSize(1);
+                return b;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) checkSize(n);
+                return n;
+            }
+
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                checkSize(skipped);
+                return skipped;
+            }
+
+            private void checkSize(long n) throws IOException {
+                count += n;
+                if (count > maxSize)
+                    throw new IOException("Decompressed size exceeds: " + maxSize);
+            }
+        };
+    }
+
+    /**
+     * The compressed size of the given sample.
+     */
+    default int compressedSize(byte[] sample) throws IOException {
+        int[] count = new int[1];
+        OutputStream out = compress(new OutputStream() {
+            public void write(int b) {
+                count[0]++;
+            }
+            public void write(byte[] b, int off, int len) {
+                count[0] += len;
+            }
+        });
+        out.write(sample);
+        out.close();
+        return count[0];
+    }
+}
@@ -0,0 +1,110 @@
+package io.nessus.ipfs.core;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import io.nessus.utils.AssertArgument;
+
+/**
+ * Splits content into chunks at content defined boundaries.
+ *
+ * A gear hash is rolled over the content and a chunk ends where the top bits
+ * of the hash are zero. Boundaries only depend on the bytes just before them,
+ * so an edit in a large file only changes the chunks around it.
+ */
+public class ContentChunker {
+
+    public static final int DEFAULT_MIN_SIZE = 256 * 1024;
+    public static final int DEFAULT_AVG_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    // The gear table must never change, otherwise chunks no longer deduplicate
+    private static final long[] GEAR = new long[256];
+    static {
+        Random random = new Random(0x4E455353L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final InputStream ins;
+    private final int minSize;
+    private final int maxSize;
+    private final long mask;
+
+    private final byte[] buffer = new byte[64 * 1024];
+    private final byte[] chunk;
+    private int pos;
+    private int limit;
+
+    public ContentChunker(InputStream ins) {
+        this(ins, DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    public ContentChunker(InputStream ins, int minSize, int avgSize, int maxSize) {
+        AssertArgument.assertNotNull(ins, "Null input");
+        AssertArgument.assertTrue(Integer.bitCount(avgSize) == 1, "Average size must be a power of two: " + avgSize);
+        AssertArgument.assertTrue(0 < minSize && minSize <= avgSize && avgSize <= maxSize, "Invalid sizes: " + minSize + "/" + avgSize + "/" + maxSize);
+        this.ins = ins;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.chunk = new byte[maxSize];
+
+        // The top bits of the hash depend on the most bytes
+        int bits = Integer.numberOfTrailingZeros(avgSize);
+        this.mask = bits > 0 ? -1L << (64 - bits) : 0;
+    }
+
+    /**
+     * Read the next chunk, or null at the end of the input.
+     */
+    public byte[] nextChunk() throws IOException {
+
+        int length = 0;
+        long hash = 0;
+
+        while (length < maxSize) {
+
+            if (pos == limit && !fill())
+                break;
+
+            byte b = buffer[pos++];
+            chunk[length++] = b;
+
+            hash = (hash << 1) + GEAR[b & 0xFF];
+            if (length >= minSize && (hash & mask) == 0)
+                break;
+        }
+
+        return length > 0 ? Arrays.copyOf(chunk, length) : null;
+    }
+
+    private boolean fill() throws IOException {
+        int read = ins.read(buffer);
+        pos = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+}
@@ -0,0 +1,257 @@
+package io.nessus.ipfs.core;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nessus.utils.AssertArgument;
+import io.nessus.utils.FileUtils;
+
+/**
+ * A write-ahead journal for operations that encrypt and add content.
+ *
+ * Every operation has an entry under the data dir. It records the last completed
+ * stage and the artifacts of that stage. An interrupted operation that is started
+ * again resumes from its last completed stage, instead of encrypting the content again.
+ *
+ * An entry belongs to a fingerprint of its input. An entry for a different input
+ * is discarded together with its temporary artifacts. The entry is removed when
+ * the operation is done.
+ *
+ * On startup, entries that cannot be resumed and temporary content that no entry
+ * refers to are removed.
+ */
+public class ContentJournal {
+
+    static final Logger LOG = LoggerFactory.getLogger(ContentJournal.class);
+
+    public enum Stage {
+        
+        // Nothing was completed yet
+        STARTED, 
+        
+        // The encrypted content is in the tmp path
+        ENCRYPTED, 
+        
+        // The content and its metadata were added to IPFS
+        ADDED, 
+        
+        // The encrypted content was moved to the crypt path
+        STORED,
+        
+        // The file data was recorded on the blockchain
+        RECORDED
+    }
+
+    private final Path journalDir;
+
+    public ContentJournal(Path journalDir) {
+        AssertArgument.assertNotNull(journalDir, "Null journalDir");
+        this.journalDir = journalDir;
+    }
+
+    /**
+     * Begin or resume the given operation.
+     */
+    public synchronized Entry begin(String operation, String fingerprint) throws IOException {
+        AssertArgument.assertNotNull(operation, "Null operation");
+        AssertArgument.assertNotNull(fingerprint, "Null fingerprint");
+        
+        Entry entry = new Entry(journalDir.resolve(digest(operation) + ".properties"));
+        
+        if (entry.load()) {
+            
+            if (fingerprint.equals(entry.get("fingerprint"))) {
+                LOG.info("Resume {} from {}", operation, entry.getStage());
+                return entry;
+            }
+            
+            LOG.info("Discard {} at {}", operation, entry.getStage());
+            entry.remove();
+        }
+        
+        entry.props.clear();
+        entry.props.setProperty("operation", operation);
+        entry.props.setProperty("fingerprint", fingerprint);
+        entry.complete(Stage.STARTED);
+        
+        return entry;
+    }
+
+    /**
+     * Remove entries that cannot be resumed and the content of the given temp dir 
+     * that no remaining entry refers to.
+     * 
+     * This must only run while no operation is in progress, i.e. on startup.
+     */
+    public synchronized void recover(Path tmpDir) throws IOException {
+        AssertArgument.assertNotNull(tmpDir, "Null tmpDir");
+        
+        Set<Path> tmpPaths = new HashSet<>();
+        
+        File[] files = journalDir.toFile().listFiles();
+        for (File file : files != null ? files : new File[0]) {
+            
+            // An entry that was not completely written
+            if (file.getName().endsWith(".tmp")) {
+                Files.deleteIfExists(file.toPath());
+                continue;
+            }
+            
+            Entry entry = new Entry(file.toPath());
+            if (!entry.load()) 
+                continue;
+            
+            String tmpPath = entry.get("tmpPath");
+            boolean encrypted = entry.isCompleted(Stage.ENCRYPTED) && !entry.isCompleted(Stage.STORED);
+            
+            // Nothing to resume from, the content is gone or the operation is done
+            Stage stage = entry.getStage();
+            if (stage == Stage.STARTED || stage == Stage.RECORDED || encrypted && (tmpPath == null || !Paths.get(tmpPath).toFile().exists())) {
+                LOG.info("Recover, remove {}", entry);
+                entry.remove();
+                continue;
+            }
+            
+            if (encrypted) {
+                tmpPaths.add(Paths.get(tmpPath).toAbsolutePath().normalize());
+            }
+        }
+        
+        File[] tmpFiles = tmpDir.toFile().listFiles();
+        for (File file : tmpFiles != null ? tmpFiles : new File[0]) {
+            Path path = file.toPath().toAbsolutePath().normalize();
+            if (!tmpPaths.stream().anyMatch(tmpPath -> tmpPath.startsWith(path))) {
+                LOG.info("Recover, remove {}", path);
+                FileUtils.recursiveDelete(path);
+            }
+        }
+    }
+
+    /**
+     * A digest that identifies an operation or fingerprints an input.
+     */
+    public static String digest(String value) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = md.digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : bytes) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static class Entry {
+
+        private final Path path;
+        private final Properties props = new Properties();
+
+        Entry(Path path) {
+            this.path = path;
+        }
+
+        public Stage getStage() {
+            return Stage.valueOf(props.getProperty("stage", Stage.STARTED.name()));
+        }
+
+        /**
+         * True if the given stage has been completed
+         */
+        public boolean isCompleted(Stage stage) {
+            return getStage().compareTo(stage) >= 0;
+        }
+
+        public String get(String key) {
+            return props.getProperty(key);
+        }
+
+        public Entry put(String key, Object value) {
+            AssertArgument.assertNotNull(value, "Null value: " + key);
+            props.setProperty(key, value.toString());
+            return this;
+        }
+
+        /**
+         * Record the given stage and the artifacts that were put before.
+         *
+         * The entry is written to a temp file, which is synced and then renamed,
+         * so that a crash leaves either the previous or the new entry.
+         */
+        public synchronized void complete(Stage stage) throws IOException {
+            props.setProperty("stage", stage.name());
+            
+            Files.createDirectories(path.getParent());
+            Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmpPath.toFile())) {
+                props.store(fos, get("operation"));
+                fos.getChannel().force(true);
+            }
+            
+            Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        /**
+         * Remove the entry and the temporary artifacts it still refers to.
+         */
+        public synchronized void remove() throws IOException {
+            
+            String tmpPath = get("tmpPath");
+            if (tmpPath != null && !isCompleted(Stage.STORED)) {
+                FileUtils.recursiveDelete(path.getFileSystem().getPath(tmpPath));
+            }
+            
+            Files.deleteIfExists(path);
+        }
+
+        private boolean load() throws IOException {
+            if (!path.toFile().isFile()) 
+                return false;
+            try (InputStream ins = Files.newInputStream(path)) {
+                props.load(ins);
+            }
+            return true;
+        }
+
+        public String toString() {
+            return String.format("[op=%s, stage=%s]", get("operation"), getStage());
+        }
+    }
+}
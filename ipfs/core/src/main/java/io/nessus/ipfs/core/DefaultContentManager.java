@@ -20,33 +20,51 @@ package io.nessus.ipfs.core;
  * #L%
  */
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.math.BigDecimal;
 import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
+import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import javax.crypto.SecretKey;
@@ -66,9 +84,12 @@ import io.nessus.UTXO;
 import io.nessus.Wallet;
 import io.nessus.Wallet.Address;
 import io.nessus.cipher.AESCipher;
-import io.nessus.cipher.RSACipher;
+import io.nessus.cipher.AESParallelEngine;
+import io.nessus.cipher.ECKeyEncapsulation;
+import io.nessus.cipher.KeyEncapsulation;
+import io.nessus.cipher.RSAKeyEncapsulation;
 import io.nessus.cipher.utils.AESUtils;
-import io.nessus.cipher.utils.RSAUtils;
+import io.nessus.cipher.utils.RSAKeyCache;
 import io.nessus.ipfs.AHandle;
 import io.nessus.ipfs.AHandle.AHBuilder;
 import io.nessus.ipfs.ContentManager;
@@ -79,7 +100,11 @@ import io.nessus.ipfs.FHandle.FHWalker;
 import io.nessus.ipfs.FHandle.FHWalker.Visitor;
 import io.nessus.ipfs.NessusUserFault;
 import io.nessus.ipfs.client.IPFSClient;
+import io.nessus.ipfs.client.IPFSException;
 import io.nessus.ipfs.client.IPFSTimeoutException;
+import io.nessus.ipfs.client.UnixFSHasher;
+import io.nessus.ipfs.core.ContentJournal.Entry;
+import io.nessus.ipfs.core.ContentJournal.Stage;
 import io.nessus.utils.AssertArgument;
 import io.nessus.utils.AssertState;
 import io.nessus.utils.FileUtils;
@@ -90,6 +115,18 @@ public class DefaultContentManager implements ContentManager {
 
     static final Logger LOG = LoggerFactory.getLogger(DefaultContentManager.class);
 
+    // Smaller files are not worth a compression stage
+    static final int COMPRESSION_MIN_SIZE = 1024;
+    
+    // The number of bytes sampled to estimate compressibility
+    static final int COMPRESSION_SAMPLE_SIZE = 64 * 1024;
+    
+    // A sample must compress at least to this ratio
+    static final double COMPRESSION_MAX_RATIO = 0.9;
+    
+    // A mapped buffer cannot be larger than 2GB
+    static final long MAPPED_REGION_SIZE = 1L << 30;
+
     protected final ContentManagerConfig config;
     protected final IPFSClient ipfsClient;
     protected final Blockchain blockchain;
@@ -107,10 +144,29 @@ public class DefaultContentManager implements ContentManager {
     // is somewhat problematic. Because the here stored encrypted files are not subject 
     // to IPFS eviction policy, the lists may diverge possibly resulting in breakage of "show" on the gateway.
     // However, not all the information needed by this app (e.g. path) can be stored on the blockchain.
-    // Hence, an IPFS get is needed in any case to get at the IPFS file header. For large files this may result
-    // in an undesired performance hit. We may need to find ways to separate this metadata from the actual content.
+    // Hence, every add also publishes a small metadata object that is referenced from the same OP_RETURN.
+    // Listing content only gets the metadata, the content itself is fetched on an explicit get.
+    // Content that was recorded without metadata still needs an IPFS get to read the file headers.
     private final IPFSCache ipfsCache = new IPFSCache();
     
+    // Derived RSA key pairs, optionally backed by an encrypted keystore
+    private final RSAKeyCache keyCache;
+    
+    // Encrypts large files in parallel segments
+    private final AESParallelEngine aesEngine = new AESParallelEngine();
+    
+    // Unwrapped secret keys, kept only for a short time
+    private final SecretKeyCache secKeyCache = new SecretKeyCache();
+    
+    // Key encapsulation strategies by type
+    private final Map<String, KeyEncapsulation> encapsulations;
+    
+    // Compression strategies by type
+    private final Map<String, Compression> compressions;
+    
+    // Completed stages of add and send, so that interrupted operations can resume
+    private final ContentJournal journal;
+    
     public DefaultContentManager(ContentManagerConfig config) {
     	this.config = config;
 
@@ -122,8 +178,14 @@ public class DefaultContentManager implements ContentManager {
         fhvals = getFHeaderValues();
         ahmgr = new AHandleManager(this);
         fhmgr = new FHandleManager(this);
+        keyCache = createKeyCache();
+        encapsulations = createKeyEncapsulations();
+        compressions = createCompressions();
+        journal = new ContentJournal(getRootPath().resolve("journal"));
         
         LOG.info("{}{}", getClass().getSimpleName(), config);
+        
+        recoverJournal();
     }
 
     public DefaultContentManager(IPFSClient ipfsClient, Blockchain blockchain, ContentManagerConfig config) {
@@ -137,6 +199,12 @@ public class DefaultContentManager implements ContentManager {
         fhvals = getFHeaderValues();
         ahmgr = new AHandleManager(this);
         fhmgr = new FHandleManager(this);
+        keyCache = createKeyCache();
+        encapsulations = createKeyEncapsulations();
+        compressions = createCompressions();
+        journal = new ContentJournal(getRootPath().resolve("journal"));
+        
+        recoverJournal();
     }
 
     public ContentManagerConfig getConfig() {
@@ -163,6 +231,18 @@ public class DefaultContentManager implements ContentManager {
 		return fhmgr;
 	}
 
+	public KeyEncapsulation getKeyEncapsulation(String keyType) {
+		KeyEncapsulation kem = encapsulations.get(keyType);
+		AssertArgument.assertNotNull(kem, "Unsupported key type: " + keyType);
+		return kem;
+	}
+
+	public Compression getCompression(String type) {
+		Compression comp = compressions.get(type);
+		AssertArgument.assertNotNull(comp, "Unsupported compression: " + type);
+		return comp;
+	}
+
 	@Override
     public AHandle registerAddress(Address owner) throws GeneralSecurityException, IOException {
     	AHandle ahandle = registerAddress(owner, false);
@@ -182,12 +262,14 @@ public class DefaultContentManager implements ContentManager {
         if (ahandle != null && ahandle.isAvailable())
             return ahandle;
 
-        // Generate a new RSA key pair derived from the private blockchain key
+        // Generate a new key pair derived from the private blockchain key
+        // The configured key type is recorded with the registration
 
-        KeyPair keyPair = RSAUtils.newKeyPair(owner);
+        KeyEncapsulation kem = getKeyEncapsulation(config.getKeyType());
+        KeyPair keyPair = kem.getKeyPair(owner);
         PublicKey pubKey = keyPair.getPublic();
         
-        ahandle = new AHBuilder(owner, pubKey).build();
+        ahandle = new AHBuilder(owner, pubKey, kem.getType()).build();
         ahandle = ahmgr.addIpfsContent(ahandle, dryRun);
         Multihash cid = ahandle.getCid();
         
@@ -361,7 +443,7 @@ public class DefaultContentManager implements ContentManager {
         NessusUserFault.assertTrue(fileOverwrite || !plainPath.toFile().exists(), "Local content already exists: " + dstPath);
         
         mkdirs(plainPath.getParent());
-        Files.copy(input, plainPath, StandardCopyOption.REPLACE_EXISTING);
+        FileUtils.copyToFile(input, plainPath);
         
         return addIpfsContent(owner, dstPath, dryRun);
     }
@@ -380,29 +462,60 @@ public class DefaultContentManager implements ContentManager {
         
         assertArgumentHasPrivateKey(owner);
         
-        PublicKey pubKey = assertAddressRegistration(owner);
+        AHandle ahandle = assertAddressRegistration(owner);
         
         LOG.info("Start IPFS Add: {} {}", owner, srcPath);
         
         FHandle fhandle = buildTreeFromPath(owner, srcPath);
         
-        LOG.info("IPFS encrypt: {}", fhandle.toString(true));
+        // Resume an interrupted add of the same content
         
-        fhandle = encrypt(owner, fhandle, pubKey);
+        Entry entry = null;
+        if (!dryRun) {
+            String fingerprint = fingerprint(fhandle.getFilePath(), ahandle);
+            entry = journal.begin("add " + owner.getAddress() + " " + srcPath, fingerprint);
+        }
         
-        LOG.info("IPFS add: {}", fhandle.toString(true));
+        FHandle fhenc = resumeEncrypted(owner, entry);
+        if (fhenc != null) {
+            
+            LOG.info("IPFS resume: {}", entry);
+            
+            fhandle = fhenc;
+            
+        } else {
+            
+            LOG.info("IPFS encrypt: {}", fhandle.toString(true));
+            
+            fhandle = encrypt(owner, fhandle, ahandle, dryRun);
+            
+            completeEncrypted(entry, fhandle);
+        }
         
         Path tmpPath = fhandle.getFilePath();
         AssertState.assertTrue(tmpPath.toFile().exists(), "Encrypted content does not exists: " + tmpPath);
         
-        fhandle = fhmgr.addIpfsContent(fhandle, dryRun);
-        AssertState.assertNotNull(fhandle.getCid(), "No ipfs content ids");
+        if (entry == null || !entry.isCompleted(Stage.ADDED)) {
+            
+            LOG.info("IPFS add: {}", fhandle.toString(true));
+            
+            fhandle = fhmgr.addIpfsContent(fhandle, dryRun);
+            AssertState.assertNotNull(fhandle.getCid(), "No ipfs content ids");
+            
+            // Add the metadata, so that the content can be listed without getting it
+            fhandle = fhmgr.addIpfsMetadata(fhandle, ahandle.getKeyType(), dryRun);
+            
+            completeAdded(entry, fhandle);
+        }
         
         // Move the temp file to its crypt path
         
         Multihash cid = fhandle.getCid();
         Path fullPath = getCryptPath(owner).resolve(cid.toBase58());
-        FileUtils.atomicMove(tmpPath, fullPath);
+        if (entry == null || !entry.isCompleted(Stage.STORED)) {
+            FileUtils.atomicMove(tmpPath, fullPath);
+            if (entry != null) entry.complete(Stage.STORED);
+        }
         URL furl = fullPath.toUri().toURL();
         
         // Check if this content is already known
@@ -410,7 +523,7 @@ public class DefaultContentManager implements ContentManager {
         FHandle fhres = fhmgr.getUnspentHandle(owner, cid, FHandle.class);
         if (fhres != null) {
         	
-        	if (!fhres.isAvailable()) {
+        	if (!fhres.isAvailable() || fhres.getURL() == null) {
         		
         		fhres = new FHBuilder(fhres)
         				.url(furl)
@@ -430,7 +543,7 @@ public class DefaultContentManager implements ContentManager {
             
             LOG.info("IPFS record: {}", fhres);
             
-            fhres = recordFileData(owner, fhres);
+            fhres = recordFileData(owner, fhres, entry);
             
         }
         
@@ -459,6 +572,8 @@ public class DefaultContentManager implements ContentManager {
         
         ipfsCache.put(fhres);
         
+        if (entry != null) entry.remove();
+        
         LOG.info("Done IPFS Add: {}", fhres.toString(true));
         
         return fhres;
@@ -541,8 +656,89 @@ public class DefaultContentManager implements ContentManager {
         return fhandle;
     }
     
+    @Override
+    public SeekableByteChannel openIpfsContent(Address owner, Multihash cid, Path path, Long timeout) throws IOException, GeneralSecurityException {
+        AssertArgument.assertNotNull(owner, "Null owner");
+        AssertArgument.assertNotNull(cid, "Null cid");
+
+        assertArgumentHasPrivateKey(owner);
+
+        LOG.info("Start IPFS Open: {} {} {}", owner, cid, path);
+        
+        FHandle fhfile = ipfsGetFile(owner, cid, path, timeout);
+        File srcFile = fhfile.getFilePath().toFile();
+        
+        FileChannel channel = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+        try {
+            
+            FHeader header = FHeader.fromChannel(fhvals, channel);
+            
+            // Raw segmented content is decrypted in place, segment by segment
+            if (!header.isBase64() && header.compression == null && !header.chunked) {
+                SecretKey secKey = getSecretKey(fhfile, header, new HashMap<>());
+                channel.position(header.length);
+                return new AESCipher().decrypt(secKey, channel, null);
+            }
+            
+        } catch (IOException | GeneralSecurityException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+        
+        channel.close();
+        
+        // Otherwise, decrypt the file to a temporary file that is deleted on close
+        
+        Path tmpFile = Files.createTempFile(getTempPath(), "open", null);
+        decryptFile(fhfile, tmpFile, new HashMap<>());
+        
+        return FileChannel.open(tmpFile, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+    
+    @Override
+    public InputStream streamIpfsContent(Address owner, Multihash cid, Path path, Long timeout) throws IOException, GeneralSecurityException {
+        AssertArgument.assertNotNull(owner, "Null owner");
+        AssertArgument.assertNotNull(cid, "Null cid");
+
+        assertArgumentHasPrivateKey(owner);
+
+        LOG.info("Start IPFS Stream: {} {} {}", owner, cid, path);
+        
+        FHandle fhfile = ipfsGetFile(owner, cid, path, timeout);
+        File srcFile = fhfile.getFilePath().toFile();
+        
+        // The plain content goes straight from the crypt cache to the reader
+        FileChannel channel = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+        try {
+            
+            FHeader header = FHeader.fromChannel(fhvals, channel);
+            SecretKey secKey = getSecretKey(fhfile, header, new HashMap<>());
+            InputStream plain = openPlainContent(channel, header, secKey, useParallelEngine(srcFile));
+            
+            return new FilterInputStream(plain) {
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        channel.close();
+                        LOG.info("Done IPFS Stream: {}", fhfile);
+                    }
+                }
+            };
+            
+        } catch (IOException | GeneralSecurityException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+    
     @Override
     public FHandle sendIpfsContent(Address owner, Multihash cid, Address toAddr, Long timeout) throws IOException, GeneralSecurityException {
+        return sendIpfsContent(owner, cid, toAddr, false, timeout);
+    }
+    
+    @Override
+    public FHandle sendIpfsContent(Address owner, Multihash cid, Address toAddr, boolean rewrap, Long timeout) throws IOException, GeneralSecurityException {
         AssertArgument.assertNotNull(owner, "Null owner");
         AssertArgument.assertNotNull(toAddr, "Null toAddr");
         AssertArgument.assertNotNull(cid, "Null cid");
@@ -551,34 +747,72 @@ public class DefaultContentManager implements ContentManager {
         assertArgumentHasPrivateKey(owner);
         assertArgumentNotChangeAddress(owner);
         
-        PublicKey pubKey = assertAddressRegistration(toAddr);
+        AHandle ahandle = assertAddressRegistration(toAddr);
         
         LOG.info("Start IPFS Send: {} {} => {}", owner, cid, toAddr);
         
         timeout = timeout != null ? timeout : config.getIpfsTimeout();
-        FHandle fhandle = ipfsGet(owner, cid, timeout);
         
-        LOG.info("IPFS decrypt: {}", fhandle.toString(true));
-
-        fhandle = decrypt(fhandle, null, false);
-
-        FHandle fhres = new FHBuilder(fhandle)
-        		.secretToken(null)
-                .owner(toAddr)
-                .cid(null)
-                .build();
-
-        LOG.info("IPFS encrypt: {}", fhres);
+        if (rewrap) {
+            FHandle fhres = rewrapIpfsContent(owner, cid, ahandle, timeout);
+            if (fhres != null) {
+                LOG.info("Done IPFS Send: {}", fhres);
+                return fhres;
+            }
+        }
         
-        fhres = encrypt(owner, fhres, pubKey);
-        Path tmpPath = fhres.getFilePath();
+        // Resume an interrupted send of the same content
         
-        LOG.info("IPFS add: {}", fhres.toString(true));
+        String fingerprint = fingerprint(cid, ahandle);
+        Entry entry = journal.begin("send " + owner.getAddress() + " " + cid.toBase58() + " " + toAddr.getAddress(), fingerprint);
         
-        fhres = fhmgr.addIpfsContent(fhres, false);
+        FHandle fhres = resumeEncrypted(toAddr, entry);
+        if (fhres != null) {
+            
+            LOG.info("IPFS resume: {}", entry);
+            
+        } else {
+            
+            FHandle fhandle = ipfsGet(owner, cid, timeout);
+            
+            LOG.info("IPFS decrypt: {}", fhandle.toString(true));
+            
+            fhandle = decrypt(fhandle, null, false);
+            Path plainPath = fhandle.getFilePath();
+            
+            fhres = new FHBuilder(fhandle)
+                    .secretToken(null)
+                    .owner(toAddr)
+                    .cid(null)
+                    .build();
+            
+            LOG.info("IPFS encrypt: {}", fhres);
+            
+            fhres = encrypt(owner, fhres, ahandle, false);
+            
+            // The plain content is no longer needed
+            FileUtils.recursiveDelete(plainPath);
+            
+            completeEncrypted(entry, fhres);
+        }
+        
+        Path tmpPath = fhres.getFilePath();
         
-        Path cryptPath = getCryptPath(toAddr).resolve(cid.toBase58());
-        FileUtils.atomicMove(tmpPath, cryptPath);
+        if (!entry.isCompleted(Stage.ADDED)) {
+            
+            LOG.info("IPFS add: {}", fhres.toString(true));
+            
+            fhres = fhmgr.addIpfsContent(fhres, false);
+            fhres = fhmgr.addIpfsMetadata(fhres, ahandle.getKeyType(), false);
+            
+            completeAdded(entry, fhres);
+        }
+        
+        Path cryptPath = getCryptPath(toAddr).resolve(fhres.getCid().toBase58());
+        if (!entry.isCompleted(Stage.STORED)) {
+            FileUtils.atomicMove(tmpPath, cryptPath);
+            entry.complete(Stage.STORED);
+        }
 
         URL furl = cryptPath.toUri().toURL();
         fhres = new FHBuilder(fhres)
@@ -587,13 +821,171 @@ public class DefaultContentManager implements ContentManager {
         
         LOG.info("IPFS record: {}", fhres.toString(true));
         
-        fhres = recordFileData(owner, fhres);
+        fhres = recordFileData(owner, fhres, entry);
+        
+        entry.remove();
         
         LOG.info("Done IPFS Send: {}", fhres.toString(true));
         
         return fhres;
     }
 
+    // A fingerprint of the plain tree and the key it is wrapped for
+    private String fingerprint(Path plainPath, AHandle ahandle) throws IOException {
+        
+        StringBuilder sb = new StringBuilder(keyFingerprint(ahandle));
+        Files.walkFileTree(plainPath, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path relPath = plainPath.relativize(file);
+                sb.append(String.format("%s %d %d%n", relPath, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        
+        return ContentJournal.digest(sb.toString());
+    }
+
+    // A fingerprint of the content and the key it is wrapped for
+    private String fingerprint(Multihash cid, AHandle ahandle) {
+        return ContentJournal.digest(keyFingerprint(ahandle) + cid.toBase58());
+    }
+
+    private String keyFingerprint(AHandle ahandle) {
+        String encKey = Base64.getEncoder().encodeToString(ahandle.getPubKey().getEncoded());
+        return String.format("%s %s%n", ahandle.getKeyType(), encKey);
+    }
+
+    // Rebuild the encrypted tree of an interrupted operation, or null if there is none
+    private FHandle resumeEncrypted(Address owner, Entry entry) throws IOException {
+        
+        if (entry == null || !entry.isCompleted(Stage.ENCRYPTED))
+            return null;
+        
+        // After the move, the encrypted content is in the crypt path
+        Path encPath;
+        if (entry.isCompleted(Stage.STORED)) {
+            encPath = getCryptPath(owner).resolve(entry.get("cid"));
+        } else {
+            encPath = Paths.get(entry.get("tmpPath"));
+        }
+        
+        if (!encPath.toFile().exists()) {
+            LOG.warn("Cannot resume, no encrypted content at: {}", encPath);
+            return null;
+        }
+        
+        Path path = Paths.get(entry.get("path"));
+        FHandle fhres = new FHBuilder(owner, path, encPath.toUri().toURL()).build();
+        fhres = fhmgr.createFromEncrypted(fhres);
+        
+        if (!path.equals(fhres.getPath())) {
+            LOG.warn("Cannot resume, unexpected path: {}", fhres.getPath());
+            return null;
+        }
+        
+        if (entry.isCompleted(Stage.ADDED)) {
+            fhres = new FHBuilder(fhres)
+                    .cid(Multihash.fromBase58(entry.get("cid")))
+                    .metadataCid(Multihash.fromBase58(entry.get("metaCid")))
+                    .build();
+        }
+        
+        return fhres;
+    }
+
+    private void completeEncrypted(Entry entry, FHandle fhandle) throws IOException {
+        if (entry != null) {
+            entry.put("path", fhandle.getPath())
+                .put("tmpPath", fhandle.getFilePath())
+                .complete(Stage.ENCRYPTED);
+        }
+    }
+
+    private void completeAdded(Entry entry, FHandle fhandle) throws IOException {
+        if (entry != null) {
+            entry.put("cid", fhandle.getCid().toBase58())
+                .put("metaCid", fhandle.getMetadataCid().toBase58())
+                .complete(Stage.ADDED);
+        }
+    }
+
+    // Record the file data only once, an interrupted operation may have done so already
+    private FHandle recordFileData(Address owner, FHandle fhandle, Entry entry) throws IOException, GeneralSecurityException {
+        
+        if (entry != null && entry.isCompleted(Stage.RECORDED)) {
+            LOG.info("IPFS already recorded: {}", entry.get("txId"));
+            return new FHBuilder(fhandle)
+                    .txId(entry.get("txId"))
+                    .build();
+        }
+        
+        FHandle fhres = recordFileData(owner, fhandle);
+        
+        if (entry != null) {
+            entry.put("txId", fhres.getTxId())
+                .complete(Stage.RECORDED);
+        }
+        
+        return fhres;
+    }
+
+    // Remove what interrupted operations left behind and cannot be resumed
+    private void recoverJournal() {
+        try {
+            journal.recover(getTempPath());
+        } catch (IOException ex) {
+            LOG.warn("Cannot recover journal", ex);
+        }
+    }
+
+    // Publish metadata for the recipient that references the existing content
+    private FHandle rewrapIpfsContent(Address owner, Multihash cid, AHandle ahandle, long timeout) throws IOException, GeneralSecurityException {
+        
+        FHandle fhandle = fhmgr.getUnspentHandle(owner, cid, FHandle.class);
+        AssertState.assertNotNull(fhandle, "Cannot obtain IPFS content: " + cid);
+        
+        FMetadata metadata = fhmgr.findIpfsMetadata(fhandle, timeout);
+        if (metadata == null) {
+            LOG.info("IPFS headers exceed probe, cannot rewrap: {}", cid);
+            return null;
+        }
+        
+        AssertState.assertEquals(owner.getAddress(), metadata.owner, "Unexpected owner: " + metadata.owner);
+        
+        LOG.info("IPFS rewrap: {}", metadata);
+        
+        // All files in a tree share the same secret key
+        SecretKey secKey = unwrapSecretKey(owner, metadata.keyType, metadata.token);
+        
+        KeyEncapsulation kem = getKeyEncapsulation(ahandle.getKeyType());
+        byte[] tokBytes = kem.wrap(ahandle.getPubKey(), secKey);
+        String secToken = Base64.getEncoder().encodeToString(tokBytes);
+        
+        // Content that was itself sent this way references the original content
+        Address toAddr = ahandle.getOwner();
+        Multihash content = metadata.content != null ? metadata.content : cid;
+        metadata = metadata.rewrap(toAddr.getAddress(), ahandle.getKeyType(), secToken, content);
+        
+        // The linked content is identified by its metadata
+        Multihash metaCid = ipfsClient.addSingle(metadata.toBytes(), false);
+        
+        // The txId is replaced when the file data is recorded
+        FHandle fhres = new FHBuilder(toAddr, fhandle.getTxId(), metaCid)
+                .path(metadata.getRoot().path)
+                .secretToken(secToken)
+                .metadataCid(metaCid)
+                .available(true)
+                .build();
+        
+        LOG.info("IPFS record: {}", fhres);
+        
+        fhres = recordFileData(owner, fhres);
+        
+        return fhres;
+    }
+
     @Override
     public AHandle findAddressRegistation(Address owner, Long timeout) {
         AssertArgument.assertNotNull(owner, "Null owner");
@@ -716,6 +1108,218 @@ public class DefaultContentManager implements ContentManager {
         return mkdirs(tmpPath);
     }
 
+    private RSAKeyCache createKeyCache() {
+        Path storeDir = config.isKeyStore() ? getRootPath().resolve("keystore") : null;
+        return new RSAKeyCache(RSAKeyCache.DEFAULT_CAPACITY, storeDir);
+    }
+    
+    protected Map<String, KeyEncapsulation> createKeyEncapsulations() {
+        Map<String, KeyEncapsulation> result = new HashMap<>();
+        for (KeyEncapsulation kem : Arrays.asList(new RSAKeyEncapsulation(keyCache), new ECKeyEncapsulation())) {
+            result.put(kem.getType(), kem);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+    
+    protected Map<String, Compression> createCompressions() {
+        Map<String, Compression> result = new HashMap<>();
+        for (Compression comp : Arrays.asList(new DeflateCompression(), new SnappyCompression())) {
+            result.put(comp.getType(), comp);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+    
+    /**
+     * Select the compression for the given file, or null for none.
+     * 
+     * A sample from the start of the file is compressed with the fast codec.
+     * Content that does not shrink enough (e.g. media or archives) is left as it is.
+     * Large files get the fast codec, smaller ones the better ratio.
+     */
+    protected Compression selectCompression(File srcFile) throws IOException {
+        
+        long length = srcFile.length();
+        if (length < COMPRESSION_MIN_SIZE) 
+            return null;
+        
+        byte[] sample = new byte[(int) Math.min(length, COMPRESSION_SAMPLE_SIZE)];
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(srcFile))) {
+            dis.readFully(sample);
+        }
+        
+        int size = getCompression(SnappyCompression.TYPE).compressedSize(sample);
+        if (size > sample.length * COMPRESSION_MAX_RATIO) 
+            return null;
+        
+        String type = useParallelEngine(srcFile) ? SnappyCompression.TYPE : DeflateCompression.TYPE;
+        return getCompression(type);
+    }
+    
+    private SecretKey unwrapSecretKey(Address owner, String keyType, String encToken) throws GeneralSecurityException {
+        
+        SecretKey secKey = secKeyCache.get(owner, encToken);
+        if (secKey == null) {
+            KeyEncapsulation kem = getKeyEncapsulation(keyType);
+            PrivateKey privKey = kem.getKeyPair(owner).getPrivate();
+            secKey = kem.unwrap(privKey, Base64.getDecoder().decode(encToken));
+            secKeyCache.put(owner, encToken, secKey);
+        }
+        
+        return secKey;
+    }
+    
+    // Content that was sent by re-wrapping its key has the recipient's token in the handle,
+    // while the file header still has the token of the original owner
+    private SecretKey getSecretKey(FHandle fhfile, FHeader header, Map<String, SecretKey> treeKeys) throws GeneralSecurityException {
+        
+        Address owner = fhfile.getOwner();
+        String encToken = fhfile.getSecretToken() != null ? fhfile.getSecretToken() : header.token;
+        
+        SecretKey secKey = treeKeys.get(encToken);
+        if (secKey == null) {
+            
+            // The token was wrapped with the key type of the owner's registration
+            String keyType = header.keyType;
+            if (!encToken.equals(header.token) && secKeyCache.get(owner, encToken) == null) {
+                keyType = assertAddressRegistration(owner).getKeyType();
+            }
+            
+            secKey = unwrapSecretKey(owner, keyType, encToken);
+            treeKeys.put(encToken, secKey);
+        }
+        
+        return secKey;
+    }
+    
+    private boolean useParallelEngine(File file) {
+        return file.length() >= config.getParallelThreshold();
+    }
+    
+    private boolean useChunking(File file) {
+        long threshold = config.getChunkThreshold();
+        return threshold > 0 && file.length() >= threshold;
+    }
+    
+    // Every chunk gets a key from its own content, so that unchanged chunks produce the same block again
+    private ChunkManifest addChunks(Address owner, InputStream ins, boolean dryRun) throws IOException, GeneralSecurityException {
+        
+        AESCipher aes = new AESCipher();
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        
+        List<ChunkManifest.Chunk> chunks = new ArrayList<>();
+        ContentChunker chunker = new ContentChunker(ins);
+        
+        byte[] bytes = chunker.nextChunk();
+        while (bytes != null) {
+            
+            Multihash hash = new Multihash(Multihash.Type.sha2_256, md.digest(bytes));
+            SecretKey chunkKey = AESUtils.newSecretKey(owner, hash);
+            byte[] chunkIV = AESUtils.getIV(owner, hash);
+            
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length + 1024);
+            OutputStream encrypted = aes.encrypt(chunkKey, chunkIV, baos, null);
+            encrypted.write(bytes);
+            encrypted.close();
+            
+            // The add pins the chunk, nothing else references it in IPFS
+            Multihash cid = ipfsClient.addSingle(baos.toByteArray(), dryRun);
+            chunks.add(new ChunkManifest.Chunk(cid, bytes.length, chunkKey.getEncoded()));
+            
+            bytes = chunker.nextChunk();
+        }
+        
+        ChunkManifest manifest = new ChunkManifest(chunks);
+        LOG.info("IPFS chunks: {}", manifest);
+        
+        return manifest;
+    }
+    
+    // Chunks are fetched one after the other while the plain content is read
+    private InputStream openChunks(ChunkManifest manifest) {
+        
+        AESCipher aes = new AESCipher();
+        long timeout = config.getIpfsTimeout();
+        Iterator<ChunkManifest.Chunk> itchunks = manifest.chunks.iterator();
+        
+        return new InputStream() {
+            
+            InputStream current = new ByteArrayInputStream(new byte[0]);
+            
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                int n = read(b, 0, 1);
+                return n < 0 ? -1 : b[0] & 0xFF;
+            }
+            
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = current.read(b, off, len);
+                while (n < 0 && itchunks.hasNext()) {
+                    current.close();
+                    current = nextChunk(itchunks.next());
+                    n = current.read(b, off, len);
+                }
+                return n;
+            }
+            
+            public void close() throws IOException {
+                current.close();
+            }
+            
+            private InputStream nextChunk(ChunkManifest.Chunk chunk) throws IOException {
+                
+                CompletableFuture<InputStream> future = ipfsClient.cat(chunk.cid);
+                try {
+                    
+                    InputStream ins = future.get(timeout, TimeUnit.MILLISECONDS);
+                    SecretKey chunkKey = AESUtils.decodeSecretKey(chunk.key);
+                    return aes.decrypt(chunkKey, ins);
+                    
+                } catch (GeneralSecurityException ex) {
+                    
+                    throw new IOException(ex);
+                    
+                } catch (InterruptedException | ExecutionException ex) {
+                    
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IPFSException) 
+                        throw (IPFSException)cause;
+                    else 
+                        throw new IPFSException(ex);
+                    
+                } catch (TimeoutException ex) {
+                    
+                    // Abort the request that we no longer wait for
+                    future.cancel(true);
+                    throw new IPFSTimeoutException(ex);
+                }
+            }
+        };
+    }
+    
+    // Open the content that follows the header, large files are memory mapped
+    private InputStream openContent(FileChannel channel, FHeader header, boolean mapped) throws IOException {
+        AssertState.assertTrue(header.length <= channel.size(), "Invalid header length: " + header.length);
+        return openContent(channel, header.length, mapped);
+    }
+    
+    // Open the channel from the given offset, files larger than a mapped region are mapped region by region
+    private InputStream openContent(FileChannel channel, long offset, boolean mapped) throws IOException {
+        
+        long size = channel.size();
+        
+        if (mapped) {
+            List<InputStream> regions = new ArrayList<>();
+            for (long pos = offset; pos < size; pos += MAPPED_REGION_SIZE) {
+                MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, pos, Math.min(MAPPED_REGION_SIZE, size - pos));
+                regions.add(StreamUtils.toInputStream(buffer));
+            }
+            return new SequenceInputStream(Collections.enumeration(regions));
+        }
+        
+        channel.position(offset);
+        return new BufferedInputStream(Channels.newInputStream(channel));
+    }
+    
     private Path createTempDir() throws IOException {
         return Files.createTempDirectory(getTempPath(), "");
     }
@@ -726,12 +1330,30 @@ public class DefaultContentManager implements ContentManager {
         if (fhandle == null) 
         	return null;
         
-        if (!fhandle.isAvailable())
+        // Handles that were resolved from metadata have no local content yet
+        if (!fhandle.isAvailable() || fhandle.getURL() == null)
         	fhandle = fhmgr.getIpfsContent(fhandle, timeout);
         
         return fhandle;
     }
     
+    // Get the encrypted content and find the file with the given path in it
+    private FHandle ipfsGetFile(Address owner, Multihash cid, Path path, Long timeout) throws IOException, IPFSTimeoutException {
+        
+        timeout = timeout != null ? timeout : config.getIpfsTimeout();
+        FHandle fhandle = ipfsGet(owner, cid, timeout);
+        AssertState.assertNotNull(fhandle, "Cannot obtain IPFS content: " + cid);
+        
+        // A file in a tree is given by its path
+        FHandle fhfile = path != null ? fhandle.findChild(path) : fhandle;
+        NessusUserFault.assertTrue(fhfile != null && !fhfile.hasChildren(), "Not a file in the IPFS content: " + path);
+        
+        File srcFile = fhfile.getFilePath().toFile();
+        AssertState.assertTrue(srcFile.isFile(), "Cannot obtain source file: " + srcFile);
+        
+        return fhfile;
+    }
+    
     private FHandle recordFileData(Address owner, FHandle fhandle) throws GeneralSecurityException {
 
         AssertArgument.assertTrue(fhandle.isEncrypted(), "File not encrypted: " + fhandle);
@@ -806,24 +1428,27 @@ public class DefaultContentManager implements ContentManager {
         return result;
     }
     
-    private FHandle encrypt(Address owner, FHandle fhandle, PublicKey pubKey) throws IOException, GeneralSecurityException {
+    private FHandle encrypt(Address owner, FHandle fhandle, AHandle ahandle, boolean dryRun) throws IOException, GeneralSecurityException {
         AssertArgument.assertTrue(!fhandle.isEncrypted(), "File already encrypted: " + fhandle);
         
         AESCipher aes = new AESCipher();
-        RSACipher rsa = new RSACipher();
         
-        // Get the CID for the plain content
-        // DO NOT ACTUALLY ADD THIS TO IPFS (--hash-only)
+        // Wrap the secret key the way the recipient has registered
+        String keyType = ahandle.getKeyType();
+        KeyEncapsulation kem = getKeyEncapsulation(keyType);
+        
+        // Get the CIDs for the plain content of the entire tree
+        // These are computed locally, the content is not sent to IPFS
         
-        List<Multihash> cids = ipfsClient.add(fhandle.getFilePath(), true);
-        AssertState.assertTrue(cids.size() > 0, "Cannot obtain content ids for: " + fhandle);
-        Multihash cid = cids.get(cids.size() - 1);
+        Path rootPath = fhandle.getFilePath().toAbsolutePath().normalize();
+        Map<Path, Multihash> cids = UnixFSHasher.hashTree(rootPath);
+        Multihash cid = cids.get(rootPath);
         
         // Get the AES secret key for the entire tree
         SecretKey secKey = AESUtils.newSecretKey(owner, cid);
         
         // Encrypt the AES secret key
-        byte[] tokBytes = rsa.encrypt(pubKey, secKey.getEncoded());
+        byte[] tokBytes = kem.wrap(ahandle.getPubKey(), secKey);
         String secToken = Base64.getEncoder().encodeToString(tokBytes);
 
         // Get the recipient addr from the root handle 
@@ -852,31 +1477,52 @@ public class DefaultContentManager implements ContentManager {
                 File srcFile = fhaux.getFilePath().toFile();
                 AssertState.assertTrue(srcFile.isFile(), "Cannot obtain source file: " + srcFile);
                 
-                // Get the CID for the plain content
-                // DO NOT ACTUALLY ADD THIS TO IPFS (--hash-only)
+                // Get the CID for the plain content from the tree
                 
-                Multihash cid = ipfsClient.addSingle(fhaux.getFilePath(), true);
+                Multihash cid = cids.get(srcFile.toPath().toAbsolutePath().normalize());
+                AssertState.assertNotNull(cid, "Cannot obtain content id for: " + srcFile);
                 
                 // Create a content based AES key & IV
                 byte[] iv = AESUtils.getIV(owner, cid);
                 
-                try (FileWriter fw = new FileWriter(tmpPath.toFile())) {
+                // Large files are split into chunks that are added to IPFS separately
+                boolean chunked = useChunking(srcFile);
+                
+                // Compressible content is compressed before it gets encrypted
+                Compression comp = !chunked ? selectCompression(srcFile) : null;
+                String compType = comp != null ? comp.getType() : null;
+                
+                try (OutputStream fos = new FileOutputStream(tmpPath.toFile())) {
                     
                     // Write the file header
-                    FHeader header = FHeader.fromFHandle(fhvals, fhres);
-                    header.write(fw);
+                    OutputStream bos = new BufferedOutputStream(fos);
+                    FHeader header = FHeader.fromFHandle(fhvals, fhres, keyType, compType, chunked);
+                    header.write(bos);
                     
-                    try (InputStream ins = new FileInputStream(srcFile)) {
-                        
-                        // Encrypt the file content
-                        InputStream encrypted = aes.encrypt(secKey, iv, ins, null);
+                    // Encrypt the file content and append the raw cipher text
+                    // The content is streamed in segments, so that memory usage does not depend on the file size
+                    
+                    // Large files are encrypted on all cores, unless the single threaded compression limits the throughput anyway
+                    
+                    // Large files are memory mapped
+                    try (FileChannel channel = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ)) {
                         
-                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                        StreamUtils.copyStream(encrypted, baos);
-                        String base64Encoded = Base64.getEncoder().encodeToString(baos.toByteArray());
+                        InputStream ins = openContent(channel, 0, useParallelEngine(srcFile));
                         
-                        // Append encrypted file content
-                        fw.write(base64Encoded);
+                        if (chunked) {
+                            ChunkManifest manifest = addChunks(owner, ins, dryRun);
+                            OutputStream encrypted = aes.encrypt(secKey, iv, bos, null);
+                            encrypted.write(manifest.toBytes());
+                            encrypted.close();
+                        } else if (comp == null && useParallelEngine(srcFile)) {
+                            aesEngine.encrypt(secKey, iv, ins, bos, null);
+                            bos.flush();
+                        } else {
+                            OutputStream encrypted = aes.encrypt(secKey, iv, bos, null);
+                            if (comp != null) encrypted = comp.compress(encrypted);
+                            StreamUtils.copyStream(ins, encrypted);
+                            encrypted.close();
+                        }
                         
                     } catch (GeneralSecurityException ex) {
                         throw new IllegalStateException(ex);
@@ -890,15 +1536,86 @@ public class DefaultContentManager implements ContentManager {
         return fhres;
     }
 
-    public FHandle decrypt(FHandle fhandle, Path dstPath, boolean storePlain) throws IOException, GeneralSecurityException {
-        AssertArgument.assertNotNull(fhandle, "Null fhandle");
+    // Decrypt a single file, the keys of a tree are unwrapped only once
+    private void decryptFile(FHandle fhfile, Path tmpFile, Map<String, SecretKey> treeKeys) throws IOException, GeneralSecurityException {
+        
+        try (OutputStream fos = new BufferedOutputStream(new FileOutputStream(tmpFile.toFile()))) {
+            decryptFile(fhfile, fos, treeKeys);
+        }
+    }
+
+    // Decrypt a single file to the given stream, which is not closed
+    private void decryptFile(FHandle fhfile, OutputStream out, Map<String, SecretKey> treeKeys) throws IOException, GeneralSecurityException {
+        
+        File srcFile = fhfile.getFilePath().toFile();
+        
+        // Read the file header
+        
+        try (FileChannel channel = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ)) {
 
+            // Only the first few hundred bytes are read for the header
+            FHeader header = FHeader.fromChannel(fhvals, channel);
+            
+            SecretKey secKey = getSecretKey(fhfile, header, treeKeys);
+
+            // Decrypt the file content, large files on all cores
+            // Compressed content is decrypted and decompressed on the calling thread
+            if (!header.chunked && header.compression == null && useParallelEngine(srcFile)) {
+                InputStream ins = openContent(channel, header, true);
+                if (header.isBase64()) ins = openBase64(ins);
+                aesEngine.decrypt(secKey, ins, out, null);
+            } else {
+                try (InputStream plain = openPlainContent(channel, header, secKey, useParallelEngine(srcFile))) {
+                    StreamUtils.copyStream(plain, out); 
+                }
+            }
+            out.flush();
+        }
+    }
+    
+    // Open the plain content that follows the header, the channel is not closed
+    private InputStream openPlainContent(FileChannel channel, FHeader header, SecretKey secKey, boolean mapped) throws IOException, GeneralSecurityException {
+        
         AESCipher aes = new AESCipher();
-        RSACipher rsa = new RSACipher();
         
+        // Read the raw content or Base64 encoded content up to the end of line
+        InputStream ins = openContent(channel, header, mapped);
+        if (header.isBase64()) ins = openBase64(ins);
+        
+        // Chunked content is fetched from IPFS chunk by chunk
+        if (header.chunked) {
+            try (InputStream decrypted = aes.decrypt(secKey, ins)) {
+                return openChunks(ChunkManifest.fromStream(decrypted));
+            }
+        }
+        
+        InputStream decrypted = aes.decrypt(secKey, ins);
+        if (header.compression != null) {
+            // The plain size is bounded by what the format can produce from the content size
+            Compression comp = getCompression(header.compression);
+            long maxSize = (channel.size() - header.length) * comp.getMaxRatio();
+            decrypted = comp.decompress(decrypted, maxSize);
+        }
+        return decrypted;
+    }
+    
+    // Base64 encoded content ends with the line
+    private InputStream openBase64(InputStream fis) {
+        return Base64.getDecoder().wrap(new InputStream() {
+            public int read() throws IOException {
+                int ch = fis.read();
+                return ch == '\n' || ch == '\r' ? -1 : ch;
+            }
+        });
+    }
+    
+    public FHandle decrypt(FHandle fhandle, Path dstPath, boolean storePlain) throws IOException, GeneralSecurityException {
+        AssertArgument.assertNotNull(fhandle, "Null fhandle");
+
         Address owner = fhandle.getOwner();
-        KeyPair keyPair = RSAUtils.newKeyPair(owner);
-        PrivateKey privKey = keyPair.getPrivate();
+        
+        // All files in a tree share the same token, unwrap it only once
+        Map<String, SecretKey> treeKeys = new HashMap<>();
         
         Path tmpDir = createTempDir();
         FHandle fhres = FHWalker.walkTree(fhandle, new Visitor() {
@@ -918,41 +1635,16 @@ public class DefaultContentManager implements ContentManager {
                 if (fhandle.hasChildren()) 
                     return fhres;
                 
-                // Read the file header
-                
                 File srcFile = fhandle.getFilePath().toFile();
                 AssertState.assertTrue(srcFile.isFile(), "Cannot obtain source file: " + srcFile);
                 
-                FHeader header;
-                try (FileReader fr = new FileReader(srcFile)) {
-                    header = FHeader.fromReader(fhvals, fr);
-                }
+                // [TODO] How is it possible that the tmp file already exists?
+                Path tmpFile = tmpDir.resolve(fhres.getPath());
+                mkdirs(tmpFile.getParent());
                 
-                // Read the content
-                try (FileReader fr = new FileReader(srcFile)) {
-
-                    // Skip the header
-                    for (int i = 0; i < header.length; i++) {
-                        fr.read();
-                    }
-                    
-                    byte[] encToken = Base64.getDecoder().decode(header.token);
-                    byte[] token = rsa.decrypt(privKey, encToken);
-                    SecretKey secKey = AESUtils.decodeSecretKey(token);
-
-                    // Read Base64 encoded content
-                    String base64Encoded = new BufferedReader(fr).readLine();
-                    byte[] encBytes = Base64.getDecoder().decode(base64Encoded);
-                    ByteArrayInputStream ins = new ByteArrayInputStream(encBytes);
+                try {
                     
-                    // Decrypt the file content
-                    InputStream decrypted = aes.decrypt(secKey, ins);
-                    
-                    // [TODO] How is it possible that the tmp file already exists?
-                    Path tmpFile = tmpDir.resolve(fhres.getPath());
-                    mkdirs(tmpFile.getParent());
-
-                    Files.copy(decrypted, tmpFile, StandardCopyOption.REPLACE_EXISTING); 
+                    decryptFile(fhandle, tmpFile, treeKeys);
                     
                     fhres = new FHBuilder(fhres.getRoot())
                             .findChild(path)
@@ -980,10 +1672,8 @@ public class DefaultContentManager implements ContentManager {
             Path tmpPath = fhres.getFilePath();
             mkdirs(plainPath.getParent());
             
-            // Cannot use atomic move because of potential cross device link
-            FileUtils.recursiveDelete(plainPath);
-            FileUtils.recursiveCopy(tmpPath, plainPath);
-            FileUtils.recursiveDelete(tmpPath);
+            // The temp path is on the same file system, so this is usually a rename
+            FileUtils.recursiveMove(tmpPath, plainPath);
             
             FHandle fhaux = buildTreeFromPath(owner, dstPath);
             fhres = new FHBuilder(fhaux)
@@ -1040,10 +1730,10 @@ public class DefaultContentManager implements ContentManager {
         AssertArgument.assertTrue(!addr.getLabels().contains(Wallet.LABEL_CHANGE), "Cannot use change address: " + addr);
     }
     
-	private PublicKey assertAddressRegistration(Address addr) {
+	private AHandle assertAddressRegistration(Address addr) {
 		AHandle ahandle = findAddressRegistation(addr, null);
         AssertArgument.assertTrue(ahandle != null && ahandle.isAvailable(), "Cannot obtain encryption key for: " + addr);
-		return ahandle.getPubKey();
+		return ahandle;
 	}
 
     private Path assertValidPlainPath(Address owner, Path path, boolean allowEmpty) {
@@ -0,0 +1,91 @@
+package io.nessus.ipfs.core;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflate compression, slower but with a better ratio.
+ */
+public class DeflateCompression implements Compression {
+
+    public static final String TYPE = "deflate";
+
+    // The buffer size for the compressed streams
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    // A deflate block expands to at most 258 bytes per 2 bits
+    static final int MAX_RATIO = 1032;
+
+    private final int level;
+
+    public DeflateCompression() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public DeflateCompression(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public int getMaxRatio() {
+        return MAX_RATIO;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public InputStream decompress(InputStream ins) throws IOException {
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(ins, inflater, BUFFER_SIZE) {
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
@@ -21,21 +21,27 @@ package io.nessus.ipfs.core;
  */
 
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Stack;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 import io.ipfs.multihash.Multihash;
 import io.nessus.Tx;
@@ -48,14 +54,22 @@ import io.nessus.ipfs.FHandle;
 import io.nessus.ipfs.FHandle.FHBuilder;
 import io.nessus.ipfs.FHandle.FHReference;
 import io.nessus.ipfs.client.IPFSClient;
-import io.nessus.ipfs.client.IPFSException;
 import io.nessus.ipfs.client.IPFSNotFoundException;
 import io.nessus.ipfs.client.IPFSTimeoutException;
 import io.nessus.utils.AssertArgument;
 import io.nessus.utils.AssertState;
+import io.nessus.utils.FileUtils;
+import io.nessus.utils.FutureUtils;
 
 public class FHandleManager extends AbstractHandleManager<FHandle> {
 	
+    // The number of bytes we get from the start of a file to read its header
+    static final int HEADER_PROBE_SIZE = 1024;
+    
+    // The number of probe requests that are in flight at the same time
+    static final int PROBE_WINDOW = 8;
+    
+	
 	FHandleManager(DefaultContentManager cntmgr) {
 		super(cntmgr);
 	}
@@ -76,7 +90,34 @@ public class FHandleManager extends AbstractHandleManager<FHandle> {
         return fhres;
 	}
 
+	/**
+	 * Add the metadata for the given encrypted tree, so that it can be listed without getting the content.
+	 */
+	public FHandle addIpfsMetadata(FHandle fhandle, String keyType, boolean dryRun) throws IOException {
+		AssertArgument.assertTrue(fhandle.isEncrypted(), "File not encrypted: " + fhandle);
+		
+		IPFSClient ipfsClient = cntmgr.getIPFSClient();
+		FHeaderValues fhvals = cntmgr.getFHeaderValues();
+		
+		FMetadata metadata = FMetadata.fromFHandle(fhvals, fhandle, keyType);
+		Multihash metaCid = ipfsClient.addSingle(metadata.toBytes(), dryRun);
+		
+		FHandle fhres = new FHBuilder(fhandle).metadataCid(metaCid).build();
+		
+		return fhres;
+	}
+
     public FHandle getIpfsContent(FHandle fhandle, long timeout) throws IOException, IPFSTimeoutException {
+        return join(getIpfsContentAsync(fhandle, timeout));
+    }
+
+    /**
+     * Get the content into the crypt path of its owner.
+     * 
+     * The returned future fails with an {@link IPFSTimeoutException} when the content 
+     * cannot be had within the given timeout, which also aborts the pending requests.
+     */
+    public CompletableFuture<FHandle> getIpfsContentAsync(FHandle fhandle, long timeout) {
         AssertArgument.assertNotNull(fhandle, "Null fhandle");
         AssertArgument.assertNotNull(fhandle.getOwner(), "Null owner");
         AssertArgument.assertNotNull(fhandle.getCid(), "Null cid");
@@ -85,65 +126,148 @@ public class FHandleManager extends AbstractHandleManager<FHandle> {
         Multihash cid = fhandle.getCid();
         
         IPFSCache ipfsCache = cntmgr.getIPFSCache();
-        FHandle fhres = ipfsCache.get(cid, FHandle.class);
-        if (fhres.isAvailable()) return fhres;
+        FHandle fhbase = ipfsCache.get(cid, FHandle.class);
+        if (fhbase.isAvailable() && fhbase.getURL() != null) 
+            return CompletableFuture.completedFuture(fhbase);
         
         // Fetch the content from IPFS
         
-        int attempt = fhres.getAttempt();
-        LOG.info("{}: {}", logPrefix("attempt", attempt),  fhres);
+        int attempt = fhbase.getAttempt();
+        LOG.info("{}: {}", logPrefix("attempt", attempt),  fhbase);
         
         long before = System.currentTimeMillis();
+        long deadline = before + timeout;
         
-        try {
-            
-            Path cryptPath = cntmgr.getCryptPath(owner);
-        	IPFSClient ipfsClient = cntmgr.getIPFSClient();
-            Future<Path> future = ipfsClient.get(cid, cryptPath);
-            Path resPath = future.get(timeout, TimeUnit.MILLISECONDS);
-            
-            URL furl = resPath.toUri().toURL();
-            fhres = new FHBuilder(fhres).url(furl).build();
-            
-            File rootFile = fhres.getFilePath().toFile();
-            AssertState.assertTrue(rootFile.exists(), "Cannot find IPFS content at: " + rootFile);
-            
-            if (rootFile.isDirectory()) {
-            	fhres = createFHandleTree(fhres);
-            } else {
-            	fhres = createFromFileHeader(null, fhres);
-            }
-            
-            fhres = new FHBuilder(fhres)
-                    .available(true)
-                    .build();
-            
-        } catch (InterruptedException | ExecutionException ex) {
+        FHandle fhaux = withoutTree(fhbase);
+        Path cryptPath = cntmgr.getCryptPath(owner);
+        IPFSClient ipfsClient = cntmgr.getIPFSClient();
+        
+        CompletableFuture<FHandle> future;
+        if (cid.equals(fhaux.getMetadataCid())) {
             
-            Throwable cause = ex.getCause();
-            if (cause instanceof IPFSException) 
-                throw (IPFSException)cause;
-            else 
-                throw new IPFSException(ex);
+            // Linked content is described by its metadata, which references 
+            // the content of the original owner. The file headers still name that owner.
+            // Linked content is cached under the id of its metadata
             
-        } catch (TimeoutException ex) {
+            future = catMetadataAsync(cid, deadline).thenCompose(FutureUtils.unchecked(metadata -> {
+                AssertState.assertNotNull(metadata.content, "No content reference: " + metadata);
+                
+                Path tmpDir = Files.createTempDirectory(cntmgr.getTempPath(), "");
+                return withDeadline(ipfsClient.get(metadata.content, tmpDir), deadline)
+                        .thenApplyAsync(FutureUtils.unchecked(tmpPath -> {
+                            Path resPath = cryptPath.resolve(cid.toBase58());
+                            FileUtils.atomicMove(tmpPath, resPath);
+                            FileUtils.recursiveDelete(tmpDir);
+                            return createFromMetadata(withURL(fhaux, resPath), metadata, resPath);
+                        }), executorService);
+            }));
             
-            throw new IPFSTimeoutException(ex);
+        } else {
             
-        } finally {
+            future = withDeadline(ipfsClient.get(cid, cryptPath), deadline)
+                    .thenApplyAsync(FutureUtils.unchecked(resPath -> createFromEncrypted(withURL(fhaux, resPath))), executorService);
+        }
+        
+        future = future.thenApply(fh -> new FHBuilder(fh).available(true).build());
+        
+        return recordAttempt(future, fhaux, before);
+    }
+
+    /**
+     * Resolve the tree from its metadata, without getting the content.
+     */
+    public FHandle getIpfsMetadata(FHandle fhandle, long timeout) throws IOException, IPFSTimeoutException {
+        return join(getIpfsMetadataAsync(fhandle, timeout));
+    }
+
+    public CompletableFuture<FHandle> getIpfsMetadataAsync(FHandle fhandle, long timeout) {
+        AssertArgument.assertNotNull(fhandle, "Null fhandle");
+        AssertArgument.assertNotNull(fhandle.getOwner(), "Null owner");
+        AssertArgument.assertNotNull(fhandle.getCid(), "Null cid");
+        AssertArgument.assertNotNull(fhandle.getMetadataCid(), "Null metadata cid");
+        
+        Multihash cid = fhandle.getCid();
+        
+        IPFSCache ipfsCache = cntmgr.getIPFSCache();
+        FHandle fhbase = ipfsCache.get(cid, FHandle.class);
+        if (fhbase.isAvailable()) 
+            return CompletableFuture.completedFuture(fhbase);
+        
+        // Fetch the metadata from IPFS
+        
+        int attempt = fhbase.getAttempt();
+        LOG.info("{}: {}", logPrefix("metadata", attempt),  fhbase);
+        
+        long before = System.currentTimeMillis();
+        
+        CompletableFuture<FHandle> future = catMetadataAsync(fhandle.getMetadataCid(), before + timeout)
+                .thenApplyAsync(metadata -> createFromMetadata(fhbase, metadata), executorService);
+        
+        return recordAttempt(future, fhbase, before);
+    }
+
+    /**
+     * Resolve the tree from the headers of its files, without getting the content.
+     * 
+     * Only the start of every file is fetched. We fall back to a full get 
+     * when a header is larger than the probe.
+     */
+    public FHandle getIpfsHeaders(FHandle fhandle, long timeout) throws IOException, IPFSTimeoutException {
+        return join(getIpfsHeadersAsync(fhandle, timeout));
+    }
+
+    public CompletableFuture<FHandle> getIpfsHeadersAsync(FHandle fhandle, long timeout) {
+        AssertArgument.assertNotNull(fhandle, "Null fhandle");
+        AssertArgument.assertNotNull(fhandle.getOwner(), "Null owner");
+        AssertArgument.assertNotNull(fhandle.getCid(), "Null cid");
+        
+        Multihash cid = fhandle.getCid();
+        
+        IPFSCache ipfsCache = cntmgr.getIPFSCache();
+        FHandle fhbase = ipfsCache.get(cid, FHandle.class);
+        if (fhbase.isAvailable()) 
+            return CompletableFuture.completedFuture(fhbase);
+        
+        // Fetch the file headers from IPFS
+        
+        int attempt = fhbase.getAttempt();
+        LOG.info("{}: {}", logPrefix("headers", attempt),  fhbase);
+        
+        long before = System.currentTimeMillis();
+        
+        CompletableFuture<FHandle> future = probeHeadersAsync(cid, before + timeout)
+                .thenApplyAsync(metadata -> metadata != null ? createFromMetadata(fhbase, metadata) : null, executorService);
+        
+        // The fallback counts as the same attempt
+        
+        return recordAttempt(future, fhbase, before).thenCompose(fhres -> {
             
-            long elapsed = System.currentTimeMillis() - before;
-            fhres = new FHBuilder(fhres)
-                    .elapsed(fhres.getElapsed() + elapsed)
-                    .attempt(fhres.getAttempt() + 1)
-                    .build();
+            if (fhres != null) 
+                return CompletableFuture.completedFuture(fhres);
             
-            ipfsCache.put(fhres);
-        }
+            LOG.info("{}: {}", logPrefix("headers exceed probe", attempt),  fhbase);
+            long remaining = Math.max(1, timeout - (System.currentTimeMillis() - before));
+            return getIpfsContentAsync(fhbase, remaining);
+        });
+    }
+
+    /**
+     * Get the metadata of the given content, without getting the content.
+     * 
+     * Content without a metadata object is described by the headers of its files.
+     * 
+     * @return The metadata or null, when a header is larger than the probe
+     */
+    public FMetadata findIpfsMetadata(FHandle fhandle, long timeout) throws IOException, IPFSTimeoutException {
+        AssertArgument.assertNotNull(fhandle, "Null fhandle");
+        AssertArgument.assertNotNull(fhandle.getCid(), "Null cid");
         
-        LOG.info("IPFS found: {}", fhres.toString(true));
+        long deadline = System.currentTimeMillis() + timeout;
         
-        return fhres;
+        if (fhandle.getMetadataCid() != null) 
+            return join(catMetadataAsync(fhandle.getMetadataCid(), deadline));
+        
+        return join(probeHeadersAsync(fhandle.getCid(), deadline));
     }
 
     public List<FHandle> findContentAsync(Address owner, long timeout) {
@@ -156,8 +280,8 @@ public class FHandleManager extends AbstractHandleManager<FHandle> {
 			}
 
 			@Override
-			public Callable<FHandle> newWorker(FHandle fh) {
-				return new AsyncGetCallable(fh, timeout);
+			public CompletableFuture<FHandle> newWorker(FHandle fh) {
+				return getIpfsAsync(fh, timeout);
 			}
 		};
 		
@@ -196,7 +320,10 @@ public class FHandleManager extends AbstractHandleManager<FHandle> {
             // Not owned by the given address
             if (!owner.equals(outAddr)) return null;
             
+            Multihash metaCid = dataHandler.extractFileMetadata(txdata);
+            
             fhandle = new FHBuilder(owner, tx.txId(), cid)
+                    .metadataCid(metaCid)
                     .owner(owner)
                     .build();
         }
@@ -207,8 +334,26 @@ public class FHandleManager extends AbstractHandleManager<FHandle> {
         return fhandle;
     }
     
+    /**
+     * Rebuild the tree of local encrypted content from its file headers.
+     */
+    public FHandle createFromEncrypted(FHandle fhandle) throws IOException {
+        AssertArgument.assertNotNull(fhandle, "Null fhandle");
+        
+        File rootFile = fhandle.getFilePath().toFile();
+        AssertState.assertTrue(rootFile.exists(), "Cannot find IPFS content at: " + rootFile);
+        
+        if (rootFile.isDirectory()) 
+            return createFHandleTree(fhandle);
+        
+        return createFromFileHeader(null, fhandle);
+    }
+    
     public FHandle createFHandleTree(FHandle fhandle) throws IOException {
         
+        // The tree is rebuilt from the file headers
+        FHandle fhbase = withoutTree(fhandle);
+        
         Stack<FHandle> fhstack = new Stack<>();
         
         // Find the root node path by reading the 
@@ -225,7 +370,7 @@ public class FHandleManager extends AbstractHandleManager<FHandle> {
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
                 
                 URL furl = file.toUri().toURL();
-                FHandle fhaux = new FHBuilder(fhandle)
+                FHandle fhaux = new FHBuilder(fhbase)
                         .url(furl)
                         .build();
                 
@@ -287,7 +432,7 @@ public class FHandleManager extends AbstractHandleManager<FHandle> {
                         relPath = fhroot.getPath().resolve(relPath);
                         URL furl = fullPath.toUri().toURL();
                         
-                        fhres = new FHBuilder(fhandle)
+                        fhres = new FHBuilder(fhbase)
                                 .parent(parent)
                                 .path(relPath)
                                 .url(furl)
@@ -297,7 +442,7 @@ public class FHandleManager extends AbstractHandleManager<FHandle> {
                 } else {
                     
                     URL furl = fullPath.toUri().toURL();
-                    FHandle fhaux = new FHBuilder(fhandle)
+                    FHandle fhaux = new FHBuilder(fhbase)
                             .url(furl)
                             .build();
 
@@ -320,28 +465,230 @@ public class FHandleManager extends AbstractHandleManager<FHandle> {
         Path fullPath = fhandle.getFilePath();
         AssertState.assertTrue(fullPath.toFile().isFile(), "Cannot find IPFS content at: " + fullPath);
         
-        try (FileReader fr = new FileReader(fullPath.toFile())) {
-
-        	FHeaderValues fhvals = cntmgr.getFHeaderValues();
-            FHeader header = FHeader.fromReader(fhvals, fr);
-            Address owner = assertAddress(header.owner);
-            String encToken = header.token;
-            Path path = header.path;
+    	FHeaderValues fhvals = cntmgr.getFHeaderValues();
+        FHeader header = FHeader.fromPath(fhvals, fullPath);
+        Address owner = assertAddress(header.owner);
+        String encToken = header.token;
+        Path path = header.path;
+        
+        AssertState.assertEquals(fhandle.getOwner(), owner, "Unexpected owner: " + owner);
+        
+        boolean available = parent != null ? parent.isAvailable() : false;
+        
+        FHandle fhres = new FHBuilder(fhandle)
+                .secretToken(encToken)
+                .available(available)
+                .parent(parent)
+                .owner(owner)
+                .path(path)
+                .build();
+        
+        return fhres;
+    }
+    
+    // Completes with null when the headers cannot be read from the probes
+    private CompletableFuture<FMetadata> probeHeadersAsync(Multihash cid, long deadline) {
+        
+        // Siblings are probed concurrently, within a window of requests for the entire tree
+        ProbeWindow window = new ProbeWindow(PROBE_WINDOW);
+        
+        return probeHeadersAsync(cid, null, deadline, window)
+                .thenApply(probe -> probe != null ? resolveHeaders(probe.headers, probe.entries) : null);
+    }
+    
+    private FMetadata resolveHeaders(Map<Path, FHeader> headers, List<FMetadata.Entry> entries) {
+        
+        // An empty tree has no header to tell us the root
+        if (headers.isEmpty())
+            return null;
+        
+        // The root path is the header path without the path in the tree
+        
+        Path relPath = headers.keySet().iterator().next();
+        FHeader first = headers.get(relPath);
+        Path rootPath = first.path;
+        for (int i = 0; rootPath != null && relPath != null && i < relPath.getNameCount(); i++) {
+            rootPath = rootPath.getParent();
+        }
+        AssertState.assertNotNull(rootPath, "Cannot obtain root path from: " + first.path);
+        
+        for (FHeader header : headers.values()) {
+            if (!header.owner.equals(first.owner) || !header.token.equals(first.token))
+                return null;
+        }
+        
+        List<FMetadata.Entry> resolved = new ArrayList<>();
+        for (FMetadata.Entry entry : entries) {
+            Path path = entry.path.toString().isEmpty() ? rootPath : rootPath.resolve(entry.path);
+            resolved.add(new FMetadata.Entry(path, entry.directory));
+        }
+        
+        FHeaderValues fhvals = cntmgr.getFHeaderValues();
+        return FMetadata.fromEntries(fhvals, first.owner, first.keyType, first.token, resolved);
+    }
+    
+    // Completes with null when a header in the given subtree cannot be read from its probe
+    private CompletableFuture<Probe> probeHeadersAsync(Multihash cid, Path relPath, long deadline, ProbeWindow window) {
+        
+        IPFSClient ipfsClient = cntmgr.getIPFSClient();
+        FHeaderValues fhvals = cntmgr.getFHeaderValues();
+        
+        Path entryPath = relPath != null ? relPath : Paths.get("");
+        
+        return window.submit(() -> withDeadline(ipfsClient.links(cid), deadline)).thenCompose(links -> {
             
-            AssertState.assertEquals(fhandle.getOwner(), owner, "Unexpected owner: " + owner);
+            // A directory, its children are probed concurrently
+            if (!links.isEmpty()) {
+                List<CompletableFuture<Probe>> children = new ArrayList<>();
+                for (Entry<String, Multihash> link : links.entrySet()) {
+                    Path childPath = relPath != null ? relPath.resolve(link.getKey()) : Paths.get(link.getKey());
+                    children.add(probeHeadersAsync(link.getValue(), childPath, deadline, window));
+                }
+                
+                // Merged in link order, parents come before their children
+                CompletableFuture<?>[] array = children.toArray(new CompletableFuture<?>[children.size()]);
+                return CompletableFuture.allOf(array).thenApply(v -> {
+                    Probe probe = new Probe();
+                    probe.entries.add(new FMetadata.Entry(entryPath, true));
+                    for (CompletableFuture<Probe> child : children) {
+                        Probe aux = child.join();
+                        if (aux == null) return null;
+                        probe.headers.putAll(aux.headers);
+                        probe.entries.addAll(aux.entries);
+                    }
+                    return probe;
+                });
+            }
+            
+            // A file, read its header from the probe
+            return window.submit(() -> withDeadline(ipfsClient.cat(cid, 0, HEADER_PROBE_SIZE), deadline)).thenApply(ins -> {
+                Probe probe = new Probe();
+                try (InputStream input = ins) {
+                    FHeader header = FHeader.fromStream(fhvals, input);
+                    probe.headers.put(relPath, header);
+                } catch (IOException | IllegalStateException ex) {
+                    LOG.debug("Cannot read header from probe: {}", cid, ex);
+                    return null;
+                }
+                
+                probe.entries.add(new FMetadata.Entry(entryPath, false));
+                return probe;
+            });
+        });
+    }
+    
+    private CompletableFuture<FMetadata> catMetadataAsync(Multihash metaCid, long deadline) {
+        
+    	IPFSClient ipfsClient = cntmgr.getIPFSClient();
+    	FHeaderValues fhvals = cntmgr.getFHeaderValues();
+    	
+        return withDeadline(ipfsClient.cat(metaCid), deadline).thenApply(FutureUtils.unchecked(ins -> {
+            try (InputStream input = ins) {
+                return FMetadata.fromStream(fhvals, input);
+            }
+        }));
+    }
+    
+    // Every attempt is counted and cached, successful or not. A null result is no attempt.
+    private CompletableFuture<FHandle> recordAttempt(CompletableFuture<FHandle> future, FHandle fhandle, long before) {
+        
+        return future.handle((fhres, th) -> {
             
-            boolean available = parent != null ? parent.isAvailable() : false;
+            if (th == null && fhres == null)
+                return null;
             
-            FHandle fhres = new FHBuilder(fhandle)
-                    .secretToken(encToken)
-                    .available(available)
-                    .parent(parent)
-                    .owner(owner)
-                    .path(path)
+            FHandle fhaux = fhres != null ? fhres : fhandle;
+            long elapsed = System.currentTimeMillis() - before;
+            fhaux = new FHBuilder(fhaux)
+                    .elapsed(fhaux.getElapsed() + elapsed)
+                    .attempt(fhaux.getAttempt() + 1)
                     .build();
             
-            return fhres;
+            IPFSCache ipfsCache = cntmgr.getIPFSCache();
+            ipfsCache.put(fhaux);
+            
+            if (th != null)
+                throw new CompletionException(FutureUtils.unwrap(th));
+            
+            LOG.info("IPFS found: {}", fhaux.toString(true));
+            
+            return fhaux;
+        });
+    }
+    
+    private FHandle withURL(FHandle fhandle, Path path) throws IOException {
+        URL furl = path.toUri().toURL();
+        return new FHBuilder(fhandle).url(furl).build();
+    }
+    
+    private FHandle createFromMetadata(FHandle fhandle, FMetadata metadata) {
+        
+        Address owner = assertAddress(metadata.owner);
+        AssertState.assertEquals(fhandle.getOwner(), owner, "Unexpected owner: " + owner);
+        
+        // Parents come before their children
+        
+        Map<Path, FHandle> parents = new HashMap<>();
+        FHandle fhbase = withoutTree(fhandle);
+        FHandle fhroot = null;
+        
+        for (FMetadata.Entry entry : metadata.entries) {
+            
+            FHandle parent = entry.path.getParent() != null ? parents.get(entry.path.getParent()) : null;
+            
+            FHBuilder builder = new FHBuilder(fhbase)
+                    .available(true)
+                    .path(entry.path);
+            
+            // The root and all files carry the token
+            if (fhroot == null || !entry.directory) {
+            	builder.secretToken(metadata.token);
+            }
+            
+            if (fhroot == null) {
+            	fhroot = builder.build();
+            	parents.put(entry.path, fhroot);
+            } else {
+                AssertState.assertNotNull(parent, "Cannot find parent for: " + entry.path);
+            	FHandle fhres = builder.parent(parent).build();
+            	parents.put(entry.path, fhres);
+            }
+        }
+        
+        return fhroot;
+    }
+    
+    // Resolve the tree from its metadata, with the files of the content at the given path
+    private FHandle createFromMetadata(FHandle fhandle, FMetadata metadata, Path contentPath) throws IOException {
+        
+        FHandle fhroot = createFromMetadata(fhandle, metadata);
+        Path rootPath = fhroot.getPath();
+        
+        FHBuilder builder = new FHBuilder(fhroot);
+        for (FMetadata.Entry entry : metadata.entries) {
+            Path fullPath = contentPath.resolve(rootPath.relativize(entry.path).toString());
+            AssertState.assertTrue(fullPath.toFile().exists(), "Cannot find IPFS content at: " + fullPath);
+            builder.findChild(entry.path).url(fullPath.toUri().toURL());
         }
+        
+        return builder.build();
+    }
+    
+    // Drop a tree that was resolved from metadata
+    private FHandle withoutTree(FHandle fhandle) {
+        
+        if (!fhandle.hasChildren()) 
+            return fhandle;
+        
+        FHandle fhres = new FHBuilder(fhandle.getOwner(), fhandle.getTxId(), fhandle.getCid())
+                .metadataCid(fhandle.getMetadataCid())
+                .available(fhandle.isAvailable())
+                .url(fhandle.getURL())
+                .attempt(fhandle.getAttempt())
+                .elapsed(fhandle.getElapsed())
+                .build();
+        
+        return fhres;
     }
     
     private String logPrefix(String action, int attempt) {
@@ -351,79 +698,142 @@ public class FHandleManager extends AbstractHandleManager<FHandle> {
         return String.format("IPFS %s [%s] [%d/%d]", action, trdName, attempt, ipfsAttempts);
     }
     
-    class AsyncGetCallable implements Callable<FHandle> {
+    // Try the metadata or file headers first, then fall back to the content
+    private CompletableFuture<FHandle> getIpfsAsync(FHandle fhandle, long timeout) {
         
-        final long timeout;
-        final FHandle fhandle;
+        Multihash cid = fhandle.getCid();
         
-        AsyncGetCallable(FHandle fhandle, long timeout) {
-            AssertArgument.assertNotNull(fhandle, "Null fhandle");
-            this.timeout = timeout;
-            this.fhandle = fhandle;
-        }
-
-        @Override
-        public FHandle call() throws Exception {
-            
-        	IPFSCache ipfsCache = cntmgr.getIPFSCache();
-        	
-            FHandle fhaux = fhandle;
-            Multihash cid = fhandle.getCid();
+        CompletableFuture<FHandle> future = CompletableFuture.completedFuture(fhandle).thenCompose(fhaux -> {
             
-            try {
-                
-                fhaux = getIpfsContent(fhaux, timeout);
-                
-            } catch (Exception ex) {
-                
-                fhaux = processException(cid, ex);
-                
-            } finally {
-                
-                ipfsCache.put(fhaux);
+            if (fhaux.getMetadataCid() != null && fhaux.getAttempt() == 0) {
+                return getIpfsMetadataAsync(fhaux, timeout);
+            } else if (fhaux.getAttempt() == 0) {
+                return getIpfsHeadersAsync(fhaux, timeout);
+            } else {
+                return getIpfsContentAsync(fhaux, timeout);
             }
-
-            return fhaux;
-        }
+        });
         
-        private FHandle processException(Multihash cid, Exception ex) throws InterruptedException {
+        return future.handle((fhres, th) -> {
             
-            IPFSCache ipfsCache = cntmgr.getIPFSCache();
-            ContentManagerConfig config = cntmgr.getConfig();
+            FHandle fhaux = th != null ? processException(cid, FutureUtils.unwrap(th)) : fhres;
             
-            FHandle fhres = ipfsCache.get(cid, FHandle.class);
-            int attempt = fhres.getAttempt();
+            IPFSCache ipfsCache = cntmgr.getIPFSCache();
+            ipfsCache.put(fhaux);
             
-            if (ex instanceof IPFSTimeoutException) {
-                
-                if (config.getIpfsAttempts() <= attempt) {
-                    fhres = new FHBuilder(fhres)
-                            .expired(true)
-                            .build();
-                }
-                
-                LOG.info("{}: {}", logPrefix("timeout", attempt),  fhres);
-            }
+            return fhaux;
+        });
+    }
+    
+    private FHandle processException(Multihash cid, Throwable ex) {
+        
+        IPFSCache ipfsCache = cntmgr.getIPFSCache();
+        ContentManagerConfig config = cntmgr.getConfig();
+        
+        FHandle fhres = ipfsCache.get(cid, FHandle.class);
+        int attempt = fhres.getAttempt();
+        
+        if (ex instanceof IPFSTimeoutException) {
             
-            else if (ex instanceof IPFSNotFoundException) {
-                
+            if (config.getIpfsAttempts() <= attempt) {
                 fhres = new FHBuilder(fhres)
                         .expired(true)
                         .build();
-                
-                LOG.warn("{}: {}", logPrefix("not found", attempt),  fhres);
             }
             
-            else {
-                
-                fhres = new FHBuilder(fhres)
-                        .expired(true)
-                        .build();
-                
-                LOG.error(logPrefix("error", attempt) + ": " + fhres, ex);
-            }
+            LOG.info("{}: {}", logPrefix("timeout", attempt),  fhres);
+        }
+        
+        else if (ex instanceof IPFSNotFoundException) {
+            
+            fhres = new FHBuilder(fhres)
+                    .expired(true)
+                    .build();
             
-            return fhres;
+            LOG.warn("{}: {}", logPrefix("not found", attempt),  fhres);
+        }
+        
+        else {
+            
+            fhres = new FHBuilder(fhres)
+                    .expired(true)
+                    .build();
+            
+            LOG.error(logPrefix("error", attempt) + ": " + fhres, ex);
+        }
+        
+        return fhres;
+    }
+    
+    // The headers and entries of a probed subtree, in the order of the tree
+    static class Probe {
+        
+        final Map<Path, FHeader> headers = new LinkedHashMap<>();
+        final List<FMetadata.Entry> entries = new ArrayList<>();
+    }
+    
+    // Starts no more than the given number of requests at a time, the others are queued.
+    // No thread waits for a place, a request that completes starts the next one.
+    static class ProbeWindow {
+        
+        private final int size;
+        private final Deque<Runnable> queue = new ArrayDeque<>();
+        private int active;
+        private boolean draining;
+        
+        ProbeWindow(int size) {
+            this.size = size;
+        }
+        
+        <R> CompletableFuture<R> submit(Supplier<CompletableFuture<R>> request) {
+            CompletableFuture<R> result = new CompletableFuture<>();
+            Runnable task = () -> {
+                CompletableFuture<R> future;
+                try {
+                    future = request.get();
+                } catch (RuntimeException ex) {
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(ex);
+                }
+                future.whenComplete((res, th) -> {
+                    release();
+                    if (th != null) result.completeExceptionally(th);
+                    else result.complete(res);
+                });
+            };
+            synchronized (this) {
+                queue.add(task);
+            }
+            drain();
+            return result;
+        }
+        
+        private void release() {
+            synchronized (this) {
+                active--;
+            }
+            drain();
+        }
+        
+        // Requests that complete straight away, e.g. from a cache, would otherwise 
+        // start the next one recursively. Only one thread starts requests at a time.
+        private void drain() {
+            synchronized (this) {
+                if (draining) return;
+                draining = true;
+            }
+            while (true) {
+                Runnable next;
+                synchronized (this) {
+                    if (active >= size || queue.isEmpty()) {
+                        draining = false;
+                        return;
+                    }
+                    active++;
+                    next = queue.poll();
+                }
+                next.run();
+            }
         }
     }
-}
\ No newline at end of file
+}
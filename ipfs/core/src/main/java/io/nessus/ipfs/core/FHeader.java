@@ -1,105 +1,396 @@
 package io.nessus.ipfs.core;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import io.nessus.cipher.RSAKeyEncapsulation;
 import io.nessus.ipfs.FHandle;
 import io.nessus.utils.AssertArgument;
 import io.nessus.utils.AssertState;
 
+/**
+ * The header that precedes the content of every encrypted file.
+ *
+ * Version 2.0 is a binary container
+ *
+ *  int     magic "NSF2"
+ *  int     length of the following header bytes
+ *  UTF     version string
+ *  ushort  number of fields
+ *  UTF     field name, UTF field value ...
+ *
+ * followed by the raw cipher text. Content that was compressed before
+ * encryption names its compression type in an optional field. Large files
+ * that were split into chunks have a Chunked field and their cipher text
+ * is a {@link ChunkManifest}.
+ *
+ * Earlier versions are text lines, followed by the cipher text in Base64.
+ * These can still be read.
+ *
+ * The length of a header that was read from a stream, channel or path is the
+ * byte offset of the content.
+ */
 public class FHeader {
-    
+
+    // A header is usually a few hundred bytes
+    static final int HEADER_BUFFER_SIZE = 512;
+
     public final FHeaderValues fhvals;
+    public final String version;
     public final Path path;
     public final String owner;
+    public final String keyType;
     public final String token;
+    public final String compression;
+    public final boolean chunked;
     public final int length;
-    
-    private FHeader(FHeaderValues fhvals, Path path, String owner, String token, int length) {
+
+    private FHeader(FHeaderValues fhvals, String version, Path path, String owner, String keyType, String token, int length) {
+        this(fhvals, version, path, owner, keyType, token, null, false, length);
+    }
+
+    private FHeader(FHeaderValues fhvals, String version, Path path, String owner, String keyType, String token, String compression, boolean chunked, int length) {
         AssertArgument.assertNotNull(fhvals, "Null fhvals");
+        AssertArgument.assertNotNull(version, "Null version");
         AssertArgument.assertNotNull(path, "Null path");
         AssertArgument.assertNotNull(owner, "Null owner");
+        AssertArgument.assertNotNull(keyType, "Null keyType");
         AssertArgument.assertNotNull(token, "Null token");
         AssertArgument.assertTrue(length != 0, "Invalid length: " + length);
         this.fhvals = fhvals;
+        this.version = version;
         this.path = path;
         this.owner = owner;
+        this.keyType = keyType;
         this.token = token;
+        this.compression = compression;
+        this.chunked = chunked;
         this.length = length;
     }
 
+    /**
+     * True if the content that follows the header is Base64 encoded
+     */
+    public boolean isBase64() {
+        return !FHeaderValues.BINARY_VERSION.equals(version);
+    }
+
+    /**
+     * Read a header in any of the supported formats.
+     *
+     * Exactly the header bytes are consumed, so that the given stream
+     * is positioned at the start of the content.
+     */
+    public static FHeader fromStream(FHeaderValues fhv, InputStream ins) throws IOException {
+        DataInputStream dis = new DataInputStream(ins);
+
+        int magic = dis.readInt();
+        if (magic == FHeaderValues.BINARY_MAGIC)
+            return fromBinary(fhv, dis);
+
+        // Otherwise, this is a text header
+        byte[] head = new byte[] { (byte) (magic >>> 24), (byte) (magic >>> 16), (byte) (magic >>> 8), (byte) magic };
+        return fromLines(fhv, new StreamLines(head, ins));
+    }
+
+    /**
+     * Read the header of the given file.
+     */
+    public static FHeader fromPath(FHeaderValues fhv, Path path) throws IOException {
+        AssertArgument.assertNotNull(path, "Null path");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return fromChannel(fhv, channel);
+        }
+    }
+
+    /**
+     * Read the header from the start of the given channel.
+     *
+     * Only the first few hundred bytes are read. The channel is not closed and its
+     * position is undefined afterwards. Use the header length to position it at the content.
+     */
+    public static FHeader fromChannel(FHeaderValues fhv, FileChannel channel) throws IOException {
+        AssertArgument.assertNotNull(channel, "Null channel");
+        channel.position(0);
+
+        // Closing this stream would close the channel
+        InputStream ins = new BufferedInputStream(Channels.newInputStream(channel), HEADER_BUFFER_SIZE);
+        return fromStream(fhv, ins);
+    }
+
+    /**
+     * Read a text header.
+     *
+     * The length of the header is given in characters.
+     */
     public static FHeader fromReader(FHeaderValues fhv, Reader rd) throws IOException {
-        BufferedReader br = new BufferedReader(rd);
-        
+        return fromLines(fhv, new ReaderLines(rd));
+    }
+
+    private static FHeader fromBinary(FHeaderValues fhv, DataInputStream dis) throws IOException {
+
+        int size = dis.readInt();
+        AssertState.assertTrue(size > 0 && size < 0x10000, "Invalid header size: " + size);
+
+        byte[] bytes = new byte[size];
+        dis.readFully(bytes);
+
+        DataInputStream hdr = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        // First field is the version
+        String line = hdr.readUTF();
+        String prefix = fhv.getVersionString("");
+        AssertState.assertTrue(line.startsWith(prefix), "Invalid version: " + line);
+
+        String version = line.substring(prefix.length());
+        AssertState.assertEquals(FHeaderValues.BINARY_VERSION, version, "Unsupported version: " + version);
+
+        // Then come the named fields
+        Map<String, String> fields = new LinkedHashMap<>();
+        int count = hdr.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            String name = hdr.readUTF();
+            fields.put(name, hdr.readUTF());
+        }
+
+        String path = fields.get("Path");
+        AssertState.assertNotNull(path, "No path");
+        AssertState.assertNotNull(fields.get("Owner"), "No owner");
+        AssertState.assertNotNull(fields.get("KeyType"), "No key type");
+        AssertState.assertNotNull(fields.get("Token"), "No token");
+
+        int length = 8 + size;
+
+        return new FHeader(fhv, version, toPath(path), fields.get("Owner"), fields.get("KeyType"), fields.get("Token"), fields.get("Compression"), 
+                Boolean.parseBoolean(fields.get("Chunked")), length);
+    }
+
+    // A header with a path that is not valid on this platform is invalid
+    private static Path toPath(String path) {
+        try {
+            return Paths.get(path);
+        } catch (InvalidPathException ex) {
+            throw new IllegalStateException("Invalid path: " + path, ex);
+        }
+    }
+
+    private static FHeader fromLines(FHeaderValues fhv, Lines lines) throws IOException {
+
         // First line is the version
-        String line = br.readLine();
-        AssertState.assertTrue(line.startsWith(fhv.VERSION_STRING), "Invalid version: " + line);
-        
-        String version = line;
+        String line = lines.readLine();
+        String prefix = fhv.getVersionString("");
+        AssertState.assertTrue(line != null && line.startsWith(prefix), "Invalid version: " + line);
+
+        String version = line.substring(prefix.length());
         Path path = null;
         String owner = null;
+        String keyType = null;
         String token = null;
-        
-        int length = line.length() + 1;
+        boolean complete = false;
 
         // Read more header lines
         while (line != null) {
-            line = br.readLine();
+            line = lines.readLine();
             if (line != null) {
-                
-                length += line.length() + 1;
-                
+
                 if (line.startsWith("Path: ")) {
-                    path = Paths.get(line.substring(6));
+                    path = toPath(line.substring(6));
                 } else if (line.startsWith("Owner: ")) {
                     owner = line.substring(7);
+                } else if (line.startsWith("KeyType: ")) {
+                    keyType = line.substring(9);
                 } else if (line.startsWith("Token: ")) {
                     token = line.substring(7);
                 } else if (line.startsWith(fhv.FILE_HEADER_END)) {
+                    complete = true;
                     line = null;
                 }
             }
         }
-        
-        AssertState.assertEquals(fhv.VERSION_STRING, version);
-        
-        FHeader fheader = new FHeader(fhv, path, owner, token, length);
+
+        // A header read from a partial stream may be truncated
+        AssertState.assertTrue(complete, "No header end: " + path);
+        AssertState.assertNotNull(path, "No path");
+        AssertState.assertNotNull(owner, "No owner");
+        AssertState.assertNotNull(token, "No token");
+
+        // Headers without a key type have been wrapped with RSA
+        if (fhv.VERSION.equals(version)) {
+            AssertState.assertNull(keyType, "Unexpected key type: " + keyType);
+            keyType = RSAKeyEncapsulation.TYPE;
+        } else {
+            AssertState.assertEquals(FHeaderValues.KEY_TYPE_VERSION, version, "Unsupported version: " + version);
+            AssertState.assertNotNull(keyType, "No key type");
+        }
+
+        FHeader fheader = new FHeader(fhv, version, path, owner, keyType, token, lines.length);
         return fheader;
     }
 
-    public static FHeader fromFHandle(FHeaderValues fhv, FHandle fhandle) {
-		
+    public static FHeader fromFHandle(FHeaderValues fhv, FHandle fhandle, String keyType) {
+        return fromFHandle(fhv, fhandle, keyType, null, false);
+    }
+
+    public static FHeader fromFHandle(FHeaderValues fhv, FHandle fhandle, String keyType, String compression, boolean chunked) {
+
 		String owner = fhandle.getOwner().getAddress();
         String encToken = fhandle.getSecretToken();
-        
-        return new FHeader(fhv, fhandle.getPath(), owner, encToken, -1);
+
+        return new FHeader(fhv, FHeaderValues.BINARY_VERSION, fhandle.getPath(), owner, keyType, encToken, compression, chunked, -1);
 	}
-    
+
+    /**
+     * Write the header in the format of its version.
+     */
+    void write(OutputStream out) throws IOException {
+
+        if (isBase64()) {
+            Writer wr = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            write(wr);
+            wr.flush();
+            return;
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(512);
+        DataOutputStream hdr = new DataOutputStream(baos);
+
+        // First field is the version
+        hdr.writeUTF(fhvals.getVersionString(version));
+
+        // Then come the named fields
+        int count = 4 + (compression != null ? 1 : 0) + (chunked ? 1 : 0);
+        hdr.writeShort(count);
+        hdr.writeUTF("Path");
+        hdr.writeUTF(path.toString());
+        hdr.writeUTF("Owner");
+        hdr.writeUTF(owner);
+        hdr.writeUTF("KeyType");
+        hdr.writeUTF(keyType);
+        hdr.writeUTF("Token");
+        hdr.writeUTF(token);
+        if (compression != null) {
+            hdr.writeUTF("Compression");
+            hdr.writeUTF(compression);
+        }
+        if (chunked) {
+            hdr.writeUTF("Chunked");
+            hdr.writeUTF("true");
+        }
+        hdr.flush();
+
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(FHeaderValues.BINARY_MAGIC);
+        dos.writeInt(baos.size());
+        baos.writeTo(dos);
+        dos.flush();
+    }
+
     void write(Writer wr) {
+        AssertState.assertTrue(isBase64(), "Not a text header: " + version);
+
         PrintWriter pw = new PrintWriter(wr);
-        
+
         // First line is the version
-        pw.println(fhvals.VERSION_STRING);
-        
+        pw.println(fhvals.getVersionString(version));
+
         // Second is the location
         pw.println(String.format("Path: %s", path));
-        
+
         // Then comes the owner
         pw.println(String.format("Owner: %s", owner));
-        
+
+        // Then comes the key encapsulation type
+        if (!fhvals.VERSION.equals(version)) {
+            pw.println(String.format("KeyType: %s", keyType));
+        }
+
         // Then comes the encryption token in Base64
         pw.println(String.format("Token: %s", token));
-        
+
         // Then comes an end of header marker
         pw.println(fhvals.FILE_HEADER_END);
     }
-    
+
     public String toString() {
-        return String.format("[version=%s, owner=%s, path=%s, token=%s]", fhvals.VERSION, owner, path, token);
+        return String.format("[version=%s, owner=%s, path=%s, type=%s, token=%s, comp=%s, chunked=%b]", version, owner, path, keyType, token, compression, chunked);
+    }
+
+    static abstract class Lines {
+
+        // The number of units consumed so far
+        int length;
+
+        abstract String readLine() throws IOException;
+    }
+
+    static class ReaderLines extends Lines {
+
+        private final BufferedReader br;
+
+        ReaderLines(Reader rd) {
+            this.br = new BufferedReader(rd);
+        }
+
+        String readLine() throws IOException {
+            String line = br.readLine();
+            if (line != null) length += line.length() + 1;
+            return line;
+        }
+    }
+
+    // Reads byte wise, so that no content is consumed after the header
+    static class StreamLines extends Lines {
+
+        private final InputStream ins;
+        private byte[] head;
+
+        StreamLines(byte[] head, InputStream ins) {
+            this.head = head;
+            this.ins = ins;
+        }
+
+        String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+            int b = nextByte();
+            if (b < 0) return null;
+            while (b >= 0 && b != '\n') {
+                line.write(b);
+                b = nextByte();
+            }
+            String result = new String(line.toByteArray(), StandardCharsets.UTF_8);
+            return result.endsWith("\r") ? result.substring(0, result.length() - 1) : result;
+        }
+
+        private int nextByte() throws IOException {
+            int b;
+            if (head != null && length < head.length) {
+                b = head[length] & 0xFF;
+            } else {
+                head = null;
+                b = ins.read();
+            }
+            if (b >= 0) length++;
+            return b;
+        }
     }
-}
\ No newline at end of file
+}
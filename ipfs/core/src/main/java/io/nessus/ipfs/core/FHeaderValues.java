@@ -2,15 +2,28 @@ package io.nessus.ipfs.core;
 
 public class FHeaderValues {
     
+    // Headers that name their key encapsulation have this version
+    public static final String KEY_TYPE_VERSION = "1.1";
+    
+    // Headers in the binary container format have this version
+    public static final String BINARY_VERSION = "2.0";
+    
+    // The binary container starts with "NSF2"
+    public static final int BINARY_MAGIC = 0x4E534632;
+    
     public final String PREFIX;
     public final String VERSION;
     public final String VERSION_STRING;
     public final String FILE_HEADER_END;
     
-    FHeaderValues(String prefix, String version) {
+    public FHeaderValues(String prefix, String version) {
         this.PREFIX = prefix;
         this.VERSION = version;
         this.VERSION_STRING = PREFIX + "-Version: " + VERSION;
         this.FILE_HEADER_END = PREFIX.toUpperCase() + "_HEADER_END";
     }
+    
+    public String getVersionString(String version) {
+        return PREFIX + "-Version: " + version;
+    }
 }
\ No newline at end of file
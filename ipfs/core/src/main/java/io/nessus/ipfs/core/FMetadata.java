@@ -0,0 +1,190 @@
+package io.nessus.ipfs.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.ipfs.multihash.Multihash;
+import io.nessus.ipfs.FHandle;
+import io.nessus.utils.AssertArgument;
+import io.nessus.utils.AssertState;
+
+/**
+ * The metadata of an encrypted file or directory tree.
+ *
+ * It is added to IPFS next to the content and both are referenced from the
+ * same OP_RETURN record. Content can then be listed without getting it.
+ *
+ *  int     magic "NSM2"
+ *  UTF     version string
+ *  UTF     owner
+ *  UTF     key type
+ *  UTF     token
+ *  int     number of entries
+ *  boolean directory, UTF path ...
+ *  boolean content reference, UTF content id (optional)
+ *
+ * The first entry is the root, parents come before their children.
+ *
+ * Content that was sent by re-wrapping its secret key is not added again.
+ * The recipient's metadata then references the content of the original owner.
+ */
+public class FMetadata {
+
+    // The metadata object starts with "NSM2"
+    public static final int MAGIC = 0x4E534D32;
+
+    public final FHeaderValues fhvals;
+    public final String version;
+    public final String owner;
+    public final String keyType;
+    public final String token;
+    public final List<Entry> entries;
+    public final Multihash content;
+
+    private FMetadata(FHeaderValues fhvals, String version, String owner, String keyType, String token, List<Entry> entries, Multihash content) {
+        AssertArgument.assertNotNull(fhvals, "Null fhvals");
+        AssertArgument.assertNotNull(version, "Null version");
+        AssertArgument.assertNotNull(owner, "Null owner");
+        AssertArgument.assertNotNull(keyType, "Null keyType");
+        AssertArgument.assertNotNull(token, "Null token");
+        AssertArgument.assertTrue(!entries.isEmpty(), "No entries");
+        this.fhvals = fhvals;
+        this.version = version;
+        this.owner = owner;
+        this.keyType = keyType;
+        this.token = token;
+        this.entries = Collections.unmodifiableList(entries);
+        this.content = content;
+    }
+
+    public Entry getRoot() {
+        return entries.get(0);
+    }
+
+    public static FMetadata fromFHandle(FHeaderValues fhv, FHandle fhandle, String keyType) {
+        AssertArgument.assertTrue(fhandle.getParent() == null, "Not a root handle: " + fhandle);
+
+        String owner = fhandle.getOwner().getAddress();
+        String encToken = fhandle.getSecretToken();
+
+        List<Entry> entries = new ArrayList<>();
+        addEntries(fhandle, entries);
+
+        return new FMetadata(fhv, FHeaderValues.BINARY_VERSION, owner, keyType, encToken, entries, null);
+    }
+
+    static FMetadata fromEntries(FHeaderValues fhv, String owner, String keyType, String token, List<Entry> entries) {
+        return new FMetadata(fhv, FHeaderValues.BINARY_VERSION, owner, keyType, token, new ArrayList<>(entries), null);
+    }
+
+    /**
+     * The metadata of the same tree for another owner, that references the given content.
+     */
+    public FMetadata rewrap(String owner, String keyType, String token, Multihash content) {
+        AssertArgument.assertNotNull(content, "Null content");
+        return new FMetadata(fhvals, FHeaderValues.BINARY_VERSION, owner, keyType, token, entries, content);
+    }
+
+    public static FMetadata fromStream(FHeaderValues fhv, InputStream ins) throws IOException {
+        DataInputStream dis = new DataInputStream(ins);
+
+        int magic = dis.readInt();
+        AssertState.assertTrue(magic == MAGIC, "Invalid metadata: " + Integer.toHexString(magic));
+
+        // First field is the version
+        String line = dis.readUTF();
+        String prefix = fhv.getVersionString("");
+        AssertState.assertTrue(line.startsWith(prefix), "Invalid version: " + line);
+
+        String version = line.substring(prefix.length());
+        AssertState.assertEquals(FHeaderValues.BINARY_VERSION, version, "Unsupported version: " + version);
+
+        String owner = dis.readUTF();
+        String keyType = dis.readUTF();
+        String token = dis.readUTF();
+
+        // Then come the tree entries
+        int count = dis.readInt();
+        AssertState.assertTrue(count > 0, "Invalid number of entries: " + count);
+
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            boolean directory = dis.readBoolean();
+            Path path = Paths.get(dis.readUTF());
+            entries.add(new Entry(path, directory));
+        }
+
+        // Older metadata ends after the entries
+        Multihash content = null;
+        if (dis.read() > 0) {
+            content = Multihash.fromBase58(dis.readUTF());
+        }
+
+        return new FMetadata(fhv, version, owner, keyType, token, entries, content);
+    }
+
+    public byte[] toBytes() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(512);
+        write(baos);
+        return baos.toByteArray();
+    }
+
+    void write(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+
+        dos.writeInt(MAGIC);
+        dos.writeUTF(fhvals.getVersionString(version));
+        dos.writeUTF(owner);
+        dos.writeUTF(keyType);
+        dos.writeUTF(token);
+
+        dos.writeInt(entries.size());
+        for (Entry entry : entries) {
+            dos.writeBoolean(entry.directory);
+            dos.writeUTF(entry.path.toString());
+        }
+
+        if (content != null) {
+            dos.writeBoolean(true);
+            dos.writeUTF(content.toBase58());
+        }
+
+        dos.flush();
+    }
+
+    private static void addEntries(FHandle fhandle, List<Entry> entries) {
+        Path filePath = fhandle.getFilePath();
+        boolean directory = fhandle.hasChildren() || (filePath != null && filePath.toFile().isDirectory());
+        entries.add(new Entry(fhandle.getPath(), directory));
+        fhandle.getChildren().forEach(ch -> addEntries(ch, entries));
+    }
+
+    public String toString() {
+        return String.format("[version=%s, owner=%s, root=%s, type=%s, entries=%d, content=%s]", version, owner, getRoot().path, keyType, entries.size(), content);
+    }
+
+    public static class Entry {
+
+        public final Path path;
+        public final boolean directory;
+
+        Entry(Path path, boolean directory) {
+            AssertArgument.assertNotNull(path, "Null path");
+            this.path = path;
+            this.directory = directory;
+        }
+
+        public String toString() {
+            return String.format("[path=%s, dir=%b]", path, directory);
+        }
+    }
+}
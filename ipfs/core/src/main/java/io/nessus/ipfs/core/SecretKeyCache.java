@@ -0,0 +1,115 @@
+package io.nessus.ipfs.core;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+
+import io.nessus.Wallet.Address;
+import io.nessus.utils.AssertArgument;
+
+/**
+ * A short lived cache of AES secret keys keyed by owner and encrypted token.
+ *
+ * All files in a tree share the same encrypted token. Unwrapping the token
+ * requires a private key operation, which we only want to do once for a tree.
+ *
+ * Entries expire after a short time and the least recently used entry
+ * gets evicted first, so that unwrapped keys do not stay in memory.
+ */
+public class SecretKeyCache {
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final long DEFAULT_TTL = 60000; // 1 min
+
+    private final Map<String, Entry> cache;
+    private final long ttl;
+
+    public SecretKeyCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL);
+    }
+
+    public SecretKeyCache(int capacity, long ttl) {
+        AssertArgument.assertTrue(capacity > 0, "Invalid capacity: " + capacity);
+        AssertArgument.assertTrue(ttl >= 0, "Invalid ttl: " + ttl);
+        this.ttl = ttl;
+        this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public SecretKey get(Address owner, String token) {
+        AssertArgument.assertNotNull(owner, "Null owner");
+        AssertArgument.assertNotNull(token, "Null token");
+
+        String key = owner.getAddress() + ":" + token;
+        synchronized (cache) {
+            Entry entry = cache.get(key);
+            if (entry == null) return null;
+
+            if (entry.expires < System.currentTimeMillis()) {
+                cache.remove(key);
+                return null;
+            }
+
+            return entry.secKey;
+        }
+    }
+
+    public void put(Address owner, String token, SecretKey secKey) {
+        AssertArgument.assertNotNull(owner, "Null owner");
+        AssertArgument.assertNotNull(token, "Null token");
+        AssertArgument.assertNotNull(secKey, "Null secKey");
+
+        String key = owner.getAddress() + ":" + token;
+        synchronized (cache) {
+            cache.put(key, new Entry(secKey, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    static class Entry {
+
+        final SecretKey secKey;
+        final long expires;
+
+        Entry(SecretKey secKey, long expires) {
+            this.secKey = secKey;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.nessus.ipfs.core;
+
+/*-
+ * #%L
+ * Nessus :: IPFS
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.iq80.snappy.SnappyFramedInputStream;
+import org.iq80.snappy.SnappyFramedOutputStream;
+
+/**
+ * Snappy compression in the framing format, fast with a moderate ratio.
+ *
+ * Blocks that do not compress are stored as they are.
+ */
+public class SnappyCompression implements Compression {
+
+    public static final String TYPE = "snappy";
+
+    // A snappy copy element expands to at most 64 bytes per 3 bytes
+    static final int MAX_RATIO = 22;
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public int getMaxRatio() {
+        return MAX_RATIO;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new SnappyFramedOutputStream(out);
+    }
+
+    @Override
+    public InputStream decompress(InputStream ins) throws IOException {
+        return new SnappyFramedInputStream(ins, true);
+    }
+}
@@ -10,8 +10,12 @@ class TxDataHandler {
     
     static final byte OP_ADDR_DATA = 0x10;
     static final byte OP_FILE_DATA = 0x20;
+    static final byte OP_FILE_META = 0x21;
     static final byte OP_RETURN = 0x6A; 
     
+    // The data must fit into a single push, see isOurs
+    static final int MAX_DATA_LENGTH = 75;
+    
     final String OP_PREFIX;
     
     TxDataHandler(FHeaderValues fhid) {
@@ -33,12 +37,26 @@ class TxDataHandler {
     }
 
     byte[] createFileData(FHandle fhandle) {
+        
+        // Reference the content and its metadata as raw multihashes
+        Multihash metaCid = fhandle.getMetadataCid();
+        if (metaCid != null) {
+            byte[] cid = fhandle.getCid().toBytes();
+            byte[] mid = metaCid.toBytes();
+            int dlength = cid.length + mid.length;
+            if (OP_PREFIX.getBytes().length + 1 + dlength <= MAX_DATA_LENGTH)
+                return buffer(OP_FILE_META, dlength).put(cid).put(mid).array();
+        }
+        
         byte[] fid = fhandle.getCid().toBase58().getBytes();
         return buffer(OP_FILE_DATA, fid.length + 1).put((byte) fid.length).put(fid).array();
     }
 
     Multihash extractFileData(byte[] txdata) {
-        if (extractOpCode(txdata) != OP_FILE_DATA)
+        byte opcode = extractOpCode(txdata);
+        if (opcode == OP_FILE_META)
+            return extractMultihash(extractData(txdata), 0);
+        if (opcode != OP_FILE_DATA)
             return null;
         byte[] data = extractData(txdata);
         int len = data[0];
@@ -46,6 +64,14 @@ class TxDataHandler {
         return Multihash.fromBase58(new String(data));
     }
 
+    Multihash extractFileMetadata(byte[] txdata) {
+        if (extractOpCode(txdata) != OP_FILE_META)
+            return null;
+        byte[] data = extractData(txdata);
+        int offset = 2 + data[1];
+        return extractMultihash(data, offset);
+    }
+
     boolean isOurs(byte[] txdata) {
         byte[] prefix = OP_PREFIX.getBytes();
         if (txdata[0] != OP_RETURN) return false;
@@ -67,6 +93,12 @@ class TxDataHandler {
         return Arrays.copyOfRange(txdata, 2 + prefix.length + 1, txdata.length);
     }
 
+    // A multihash is the hash type, the digest length and the digest
+    private Multihash extractMultihash(byte[] data, int offset) {
+        int len = 2 + data[offset + 1];
+        return new Multihash(Arrays.copyOfRange(data, offset, offset + len));
+    }
+
     private ByteBuffer buffer(byte op, int dlength) {
         byte[] prefix = OP_PREFIX.getBytes();
         ByteBuffer buffer = ByteBuffer.allocate(prefix.length + 1 + dlength);
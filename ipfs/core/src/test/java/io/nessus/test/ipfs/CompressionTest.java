@@ -0,0 +1,94 @@
+package io.nessus.test.ipfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.nessus.ipfs.core.Compression;
+import io.nessus.ipfs.core.DeflateCompression;
+import io.nessus.ipfs.core.SnappyCompression;
+import io.nessus.utils.StreamUtils;
+
+public class CompressionTest {
+
+    @Test
+    public void testDeflate() throws Exception {
+        assertRoundTrip(new DeflateCompression());
+    }
+
+    @Test
+    public void testSnappy() throws Exception {
+        assertRoundTrip(new SnappyCompression());
+    }
+
+    private void assertRoundTrip(Compression comp) throws Exception {
+
+        byte[] text = textSample();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputStream out = comp.compress(baos)) {
+            out.write(text);
+        }
+
+        // Text compresses well
+        Assert.assertTrue("Unexpected size: " + baos.size(), baos.size() < text.length / 2);
+        Assert.assertEquals(baos.size(), comp.compressedSize(text));
+
+        try (InputStream ins = comp.decompress(new ByteArrayInputStream(baos.toByteArray()))) {
+            Assert.assertArrayEquals(text, StreamUtils.toBytes(ins));
+        }
+
+        // Random bytes do not
+        byte[] random = new byte[16 * 1024];
+        new Random(1).nextBytes(random);
+        Assert.assertTrue(comp.compressedSize(random) > random.length * 0.9);
+    }
+
+    @Test
+    public void testDeflateMaxSize() throws Exception {
+        assertMaxSize(new DeflateCompression());
+    }
+
+    @Test
+    public void testSnappyMaxSize() throws Exception {
+        assertMaxSize(new SnappyCompression());
+    }
+
+    private void assertMaxSize(Compression comp) throws Exception {
+
+        // Zeros compress at about the best ratio of the format
+        byte[] zeros = new byte[4 * 1024 * 1024];
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputStream out = comp.compress(baos)) {
+            out.write(zeros);
+        }
+
+        long maxSize = (long) baos.size() * comp.getMaxRatio();
+        try (InputStream ins = comp.decompress(new ByteArrayInputStream(baos.toByteArray()), maxSize)) {
+            Assert.assertArrayEquals(zeros, StreamUtils.toBytes(ins));
+        }
+
+        try (InputStream ins = comp.decompress(new ByteArrayInputStream(baos.toByteArray()), zeros.length - 1)) {
+            StreamUtils.toBytes(ins);
+            Assert.fail("IOException expected");
+        } catch (IOException ex) {
+            Assert.assertTrue(ex.getMessage().contains("exceeds"));
+        }
+    }
+
+    private byte[] textSample() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append(String.format("{\"id\": %d, \"level\": \"INFO\", \"message\": \"Some log message\"}\n", i));
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
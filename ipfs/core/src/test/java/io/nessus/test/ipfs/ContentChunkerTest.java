@@ -0,0 +1,92 @@
+package io.nessus.test.ipfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.nessus.ipfs.core.ContentChunker;
+
+public class ContentChunkerTest {
+
+    static final int MIN_SIZE = 2 * 1024;
+    static final int AVG_SIZE = 8 * 1024;
+    static final int MAX_SIZE = 32 * 1024;
+
+    @Test
+    public void testChunkSizes() throws Exception {
+
+        byte[] content = randomContent(1024 * 1024);
+        List<byte[]> chunks = chunks(content);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            Assert.assertTrue("Chunk too large: " + chunk.length, chunk.length <= MAX_SIZE);
+            Assert.assertTrue("Chunk too small: " + chunk.length, chunk.length >= MIN_SIZE || i == chunks.size() - 1);
+            baos.write(chunk);
+        }
+
+        // The chunks make up the content
+        Assert.assertArrayEquals(content, baos.toByteArray());
+
+        // Chunk boundaries depend on the content
+        Assert.assertTrue("Unexpected number of chunks: " + chunks.size(), chunks.size() > 50);
+    }
+
+    @Test
+    public void testEditInTheMiddle() throws Exception {
+
+        byte[] content = randomContent(1024 * 1024);
+
+        // Insert a few bytes in the middle
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(content, 0, content.length / 2);
+        baos.write(new byte[] { 1, 2, 3 });
+        baos.write(content, content.length / 2, content.length - content.length / 2);
+
+        List<byte[]> before = chunks(content);
+        List<byte[]> after = chunks(baos.toByteArray());
+
+        Set<String> known = new HashSet<>();
+        before.forEach(ch -> known.add(Arrays.toString(ch)));
+
+        int changed = 0;
+        for (byte[] chunk : after) {
+            if (!known.contains(Arrays.toString(chunk))) changed++;
+        }
+
+        // Only the chunks around the edit change
+        Assert.assertTrue("Unexpected changed chunks: " + changed, changed <= 2);
+    }
+
+    @Test
+    public void testEmptyContent() throws Exception {
+        ContentChunker chunker = new ContentChunker(new ByteArrayInputStream(new byte[0]), MIN_SIZE, AVG_SIZE, MAX_SIZE);
+        Assert.assertNull(chunker.nextChunk());
+    }
+
+    private List<byte[]> chunks(byte[] content) throws Exception {
+        ContentChunker chunker = new ContentChunker(new ByteArrayInputStream(content), MIN_SIZE, AVG_SIZE, MAX_SIZE);
+        List<byte[]> result = new ArrayList<>();
+        byte[] chunk = chunker.nextChunk();
+        while (chunk != null) {
+            result.add(chunk);
+            chunk = chunker.nextChunk();
+        }
+        return result;
+    }
+
+    private byte[] randomContent(int size) {
+        byte[] bytes = new byte[size];
+        new Random(1).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,82 @@
+package io.nessus.test.ipfs;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.nessus.ipfs.core.ContentJournal;
+import io.nessus.ipfs.core.ContentJournal.Entry;
+import io.nessus.ipfs.core.ContentJournal.Stage;
+import io.nessus.utils.FileUtils;
+
+public class ContentJournalTest {
+
+    @Test
+    public void testResume() throws Exception {
+
+        Path journalDir = Files.createTempDirectory("journal");
+        try {
+            Path tmpPath = Files.createTempFile(journalDir, "content", ".enc");
+
+            ContentJournal journal = new ContentJournal(journalDir);
+            Entry entry = journal.begin("add bob contentA", "fp1");
+            Assert.assertEquals(Stage.STARTED, entry.getStage());
+
+            entry.put("tmpPath", tmpPath).complete(Stage.ENCRYPTED);
+
+            // A restarted node resumes from the last completed stage
+            entry = new ContentJournal(journalDir).begin("add bob contentA", "fp1");
+            Assert.assertEquals(Stage.ENCRYPTED, entry.getStage());
+            Assert.assertTrue(entry.isCompleted(Stage.STARTED));
+            Assert.assertFalse(entry.isCompleted(Stage.ADDED));
+            Assert.assertEquals(tmpPath.toString(), entry.get("tmpPath"));
+
+            // Changed content discards the entry and its artifacts
+            entry = journal.begin("add bob contentA", "fp2");
+            Assert.assertEquals(Stage.STARTED, entry.getStage());
+            Assert.assertNull(entry.get("tmpPath"));
+            Assert.assertFalse(tmpPath.toFile().exists());
+
+            entry.remove();
+            entry = journal.begin("add bob contentA", "fp2");
+            Assert.assertEquals(Stage.STARTED, entry.getStage());
+
+        } finally {
+            FileUtils.recursiveDelete(journalDir);
+        }
+    }
+
+    @Test
+    public void testRecover() throws Exception {
+
+        Path journalDir = Files.createTempDirectory("journal");
+        try {
+            Path tmpDir = Files.createDirectories(journalDir.resolve("tmp"));
+            Path tmpA = Files.createTempDirectory(tmpDir, "");
+            Path tmpB = Files.createTempDirectory(tmpDir, "");
+            Path tmpPath = Files.createFile(tmpA.resolve("content.enc"));
+
+            ContentJournal journal = new ContentJournal(journalDir);
+            journal.begin("add bob contentA", "fp1").put("tmpPath", tmpPath).complete(Stage.ENCRYPTED);
+            journal.begin("add bob contentB", "fp1").complete(Stage.STARTED);
+            journal.begin("add bob contentC", "fp1").put("txId", "tx1").complete(Stage.RECORDED);
+            Assert.assertTrue(Stage.RECORDED.compareTo(Stage.STORED) > 0);
+
+            journal.recover(tmpDir);
+
+            // The encrypted content can still be resumed
+            Entry entry = journal.begin("add bob contentA", "fp1");
+            Assert.assertEquals(Stage.ENCRYPTED, entry.getStage());
+            Assert.assertTrue(tmpPath.toFile().exists());
+
+            // Orphaned temp content and entries that cannot be resumed are gone
+            Assert.assertFalse(tmpB.toFile().exists());
+            Assert.assertEquals(Stage.STARTED, journal.begin("add bob contentC", "fp1").getStage());
+
+        } finally {
+            FileUtils.recursiveDelete(journalDir);
+        }
+    }
+}
@@ -44,9 +44,11 @@ import io.nessus.ipfs.ContentManagerConfig;
 import io.nessus.ipfs.ContentManagerConfig.ContentManagerConfigBuilder;
 import io.nessus.ipfs.FHandle;
 import io.nessus.ipfs.NessusUserFault;
+import io.nessus.ipfs.core.DeflateCompression;
 import io.nessus.ipfs.core.FHeader;
 import io.nessus.ipfs.core.FHeaderValues;
 import io.nessus.utils.FileUtils;
+import io.nessus.utils.StreamUtils;
 import io.nessus.utils.TimeUtils;
 
 public class ContentManagerTest extends AbstractIpfsTest {
@@ -97,11 +99,9 @@ public class ContentManagerTest extends AbstractIpfsTest {
         Path srcPath = Paths.get("some space");
         FHandle fhandle = cntmgr.addIpfsContent(addrBob, srcPath, input);
         Path cryptPath = fhandle.getFilePath();
-        try (Reader fr = new FileReader(cryptPath.toFile())) {
-        	FHeaderValues fhv = cntmgr.getFHeaderValues();
-            FHeader fheader = FHeader.fromReader(fhv, fr);
-            Assert.assertEquals(srcPath, fheader.path);
-        }
+        FHeaderValues fhv = cntmgr.getFHeaderValues();
+        FHeader fheader = FHeader.fromPath(fhv, cryptPath);
+        Assert.assertEquals(srcPath, fheader.path);
         Path destPath = Paths.get("some other");
         fhandle = cntmgr.decrypt(fhandle, destPath, true);
         Path plainPath = fhandle.getFilePath();
@@ -196,6 +196,43 @@ public class ContentManagerTest extends AbstractIpfsTest {
         Assert.assertEquals("some text", new BufferedReader(rd).readLine());
     }
 
+    @Test
+    public void compressedAddGet() throws Exception {
+
+        Path path = Paths.get("compressed.txt");
+        cntmgr.removeLocalContent(addrBob, path);
+        
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("Some log message " + i + "\n");
+        }
+        byte[] content = sb.toString().getBytes();
+        
+        FHandle fhandle = cntmgr.addIpfsContent(addrBob, path, new ByteArrayInputStream(content));
+        Multihash cid = fhandle.getCid();
+        
+        // Verify that the content was compressed
+        
+        FHeader fheader = FHeader.fromPath(cntmgr.getFHeaderValues(), fhandle.getFilePath());
+        Assert.assertEquals(DeflateCompression.TYPE, fheader.compression);
+        Assert.assertTrue(fhandle.getFilePath().toFile().length() < content.length);
+        
+        // Clear the file cache & local file
+        
+        cntmgr.getIPFSCache().clear();
+        cntmgr.removeLocalContent(addrBob, path);
+        
+        // Get the file from IPFS
+        
+        FHandle fhres = cntmgr.getIpfsContent(addrBob, cid, path, null);
+        Assert.assertTrue(fhres.isAvailable());
+
+        // Verify local content
+        
+        try (InputStream ins = cntmgr.getLocalContent(addrBob, path)) {
+            Assert.assertArrayEquals(content, StreamUtils.toBytes(ins));
+        }
+    }
 
     @Test
     public void recursiveRemove() throws Exception {
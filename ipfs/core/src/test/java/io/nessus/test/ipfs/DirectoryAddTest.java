@@ -56,7 +56,7 @@ public class DirectoryAddTest extends AbstractIpfsTest {
         Assert.assertTrue(fhres.isAvailable());
         Assert.assertTrue(fhres.isEncrypted());
         
-        CidPath cid = CidPath.parse("QmbHxAmpdP6UETKZdZ8bvCj24jVqJ3c6xTGUpdTdEmAEHd");
+        CidPath cid = CidPath.parse("QmdeeUPgF4KkJtPSzYaKY5HURSe3othxLNtobkhjueNQAx");
 		Assert.assertEquals(cid, fhres.getCidPath());
         
         List<FHandle> fhandles = flatFileTree(fhres, new ArrayList<>());
@@ -45,7 +45,7 @@ public class DirectorySendTest extends AbstractIpfsTest {
         Assert.assertTrue(fhres.isAvailable());
         Assert.assertTrue(fhres.isEncrypted());
         
-        CidPath cid = CidPath.parse("QmbHxAmpdP6UETKZdZ8bvCj24jVqJ3c6xTGUpdTdEmAEHd");
+        CidPath cid = CidPath.parse("QmdeeUPgF4KkJtPSzYaKY5HURSe3othxLNtobkhjueNQAx");
 		Assert.assertEquals(cid, fhres.getCidPath());
              
 		// Send directory to Mary
@@ -55,7 +55,7 @@ public class DirectorySendTest extends AbstractIpfsTest {
         Assert.assertTrue(fhres.isAvailable());
         Assert.assertTrue(fhres.isEncrypted());
 		
-        cid = CidPath.parse("QmY97aAFBHdXM99nYTk6peP2mJpmmbVLws1j5i12Tp7tem");
+        cid = CidPath.parse("QmQmjQwppm3L1XgEaHizvPvdBiNnkNPjvCPkASPcBsPHeA");
 		Assert.assertEquals(cid, fhres.getCidPath());
              
         // Get the file from IPFS
@@ -71,5 +71,25 @@ public class DirectorySendTest extends AbstractIpfsTest {
         Path subpath = Paths.get("contentA/subA/file01.txt");
         Reader rd = new InputStreamReader(cntmgr.getLocalContent(addrMary, subpath));
         Assert.assertEquals("file 01", new BufferedReader(rd).readLine());
+        
+        // Send directory to Mary, only the key is wrapped again
+        
+        cid = CidPath.parse("QmdeeUPgF4KkJtPSzYaKY5HURSe3othxLNtobkhjueNQAx");
+		fhres = cntmgr.sendIpfsContent(addrBob, cid.getCid(), addrMary, true, null);
+		Assert.assertEquals(addrMary, fhres.getOwner());
+        Assert.assertTrue(fhres.isEncrypted());
+        Assert.assertEquals(fhres.getCid(), fhres.getMetadataCid());
+        
+        // Get the file from the content that Bob added
+        
+        cntmgr.removeLocalContent(addrMary, path);
+        
+        fhres = cntmgr.getIpfsContent(addrMary, fhres.getCid(), null, null);
+		Assert.assertEquals(addrMary, fhres.getOwner());
+        Assert.assertFalse(fhres.isEncrypted());
+        Assert.assertEquals(3, fhres.getChildren().size());
+        
+        rd = new InputStreamReader(cntmgr.getLocalContent(addrMary, subpath));
+        Assert.assertEquals("file 01", new BufferedReader(rd).readLine());
     }
 }
@@ -0,0 +1,181 @@
+package io.nessus.test.ipfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.nessus.cipher.RSAKeyEncapsulation;
+import io.nessus.ipfs.core.FHeader;
+import io.nessus.ipfs.core.FHeaderValues;
+
+public class FHeaderTest {
+
+    static final String OWNER = "n3ha6rJa8ZS7B4v4vwNWn8CnLHfUYXW1XE";
+    static final String TOKEN = "ZqtNmQ0BvbS5ll5tsFtC2nP6ezFgk3HdUxTfOnDzsXn3oqWmBlf1BdWVjCAxRqm6";
+
+    FHeaderValues fhvals = new FHeaderValues("Nessus", "1.0");
+
+    @Test
+    public void testBinaryHeader() throws Exception {
+
+        ByteArrayOutputStream baos = binaryHeader();
+        new DataOutputStream(baos).write(new byte[] { 1, 2, 3 });
+
+        InputStream ins = new ByteArrayInputStream(baos.toByteArray());
+        FHeader header = FHeader.fromStream(fhvals, ins);
+
+        Assert.assertEquals(FHeaderValues.BINARY_VERSION, header.version);
+        Assert.assertEquals(Paths.get("some space/file.txt"), header.path);
+        Assert.assertEquals(OWNER, header.owner);
+        Assert.assertEquals("EC", header.keyType);
+        Assert.assertEquals(TOKEN, header.token);
+        Assert.assertEquals(baos.size() - 3, header.length);
+        Assert.assertFalse(header.isBase64());
+
+        // The stream is positioned at the content
+        Assert.assertEquals(1, ins.read());
+    }
+
+    @Test
+    public void testFromChannel() throws Exception {
+
+        ByteArrayOutputStream baos = binaryHeader();
+        int offset = baos.size();
+        baos.write(new byte[64 * 1024]);
+        baos.write(7);
+
+        Path path = Files.createTempFile("fheader", ".dat");
+        try {
+            Files.write(path, baos.toByteArray());
+
+            FHeader header = FHeader.fromPath(fhvals, path);
+            Assert.assertEquals(offset, header.length);
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+                header = FHeader.fromChannel(fhvals, channel);
+                Assert.assertEquals(offset, header.length);
+
+                // Only the start of the file is read for the header
+                Assert.assertTrue("Unexpected position: " + channel.position(), channel.position() < 1024);
+
+                ByteBuffer buffer = ByteBuffer.allocate(1);
+                channel.read(buffer, channel.size() - 1);
+                Assert.assertEquals(7, buffer.get(0));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testTruncatedHeader() throws Exception {
+
+        // A probe that is shorter than the header
+        byte[] bytes = binaryHeader().toByteArray();
+        InputStream ins = new ByteArrayInputStream(bytes, 0, bytes.length - 8);
+        try {
+            FHeader.fromStream(fhvals, ins);
+            Assert.fail("EOFException expected");
+        } catch (EOFException ex) {
+            // expected
+        }
+
+        String text = fhvals.VERSION_STRING + "\nPath: some space/file.txt\nOwner: " + OWNER + "\n";
+        ins = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+        try {
+            FHeader.fromStream(fhvals, ins);
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testInvalidHeader() throws Exception {
+
+        // Headers with a missing field or an invalid path
+        ByteArrayOutputStream[] headers = new ByteArrayOutputStream[] {
+            binaryHeader("Path", "some space/file.txt", "KeyType", "EC", "Token", TOKEN),
+            binaryHeader("Path", "some space/file.txt", "Owner", OWNER, "KeyType", "EC"),
+            binaryHeader("Path", "some\u0000file.txt", "Owner", OWNER, "KeyType", "EC", "Token", TOKEN)
+        };
+        for (ByteArrayOutputStream baos : headers) {
+            try {
+                FHeader.fromStream(fhvals, new ByteArrayInputStream(baos.toByteArray()));
+                Assert.fail("IllegalStateException expected");
+            } catch (IllegalStateException ex) {
+                // expected
+            }
+        }
+
+        String text = fhvals.VERSION_STRING + "\nPath: some space/file.txt\n" + fhvals.FILE_HEADER_END + "\n";
+        try {
+            FHeader.fromStream(fhvals, new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+            Assert.fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    private ByteArrayOutputStream binaryHeader() throws IOException {
+        return binaryHeader("Path", "some space/file.txt", "Owner", OWNER, "KeyType", "EC", "Token", TOKEN);
+    }
+
+    // Names and values of the header fields
+    private ByteArrayOutputStream binaryHeader(String... fields) throws IOException {
+
+        ByteArrayOutputStream hdr = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(hdr);
+        dos.writeUTF(fhvals.getVersionString(FHeaderValues.BINARY_VERSION));
+        dos.writeShort(fields.length / 2);
+        for (String field : fields) {
+            dos.writeUTF(field);
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        dos = new DataOutputStream(baos);
+        dos.writeInt(FHeaderValues.BINARY_MAGIC);
+        dos.writeInt(hdr.size());
+        hdr.writeTo(dos);
+        return baos;
+    }
+
+    @Test
+    public void testTextHeader() throws Exception {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(fhvals.VERSION_STRING + "\n");
+        sb.append("Path: some space/file.txt\n");
+        sb.append("Owner: " + OWNER + "\n");
+        sb.append("Token: " + TOKEN + "\n");
+        sb.append(fhvals.FILE_HEADER_END + "\n");
+
+        byte[] bytes = (sb.toString() + "QUJD\n").getBytes(StandardCharsets.UTF_8);
+        InputStream ins = new ByteArrayInputStream(bytes);
+        FHeader header = FHeader.fromStream(fhvals, ins);
+
+        Assert.assertEquals(fhvals.VERSION, header.version);
+        Assert.assertEquals(Paths.get("some space/file.txt"), header.path);
+        Assert.assertEquals(RSAKeyEncapsulation.TYPE, header.keyType);
+        Assert.assertEquals(TOKEN, header.token);
+        Assert.assertEquals(bytes.length - 5, header.length);
+        Assert.assertTrue(header.isBase64());
+
+        // The stream is positioned at the content
+        Assert.assertEquals('Q', ins.read());
+    }
+}
@@ -0,0 +1,98 @@
+package io.nessus.test.ipfs;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.ipfs.multihash.Multihash;
+import io.nessus.AbstractAddress;
+import io.nessus.Wallet.Address;
+import io.nessus.ipfs.FHandle;
+import io.nessus.ipfs.FHandle.FHBuilder;
+import io.nessus.ipfs.core.FHeaderValues;
+import io.nessus.ipfs.core.FMetadata;
+
+public class FMetadataTest {
+
+    Address addrBob = new AbstractAddress("n3ha6rJa8ZS7B4v4vwNWn8CnLHfUYXW1XE") {};
+    Address addrMary = new AbstractAddress("mm2PoHeFncAStYeZJSSTa4bmUVXRa3L6PL") {};
+
+    FHeaderValues fhvals = new FHeaderValues("Nessus", "1.0");
+
+    @Test
+    public void testRoundTrip() throws Exception {
+
+        FHandle fhroot = new FHBuilder(addrBob, Paths.get("contentA"), url("contentA"))
+                .secretToken("token")
+                .build();
+        FHandle fhsub = new FHBuilder(addrBob, Paths.get("contentA/subA"), url("contentA/subA"))
+                .parent(fhroot)
+                .build();
+        new FHBuilder(addrBob, Paths.get("contentA/subA/file01.txt"), url("contentA/subA/file01.txt"))
+                .parent(fhsub)
+                .secretToken("token")
+                .build();
+        new FHBuilder(addrBob, Paths.get("contentA/file02.txt"), url("contentA/file02.txt"))
+                .parent(fhroot)
+                .secretToken("token")
+                .build();
+
+        FMetadata metadata = FMetadata.fromFHandle(fhvals, fhroot, "RSA");
+        byte[] bytes = metadata.toBytes();
+
+        // Metadata is much smaller than the content
+        Assert.assertTrue("Unexpected size: " + bytes.length, bytes.length < 256);
+
+        metadata = FMetadata.fromStream(fhvals, new ByteArrayInputStream(bytes));
+        Assert.assertEquals(FHeaderValues.BINARY_VERSION, metadata.version);
+        Assert.assertEquals(addrBob.getAddress(), metadata.owner);
+        Assert.assertEquals("RSA", metadata.keyType);
+        Assert.assertEquals("token", metadata.token);
+        Assert.assertEquals(4, metadata.entries.size());
+
+        // Parents come before their children
+        Assert.assertEquals(Paths.get("contentA"), metadata.getRoot().path);
+        Assert.assertTrue(metadata.getRoot().directory);
+        Assert.assertEquals(Paths.get("contentA/subA"), metadata.entries.get(1).path);
+        Assert.assertTrue(metadata.entries.get(1).directory);
+        Assert.assertEquals(Paths.get("contentA/subA/file01.txt"), metadata.entries.get(2).path);
+        Assert.assertFalse(metadata.entries.get(2).directory);
+        Assert.assertEquals(Paths.get("contentA/file02.txt"), metadata.entries.get(3).path);
+        Assert.assertFalse(metadata.entries.get(3).directory);
+        Assert.assertNull(metadata.content);
+    }
+
+    @Test
+    public void testRewrap() throws Exception {
+
+        FHandle fhroot = new FHBuilder(addrBob, Paths.get("contentA"), url("contentA"))
+                .secretToken("token")
+                .build();
+        new FHBuilder(addrBob, Paths.get("contentA/file02.txt"), url("contentA/file02.txt"))
+                .parent(fhroot)
+                .secretToken("token")
+                .build();
+
+        Multihash cid = Multihash.fromBase58("QmdeeUPgF4KkJtPSzYaKY5HURSe3othxLNtobkhjueNQAx");
+
+        FMetadata metadata = FMetadata.fromFHandle(fhvals, fhroot, "RSA");
+        metadata = metadata.rewrap(addrMary.getAddress(), "EC", "other", cid);
+
+        metadata = FMetadata.fromStream(fhvals, new ByteArrayInputStream(metadata.toBytes()));
+        Assert.assertEquals(addrMary.getAddress(), metadata.owner);
+        Assert.assertEquals("EC", metadata.keyType);
+        Assert.assertEquals("other", metadata.token);
+        Assert.assertEquals(cid, metadata.content);
+        Assert.assertEquals(2, metadata.entries.size());
+        Assert.assertEquals(Paths.get("contentA/file02.txt"), metadata.entries.get(1).path);
+    }
+
+    private URL url(String path) throws Exception {
+        Path tmpDir = Paths.get(System.getProperty("java.io.tmpdir"), "fmetadata");
+        return tmpDir.resolve(path).toUri().toURL();
+    }
+}
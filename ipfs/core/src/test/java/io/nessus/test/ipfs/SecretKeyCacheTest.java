@@ -0,0 +1,58 @@
+package io.nessus.test.ipfs;
+
+import javax.crypto.SecretKey;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.nessus.AbstractAddress;
+import io.nessus.Wallet.Address;
+import io.nessus.cipher.utils.AESUtils;
+import io.nessus.ipfs.core.SecretKeyCache;
+
+public class SecretKeyCacheTest {
+
+    Address addrBob = new AbstractAddress("n3ha6rJa8ZS7B4v4vwNWn8CnLHfUYXW1XE") {};
+    Address addrMary = new AbstractAddress("mm2PoHeFncAStYeZJSSTa4bmUVXRa3L6PL") {};
+    
+    @Test
+    public void testGetPut() throws Exception {
+        
+        SecretKeyCache cache = new SecretKeyCache();
+        SecretKey secKey = AESUtils.newSecretKey();
+        
+        cache.put(addrBob, "tokenA", secKey);
+        Assert.assertSame(secKey, cache.get(addrBob, "tokenA"));
+        Assert.assertNull(cache.get(addrBob, "tokenB"));
+        
+        // Keys are not shared between owners
+        
+        Assert.assertNull(cache.get(addrMary, "tokenA"));
+    }
+    
+    @Test
+    public void testBoundedCapacity() throws Exception {
+        
+        SecretKeyCache cache = new SecretKeyCache(2, SecretKeyCache.DEFAULT_TTL);
+        
+        cache.put(addrBob, "tokenA", AESUtils.newSecretKey());
+        cache.put(addrBob, "tokenB", AESUtils.newSecretKey());
+        cache.put(addrBob, "tokenC", AESUtils.newSecretKey());
+        
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get(addrBob, "tokenA"));
+        Assert.assertNotNull(cache.get(addrBob, "tokenC"));
+    }
+    
+    @Test
+    public void testExpiry() throws Exception {
+        
+        SecretKeyCache cache = new SecretKeyCache(2, 10);
+        
+        cache.put(addrBob, "tokenA", AESUtils.newSecretKey());
+        Thread.sleep(50);
+        
+        Assert.assertNull(cache.get(addrBob, "tokenA"));
+        Assert.assertEquals(0, cache.size());
+    }
+}
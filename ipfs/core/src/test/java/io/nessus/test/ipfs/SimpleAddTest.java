@@ -7,6 +7,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -44,7 +46,7 @@ public class SimpleAddTest extends AbstractIpfsTest {
         Assert.assertTrue(fhres.isAvailable());
         Assert.assertTrue(fhres.isEncrypted());
         
-        CidPath cid = CidPath.parse("Qmce1N5pky6LSVP37a8Hfv2kT7H6w1a1RyDbkaDRg6SSdS");
+        CidPath cid = CidPath.parse("QmeLRKLsQzCRTCee1jkUj3VFQf7eABoeRL9Ai1xzLBcLVV");
 		Assert.assertEquals(cid, fhres.getCidPath());
 
         // Expect to find the local content
@@ -75,6 +77,16 @@ public class SimpleAddTest extends AbstractIpfsTest {
         Reader rd = new InputStreamReader(cntmgr.getLocalContent(addrBob, path));
         Assert.assertEquals(new String(baos.toByteArray()), new BufferedReader(rd).readLine());
         
+        // Read a range without storing the plain content
+        
+        try (SeekableByteChannel channel = cntmgr.openIpfsContent(addrBob, cid.getCid(), path, null)) {
+            Assert.assertEquals(baos.size(), channel.size());
+            ByteBuffer buffer = ByteBuffer.allocate(5);
+            channel.position(4);
+            channel.read(buffer);
+            Assert.assertEquals(new String(baos.toByteArray(), 4, 5), new String(buffer.array()));
+        }
+        
         // Add the same file again
         
         fhres = cntmgr.addIpfsContent(addrBob, path);
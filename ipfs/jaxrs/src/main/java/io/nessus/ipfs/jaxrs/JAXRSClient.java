@@ -185,7 +185,25 @@ public class JAXRSClient implements JAXRSEndpoint {
     }
 
     @Override
-    public SFHandle sendIpfsContent(String addr, String cid, String rawTarget, Long timeout) throws IOException {
+    public InputStream streamIpfsContent(String addr, String cid, String relPath, Long timeout) throws IOException {
+
+        WebTarget target = client.target(generateURL("/streamipfs"))
+                .queryParam("addr", addr)
+                .queryParam("timeout", timeout)
+                .queryParam("cid", cid);
+
+        if (relPath != null) target = target.queryParam("path", relPath);
+        
+        Response res = processResponse(target.request().get(Response.class));
+
+        InputStream content = res.readEntity(InputStream.class);
+        LOG.info("/streamipfs {} {}", cid, relPath);
+
+        return content;
+    }
+
+    @Override
+    public SFHandle sendIpfsContent(String addr, String cid, String rawTarget, Boolean rewrap, Long timeout) throws IOException {
 
         WebTarget target = client.target(generateURL("/sendipfs"))
                 .queryParam("addr", addr)
@@ -193,6 +211,8 @@ public class JAXRSClient implements JAXRSEndpoint {
                 .queryParam("cid", cid)
                 .queryParam("timeout", timeout);
 
+        if (rewrap != null) target = target.queryParam("rewrap", rewrap);
+
         Response res = processResponse(target.request().get(Response.class));
 
         SFHandle shandle = res.readEntity(SFHandle.class);
@@ -32,8 +32,8 @@ public final class JAXRSConfig extends ContentManagerConfig {
     }
     
     private JAXRSConfig(String ipfsAddr, String bcImpl, String bcUrl, String bcHost, int bcPort, String bcUser, 
-    		String bcPass, long ipfsTimeout, int ipfsAttempts, int ipfsThreads, Path dataDir, boolean overwrite, String jaxrsHost, int jaxrsPort, String jaxrsPath) {
-    	super(bcImpl, bcUrl, bcHost, bcPort, bcUser, bcPass, ipfsAddr, ipfsTimeout, ipfsAttempts, ipfsThreads, dataDir, overwrite);
+    		String bcPass, long ipfsTimeout, int ipfsAttempts, int ipfsThreads, Path dataDir, boolean overwrite, boolean keyStore, long parallelThreshold, String keyType, long chunkThreshold, String jaxrsHost, int jaxrsPort, String jaxrsPath) {
+    	super(bcImpl, bcUrl, bcHost, bcPort, bcUser, bcPass, ipfsAddr, ipfsTimeout, ipfsAttempts, ipfsThreads, dataDir, overwrite, keyStore, parallelThreshold, keyType, chunkThreshold);
         this.jaxrsHost = jaxrsHost;
         this.jaxrsPort = jaxrsPort;
     	this.jaxrsPath = jaxrsPath;
@@ -54,8 +54,8 @@ public final class JAXRSConfig extends ContentManagerConfig {
     }
     
     public String toString() {
-        return String.format("[dataDir=%s, timeout=%s, attempts=%s, threads=%s, overwrite=%b]", 
-                dataDir, ipfsTimeout, ipfsAttempts, ipfsThreads, overwrite);
+        return String.format("[dataDir=%s, timeout=%s, attempts=%s, threads=%s, overwrite=%b, keystore=%b, keytype=%s]", 
+                dataDir, ipfsTimeout, ipfsAttempts, ipfsThreads, overwrite, keyStore, keyType);
     }
     
     public static class JAXRSConfigBuilder extends AbstractContentManagerConfigBuilder<JAXRSConfigBuilder, JAXRSConfig> {
@@ -80,7 +80,7 @@ public final class JAXRSConfig extends ContentManagerConfig {
         }
         
         public JAXRSConfig build() {
-            return new JAXRSConfig(ipfsAddr, bcImpl, bcUrl, bcHost, bcPort, bcUser, bcPass, ipfsTimeout, ipfsAttempts, ipfsThreads, dataDir, overwrite, jaxrsHost, jaxrsPort, jaxrsPath);
+            return new JAXRSConfig(ipfsAddr, bcImpl, bcUrl, bcHost, bcPort, bcUser, bcPass, ipfsTimeout, ipfsAttempts, ipfsThreads, dataDir, overwrite, keyStore, parallelThreshold, keyType, chunkThreshold, jaxrsHost, jaxrsPort, jaxrsPath);
         }
     }
 }
\ No newline at end of file
@@ -225,6 +225,29 @@ public interface JAXRSEndpoint {
     @Produces(MediaType.APPLICATION_JSON)
     SFHandle getIpfsContent(@QueryParam("addr") String owner, @QueryParam("cid") String cid, @QueryParam("path") String path, @QueryParam("timeout") Long timeout) throws IOException, GeneralSecurityException;
 
+    /**
+     * Stream a file from IPFS content.
+     * 
+     * The content is found and the owner's key is unwrapped before the response starts, so that 
+     * errors are reported as such. The content is then decrypted while it is written to the response.
+     * Nothing is stored in the owner's local content. The length of the plain content is not known 
+     * in advance, so the response uses chunked transfer encoding.
+     * 
+     * The path is the path of the file in the content. It is optional when the content is a single file.
+     * 
+     * Example:
+     * 
+     *      curl -f http://192.168.178.20:8081/nessus/streamipfs?addr=mt5CNtbvx9qSxCRze5AqTDdsr4CZCn9MQB\&cid=Qme7mLoshqb8E8szmebWqiY8o1UbMAYcWL1b3YdTyPv6Ds
+     *      
+     *      Hello World 
+     *       
+     * @param timeout The optional timeout in miliseconds that IPFS is given to find the content on the network. 
+     */
+    @GET
+    @Path("/streamipfs")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    InputStream streamIpfsContent(@QueryParam("addr") String owner, @QueryParam("cid") String cid, @QueryParam("path") String path, @QueryParam("timeout") Long timeout) throws IOException, GeneralSecurityException;
+
     /**
      * Send IPFS content to a target address.
      * 
@@ -235,6 +258,9 @@ public interface JAXRSEndpoint {
      * private key, then encrypts it again with the receipient's public key and finally registeres
      * a DATA transaction on the blockchain that records the content transfer.
      * 
+     * With rewrap, the content is not decrypted. Only its secret key is wrapped again with the 
+     * receipient's public key and published with new metadata that references the existing content.
+     * 
      * Example:
      *      
      *      ipfs cat Qme7mLoshqb8E8szmebWqiY8o1UbMAYcWL1b3YdTyPv6Ds
@@ -251,13 +277,14 @@ public interface JAXRSEndpoint {
      *        ...
      *      } 
      *       
+     * @param rewrap The optional flag to only wrap the secret key again
      * @param timeout The optional timeout in miliseconds that IPFS is given to find the content on the network. 
      * @return A handle to the encrypted IPFS content
      */
     @GET
     @Path("/sendipfs")
     @Produces(MediaType.APPLICATION_JSON)
-    SFHandle sendIpfsContent(@QueryParam("addr") String owner, @QueryParam("cid") String cid, @QueryParam("target") String target, @QueryParam("timeout") Long timeout) throws IOException, GeneralSecurityException;
+    SFHandle sendIpfsContent(@QueryParam("addr") String owner, @QueryParam("cid") String cid, @QueryParam("target") String target, @QueryParam("rewrap") Boolean rewrap, @QueryParam("timeout") Long timeout) throws IOException, GeneralSecurityException;
 
     /**
      * Find IPFS content for a given owner address.
@@ -23,6 +23,7 @@ package io.nessus.ipfs.jaxrs;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
 import java.security.PublicKey;
@@ -165,14 +166,30 @@ public class JAXRSResource implements JAXRSEndpoint {
     }
 
     @Override
-    public SFHandle sendIpfsContent(String addr, String cid, @QueryParam("target") String rawTarget, Long timeout) throws IOException, GeneralSecurityException {
+    public InputStream streamIpfsContent(String addr, String cid, String path, Long timeout) throws IOException, GeneralSecurityException {
+
+        assertBlockchainNetworkAvailable();
+        
+        Address owner = assertWalletAddress(addr);
+        Path relPath = path != null ? Paths.get(path) : null;
+        
+        // Decryption happens while the response is written
+        InputStream content = cntmgr.streamIpfsContent(owner, Multihash.fromBase58(cid), relPath, timeout);
+        LOG.info("/streamipfs {} {}", cid, path);
+
+        return content;
+    }
+
+    @Override
+    public SFHandle sendIpfsContent(String addr, String cid, @QueryParam("target") String rawTarget, Boolean rewrap, Long timeout) throws IOException, GeneralSecurityException {
 
         assertBlockchainNetworkAvailable();
         
         Address owner = assertWalletAddress(addr);
         Address target = assertWalletAddress(rawTarget);
 
-        FHandle fhandle = cntmgr.sendIpfsContent(owner, Multihash.fromBase58(cid), target, timeout);
+        boolean keyOnly = rewrap != null ? rewrap : false;
+        FHandle fhandle = cntmgr.sendIpfsContent(owner, Multihash.fromBase58(cid), target, keyOnly, timeout);
 
         SFHandle shandle = new SFHandle(fhandle);
         LOG.info("/sendipfs {} => {}", cid, shandle);
@@ -150,9 +150,16 @@ public class JAXRSFrontendTest extends AbstractJAXRSTest {
         Assert.assertFalse(fhandle.isEncrypted());
         Assert.assertNull(fhandle.getCid());
 
+        // Stream content from IPFS
+
+        try (InputStream ins = client.streamIpfsContent(addrBob.getAddress(), cid, null, timeout)) {
+            br = new BufferedReader(new InputStreamReader(ins));
+            Assert.assertEquals("The quick brown fox jumps over the lazy dog.", br.readLine());
+        }
+
         // Send content from IPFS
 
-        fhandle = client.sendIpfsContent(addrBob.getAddress(), cid, addrMary.getAddress(), timeout);
+        fhandle = client.sendIpfsContent(addrBob.getAddress(), cid, addrMary.getAddress(), null, timeout);
 
         Assert.assertEquals(addrMary.getAddress(), fhandle.getOwner());
         Assert.assertEquals(relPath, Paths.get(fhandle.getPath()));
@@ -396,7 +396,7 @@ public class ContentHandler implements HttpHandler {
         String rawToAddr = qparams.get("toaddr").getFirst();
         String cid = qparams.get("cid").getFirst();
 
-        jaxrsClient.sendIpfsContent(rawFromAddr, cid, rawToAddr, null);
+        jaxrsClient.sendIpfsContent(rawFromAddr, cid, rawToAddr, null, null);
 
         redirectFileList(exchange, rawFromAddr);
     }
@@ -21,15 +21,24 @@ package io.nessus.utils;
  */
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 
 public final class FileUtils {
 
+    // The max number of bytes per channel transfer
+    static final long TRANSFER_SIZE = 8 * 1024 * 1024;
+
     // Hide ctor
     private FileUtils() {};
     
@@ -80,5 +89,49 @@ public final class FileUtils {
         recursiveDelete(dstPath);
         Files.move(srcPath, dstPath, StandardCopyOption.ATOMIC_MOVE);
 	}
+
+    /**
+     * Move the given path with an atomic rename.
+     * 
+     * Paths on different file systems cannot be renamed, these are copied and deleted instead.
+     */
+    public static void recursiveMove(Path srcPath, Path dstPath) throws IOException {
+        AssertArgument.assertNotNull(srcPath, "Null srcPath");
+        AssertArgument.assertTrue(srcPath.toFile().exists(), "Does not exist: " + srcPath);
+        AssertArgument.assertNotNull(dstPath, "Null destPath");
+        
+        try {
+            atomicMove(srcPath, dstPath);
+        } catch (AtomicMoveNotSupportedException ex) {
+            recursiveCopy(srcPath, dstPath);
+            recursiveDelete(srcPath);
+        }
+    }
+
+    /**
+     * Copy the given stream to a file.
+     * 
+     * The bytes of a file stream are transferred by the file system, without 
+     * passing through the heap. The given stream is not closed.
+     * 
+     * @return The number of bytes copied
+     */
+    public static long copyToFile(InputStream ins, Path dstPath) throws IOException {
+        AssertArgument.assertNotNull(ins, "Null ins");
+        AssertArgument.assertNotNull(dstPath, "Null destPath");
+        
+        // Closing this channel would close the stream
+        ReadableByteChannel src = Channels.newChannel(ins);
+        
+        try (FileChannel dst = FileChannel.open(dstPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long count = 0;
+            long read = dst.transferFrom(src, count, TRANSFER_SIZE);
+            while (read > 0) {
+                count += read;
+                read = dst.transferFrom(src, count, TRANSFER_SIZE);
+            }
+            return count;
+        }
+    }
 }
 
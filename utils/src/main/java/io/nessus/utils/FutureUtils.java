@@ -0,0 +1,117 @@
+package io.nessus.utils;
+
+/*-
+ * #%L
+ * Nessus :: Utils
+ * %%
+ * Copyright (C) 2018 Nessus
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Composable timeouts and delays for {@link CompletableFuture}, which has none of these in Java 8.
+ */
+public final class FutureUtils {
+
+    // A single thread that only completes futures, it never does any work of its own
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(run -> {
+        Thread thread = new Thread(run, "future-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // Hide ctor
+    private FutureUtils() {
+    }
+
+    /**
+     * Fail the given future with the supplied exception, when it is not done within the given millis.
+     * 
+     * The future itself is completed, so that whoever does the work can see that it is no longer needed.
+     * @return the given future
+     */
+    public static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long millis, Supplier<? extends Throwable> supplier) {
+        AssertArgument.assertNotNull(future, "Null future");
+        AssertArgument.assertNotNull(supplier, "Null supplier");
+        if (!future.isDone()) {
+            ScheduledFuture<?> task = timer.schedule(() -> future.completeExceptionally(supplier.get()), Math.max(0, millis), TimeUnit.MILLISECONDS);
+            future.whenComplete((res, th) -> task.cancel(false));
+        }
+        return future;
+    }
+
+    /**
+     * A future that completes after the given millis, without a thread waiting for it.
+     */
+    public static CompletableFuture<Void> delay(long millis) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        timer.schedule(() -> future.complete(null), Math.max(0, millis), TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    /**
+     * A future that is already completed with the result of the given call, or its failure.
+     */
+    public static <T> CompletableFuture<T> call(Callable<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(call.call());
+        } catch (Exception ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * A function for thenApply and friends, that may throw a checked exception.
+     */
+    public static <T, R> Function<T, R> unchecked(ThrowingFunction<T, R> function) {
+        return arg -> {
+            try {
+                return function.apply(arg);
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        };
+    }
+
+    /**
+     * The exception that a future has actually failed with.
+     */
+    public static Throwable unwrap(Throwable th) {
+        while ((th instanceof CompletionException || th instanceof ExecutionException) && th.getCause() != null) {
+            th = th.getCause();
+        }
+        return th;
+    }
+    
+    public interface ThrowingFunction<T, R> {
+        
+        R apply(T arg) throws Exception;
+    }
+}
@@ -24,15 +24,19 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class StreamUtils {
 
+    // Fewer reads and writes for large content
+    static final int BUFFER_SIZE = 8 * 1024;
+
     // Hide ctor
     private StreamUtils() {
     }
 
     public static void copyStream(InputStream ins, OutputStream outs) throws IOException {
-        byte[] buffer = new byte[1024];
+        byte[] buffer = new byte[BUFFER_SIZE];
         int read = ins.read(buffer);
         while (read > 0) {
             outs.write(buffer, 0, read);
@@ -45,4 +49,39 @@ public class StreamUtils {
         copyStream(ins, baos);
         return baos.toByteArray();
     }
+
+    /**
+     * An input stream that reads the remaining bytes of the given buffer.
+     */
+    public static InputStream toInputStream(ByteBuffer buffer) {
+        AssertArgument.assertNotNull(buffer, "Null buffer");
+        return new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+                return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                if (!buffer.hasRemaining()) return -1;
+                int count = Math.min(len, buffer.remaining());
+                buffer.get(bytes, off, count);
+                return count;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+                buffer.position(buffer.position() + count);
+                return count;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return buffer.remaining();
+            }
+        };
+    }
 }